@@ -0,0 +1,134 @@
+package com.example.imagemorpher;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bucketed pool of mutable bitmaps shared by morph runs
+ * Frames of a finished morph are released here and handed out to the next morph of the
+ * same size instead of allocating every frame again. Free bitmaps are kept up to a byte
+ * budget; past it, the sizes released longest ago are recycled first
+ */
+public class BitmapPool {
+
+    /**
+     * Share of the heap the free bitmaps of the shared pool may take
+     */
+    static final float HEAP_SHARE = 0.125f;
+
+    /**
+     * Process-wide pool
+     */
+    private static BitmapPool shared;
+
+    /**
+     * Free bitmaps by size and config, least recently released size first
+     */
+    private final LinkedHashMap<String, ArrayDeque<Bitmap>> free = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final long budget;
+
+    /**
+     * Bytes held by the free bitmaps
+     */
+    private long size;
+
+    /**
+     * Create a pool
+     * @param budget largest total size of the free bitmaps in bytes as long
+     */
+    public BitmapPool(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Get the shared pool
+     * @return shared pool
+     */
+    public static synchronized BitmapPool getShared() {
+        if (shared == null) {
+            shared = new BitmapPool((long) (Runtime.getRuntime().maxMemory() * HEAP_SHARE));
+        }
+        return shared;
+    }
+
+    /**
+     * Take a bitmap out of the pool, or create one if none of the size is free
+     * @param width the width as integer
+     * @param height the height as integer
+     * @param config bitmap config
+     * @return mutable bitmap, its content is undefined
+     */
+    public synchronized Bitmap acquire(int width, int height, Bitmap.Config config) {
+        ArrayDeque<Bitmap> bitmaps = free.get(key(width, height, config));
+        if (bitmaps != null && !bitmaps.isEmpty()) {
+            Bitmap bitmap = bitmaps.pop();
+            size -= bitmap.getAllocationByteCount();
+            return bitmap;
+        }
+        return Bitmap.createBitmap(width, height, config);
+    }
+
+    /**
+     * Give a bitmap back, the caller must not use or show it anymore
+     * @param bitmap bitmap, may be null
+     */
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable() || bitmap.getConfig() == null) {
+            return;
+        }
+        long bytes = bitmap.getAllocationByteCount();
+        String key = key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        Iterator<Map.Entry<String, ArrayDeque<Bitmap>>> buckets = free.entrySet().iterator();
+        while (size + bytes > budget && buckets.hasNext()) {
+            Map.Entry<String, ArrayDeque<Bitmap>> bucket = buckets.next();
+            if (!bucket.getKey().equals(key)) {
+                for (Bitmap evicted : bucket.getValue()) {
+                    size -= evicted.getAllocationByteCount();
+                    evicted.recycle();
+                }
+                buckets.remove();
+            }
+        }
+        if (size + bytes > budget) {
+            bitmap.recycle();
+            return;
+        }
+        ArrayDeque<Bitmap> bitmaps = free.get(key);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            free.put(key, bitmaps);
+        }
+        bitmaps.push(bitmap);
+        size += bytes;
+    }
+
+    /**
+     * Give back every bitmap of an array
+     * @param bitmaps bitmaps, entries may be null
+     */
+    public void releaseAll(Bitmap[] bitmaps) {
+        if (bitmaps == null) {
+            return;
+        }
+        for (Bitmap bitmap : bitmaps) {
+            release(bitmap);
+        }
+    }
+
+    /**
+     * Get the memory held by the free bitmaps
+     * @return size in bytes as long
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    private static String key(int width, int height, Bitmap.Config config) {
+        return width + "x" + height + ":" + config;
+    }
+}
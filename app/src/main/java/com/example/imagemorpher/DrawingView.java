@@ -172,6 +172,14 @@ public class DrawingView extends View {
         return line;
     }
 
+    /**
+     * Check if an existing line is being moved or resized
+     * @return true while a line is dragged
+     */
+    public boolean isEditingLine() {
+        return editFlag != 0;
+    }
+
     public void addLine(Line line) {
         lineList.add(line);
         invalidate();
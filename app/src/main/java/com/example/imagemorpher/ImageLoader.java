@@ -0,0 +1,174 @@
+package com.example.imagemorpher;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.LruCache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+
+/**
+ * Decodes picked images straight to the size they are shown or morphed at
+ * Sizes are read from the image header alone. Images are decoded with the largest
+ * power of two inSampleSize that still covers the requested size, and the decoded
+ * bitmaps are kept in an LruCache, so one decode of each image serves the drawing
+ * view, the preview and the morph. A request is served by any cached decode of the
+ * image that is at least as fine as it needs
+ */
+public class ImageLoader {
+
+    /**
+     * Share of the heap the decoded images may take
+     */
+    static final float HEAP_SHARE = 0.125f;
+
+    /**
+     * Process-wide loader
+     */
+    private static ImageLoader shared;
+
+    private final ContentResolver contentResolver;
+
+    /**
+     * Decoded images by Uri and sample size
+     */
+    private final LruCache<String, Bitmap> decoded;
+
+    /**
+     * Full width and height of every image seen so far
+     */
+    private final HashMap<Uri, int[]> sizes = new HashMap<>();
+
+    /**
+     * Create a loader
+     * @param contentResolver resolver of the image Uris
+     * @param budget largest total size of the decoded images in bytes as integer
+     */
+    public ImageLoader(ContentResolver contentResolver, int budget) {
+        this.contentResolver = contentResolver;
+        this.decoded = new LruCache<String, Bitmap>(budget) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+        };
+    }
+
+    /**
+     * Get the shared loader
+     * @param context any context, only its application context is kept
+     * @return shared loader
+     */
+    public static synchronized ImageLoader getShared(Context context) {
+        if (shared == null) {
+            shared = new ImageLoader(context.getApplicationContext().getContentResolver(),
+                    (int) Math.min(Integer.MAX_VALUE, (long) (Runtime.getRuntime().maxMemory() * HEAP_SHARE)));
+        }
+        return shared;
+    }
+
+    /**
+     * Read the size of an image without decoding its pixels
+     * @param uri image
+     * @return full width and height as int[]
+     * @throws IOException if the image cannot be read
+     */
+    public synchronized int[] readSize(Uri uri) throws IOException {
+        int[] size = sizes.get(uri);
+        if (size == null) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            decode(uri, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                throw new IOException("Cannot decode " + uri);
+            }
+            size = new int[]{options.outWidth, options.outHeight};
+            sizes.put(uri, size);
+        }
+        return size.clone();
+    }
+
+    /**
+     * Get an image at least as large as requested, or at full size if it is smaller
+     * The bitmap is shared through the cache: it must not be changed or recycled
+     * @param uri image
+     * @param minWidth smallest width needed as integer
+     * @param minHeight smallest height needed as integer
+     * @return immutable bitmap with the aspect ratio of the image
+     * @throws IOException if the image cannot be read
+     */
+    public synchronized Bitmap load(Uri uri, int minWidth, int minHeight) throws IOException {
+        int[] size = readSize(uri);
+        int sampleSize = sampleSize(size[0], size[1], minWidth, minHeight);
+        //Finer decodes serve coarser requests
+        for (int finer = sampleSize; finer >= 1; finer /= 2) {
+            Bitmap bitmap = decoded.get(key(uri, finer));
+            if (bitmap != null) {
+                return bitmap;
+            }
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        Bitmap bitmap = decode(uri, options);
+        if (bitmap == null) {
+            throw new IOException("Cannot decode " + uri);
+        }
+        decoded.put(key(uri, sampleSize), bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Get an image scaled to a size, the aspect ratio is not kept
+     * @param uri image
+     * @param width the width as integer
+     * @param height the height as integer
+     * @return bitmap, may be the cached one when it has the size already and must not be changed
+     * @throws IOException if the image cannot be read
+     */
+    public Bitmap loadScaled(Uri uri, int width, int height) throws IOException {
+        return Bitmap.createScaledBitmap(load(uri, width, height), width, height, true);
+    }
+
+    /**
+     * Drop every decoded image
+     */
+    public synchronized void clear() {
+        decoded.evictAll();
+    }
+
+    private Bitmap decode(Uri uri, BitmapFactory.Options options) throws IOException {
+        try (InputStream input = contentResolver.openInputStream(uri)) {
+            if (input == null) {
+                throw new IOException("Cannot open " + uri);
+            }
+            return BitmapFactory.decodeStream(input, null, options);
+        }
+    }
+
+    /**
+     * Get the largest power of two an image can be subsampled by and still cover a size
+     * @param width the full width as integer
+     * @param height the full height as integer
+     * @param minWidth smallest width needed as integer
+     * @param minHeight smallest height needed as integer
+     * @return sample size as integer
+     */
+    static int sampleSize(int width, int height, int minWidth, int minHeight) {
+        int sampleSize = 1;
+        minWidth = Math.max(1, minWidth);
+        minHeight = Math.max(1, minHeight);
+        while (width / (sampleSize * 2) >= minWidth && height / (sampleSize * 2) >= minHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static String key(Uri uri, int sampleSize) {
+        return uri + "@" + sampleSize;
+    }
+}
@@ -9,6 +9,8 @@ import android.graphics.PointF;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.FileUtils;
+import android.os.Handler;
+import android.os.Looper;
 import android.provider.MediaStore;
 import android.util.DisplayMetrics;
 import android.util.Pair;
@@ -30,6 +32,11 @@ import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 
+import com.example.imagemorpher.engine.LineTable;
+import com.example.imagemorpher.engine.PreviewRenderer;
+import com.example.imagemorpher.engine.WarpScheduler;
+import com.example.imagemorpher.engine.WeightFunction;
+
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -62,6 +69,31 @@ public class MainActivity extends AppCompatActivity implements DialogFragment.Di
 
     final int MAX_SIZE = 256;
 
+    /**
+     * Longest side of the final frames in pixels, rendered after the preview at MAX_SIZE
+     */
+    final int FINAL_SIZE = 1080;
+
+    /**
+     * Longest side of the live preview in pixels
+     */
+    final int PREVIEW_SIZE = 128;
+
+    ImageView previewView;
+
+    PreviewRenderer previewRenderer;
+
+    int previewWidth, previewHeight;
+
+    /**
+     * Generation of the preview on screen, older results are dropped
+     */
+    int shownPreviewGeneration = -1;
+
+    final Handler uiHandler = new Handler(Looper.getMainLooper());
+
+    ImageLoader imageLoader;
+
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -72,6 +104,12 @@ public class MainActivity extends AppCompatActivity implements DialogFragment.Di
         setListeners();
     }
 
+    @Override
+    protected void onDestroy() {
+        stopPreview();
+        super.onDestroy();
+    }
+
     private void init() {
         //Set up toolbar
         Toolbar toolbar = findViewById(R.id.toolbar);
@@ -80,12 +118,14 @@ public class MainActivity extends AppCompatActivity implements DialogFragment.Di
         //Initialization
         pairList = new ArrayList<>();
         lastRemovedLines = new ArrayList<>();
+        imageLoader = ImageLoader.getShared(this);
 
         //Get objects
         sourceImageView = findViewById(R.id.sourceImage);
         destinationImageView = findViewById(R.id.destinationImage);
         sourceImageDrawingView = findViewById(R.id.sourceImageDrawingView);
         destinationImageDrawingView = findViewById(R.id.destinationImageDrawingView);
+        previewView = findViewById(R.id.morphPreview);
         redoBtn = findViewById(R.id.redoLastLineBtn);
         undoBtn = findViewById(R.id.undoLastLineBtn);
 
@@ -187,6 +227,9 @@ public class MainActivity extends AppCompatActivity implements DialogFragment.Di
                     //Make a pair and it to the list
                     pairList.add(new Pair<>(line, newLine));
                 }
+                if (line != null || sourceImageDrawingView.isEditingLine() || event.getAction() == MotionEvent.ACTION_UP) {
+                    requestPreview();
+                }
                 return true;
             }
         });
@@ -200,6 +243,9 @@ public class MainActivity extends AppCompatActivity implements DialogFragment.Di
                     sourceImageDrawingView.addLine(newLine);
                     pairList.add(new Pair<>(newLine, line));
                 }
+                if (line != null || destinationImageDrawingView.isEditingLine() || event.getAction() == MotionEvent.ACTION_UP) {
+                    requestPreview();
+                }
                 return true;
             }
         });
@@ -211,6 +257,7 @@ public class MainActivity extends AppCompatActivity implements DialogFragment.Di
         if (!pairList.isEmpty()) {
             pairList.clear();
         }
+        requestPreview();
     }
 
     private boolean undoLastLine() {
@@ -225,6 +272,7 @@ public class MainActivity extends AppCompatActivity implements DialogFragment.Di
             sourceImageDrawingView.removeLastLine();
             destinationImageDrawingView.removeLastLine();
             pairList.remove(pairList.size() - 1);
+            requestPreview();
             return true;
         }
         return false;
@@ -236,12 +284,15 @@ public class MainActivity extends AppCompatActivity implements DialogFragment.Di
             destinationImageDrawingView.addLine(lastRemovedLines.get(lastRemovedLines.size() - 1).second);
             pairList.add(lastRemovedLines.get(lastRemovedLines.size() - 1));
             lastRemovedLines.remove(lastRemovedLines.size() - 1);
+            requestPreview();
             return true;
         }
         return false;
     }
 
     private void resetAll() {
+        //Stop the preview
+        stopPreview();
         //Remove all lines
         removeAllLines();
         //Reset flags
@@ -269,11 +320,11 @@ public class MainActivity extends AppCompatActivity implements DialogFragment.Di
                         assert data != null;
                         Uri selectedImageUri = data.getData();
                         if (imageClicked == 0) {
-                            sourceImageView.setImageURI(selectedImageUri);
                             //Set URI
                             sourceImageUri = selectedImageUri;
                             //Set new size for drawing view
                             int[] newSize = calculateNewDrawViewSize(sourceImageUri);
+                            showImage(sourceImageView, sourceImageUri, newSize);
                             RelativeLayout.LayoutParams layoutParams = new RelativeLayout.LayoutParams(newSize[0], newSize[1]);
                             layoutParams.addRule(RelativeLayout.CENTER_IN_PARENT);
                             sourceImageDrawingView.setLayoutParams(layoutParams);
@@ -283,13 +334,14 @@ public class MainActivity extends AppCompatActivity implements DialogFragment.Di
                             if (isDestinationSet) {
                                 sourceImageDrawingView.setEnabled(true);
                                 destinationImageDrawingView.setEnabled(true);
+                                startPreview();
                             }
                         } else if (imageClicked == 1) {
-                            destinationImageView.setImageURI(selectedImageUri);
                             //Set URI
                             destinationImageUri = selectedImageUri;
                             //Set new size for drawing view
                             int[] newSize = calculateNewDrawViewSize(destinationImageUri);
+                            showImage(destinationImageView, destinationImageUri, newSize);
                             RelativeLayout.LayoutParams layoutParams = new RelativeLayout.LayoutParams(newSize[0], newSize[1]);
                             layoutParams.addRule(RelativeLayout.CENTER_IN_PARENT);
                             destinationImageDrawingView.setLayoutParams(layoutParams);
@@ -299,6 +351,7 @@ public class MainActivity extends AppCompatActivity implements DialogFragment.Di
                             if (isSourceSet) {
                                 sourceImageDrawingView.setEnabled(true);
                                 destinationImageDrawingView.setEnabled(true);
+                                startPreview();
                             }
                         }
                     }
@@ -307,14 +360,14 @@ public class MainActivity extends AppCompatActivity implements DialogFragment.Di
 
     private int[] calculateNewDrawViewSize(Uri imageUri) {
         //Get image width and height
-        Bitmap img = null;
+        int[] imageSize;
         try {
-            img = MediaStore.Images.Media.getBitmap(getContentResolver(), imageUri);
+            imageSize = imageLoader.readSize(imageUri);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        int imageWidth = img.getWidth();
-        int imageHeight = img.getHeight();
+        int imageWidth = imageSize[0];
+        int imageHeight = imageSize[1];
         //Calculate new width
         int newWidth = (int)(((float)sourceImageView.getHeight() / (float)imageHeight) * (float)imageWidth);
         //Get screen width
@@ -327,6 +380,113 @@ public class MainActivity extends AppCompatActivity implements DialogFragment.Di
         return new int[]{newWidth, sourceImageView.getHeight()};
     }
 
+    /**
+     * Show an image decoded at the size of its drawing view instead of in full
+     * @param imageView the view
+     * @param imageUri the image
+     * @param viewSize size of the drawing view as int[]
+     */
+    private void showImage(ImageView imageView, Uri imageUri, int[] viewSize) {
+        try {
+            imageView.setImageBitmap(imageLoader.load(imageUri, viewSize[0], viewSize[1]));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Create the preview renderer from small copies of both images
+     */
+    private void startPreview() {
+        stopPreview();
+        int[] sourceSize;
+        try {
+            sourceSize = imageLoader.readSize(sourceImageUri);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        //Keep the source aspect ratio, the destination is stretched to the same size like in MorphResult
+        if (sourceSize[0] > sourceSize[1]) {
+            previewWidth = PREVIEW_SIZE;
+            previewHeight = Math.max(1, sourceSize[1] * PREVIEW_SIZE / sourceSize[0]);
+        } else {
+            previewWidth = Math.max(1, sourceSize[0] * PREVIEW_SIZE / sourceSize[1]);
+            previewHeight = PREVIEW_SIZE;
+        }
+        int[] sourcePixels = new int[previewWidth * previewHeight];
+        int[] destinationPixels = new int[previewWidth * previewHeight];
+        try {
+            //The decodes of the drawing views are finer than the preview, so nothing is decoded again
+            imageLoader.loadScaled(sourceImageUri, previewWidth, previewHeight)
+                    .getPixels(sourcePixels, 0, previewWidth, 0, 0, previewWidth, previewHeight);
+            imageLoader.loadScaled(destinationImageUri, previewWidth, previewHeight)
+                    .getPixels(destinationPixels, 0, previewWidth, 0, 0, previewWidth, previewHeight);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        shownPreviewGeneration = -1;
+        previewRenderer = new PreviewRenderer(sourcePixels, destinationPixels, previewWidth, previewHeight,
+                WeightFunction.create(Morph.P, Morph.A, Morph.B), WarpScheduler.getShared(),
+                new PreviewRenderer.PreviewListener() {
+                    @Override
+                    public void onPreview(final int generation, final int[] pixels, final int width, final int height, boolean isFinal) {
+                        uiHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                //Skip results that are older than the one on screen or arrive after a reset
+                                if (previewRenderer == null || generation < shownPreviewGeneration) {
+                                    return;
+                                }
+                                shownPreviewGeneration = generation;
+                                previewView.setImageBitmap(Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888));
+                                previewView.setVisibility(View.VISIBLE);
+                            }
+                        });
+                    }
+                });
+        requestPreview();
+    }
+
+    /**
+     * Queue a preview of the current lines, a newer request supersedes any running one
+     */
+    private void requestPreview() {
+        if (previewRenderer == null) {
+            return;
+        }
+        if (pairList.isEmpty()) {
+            previewView.setVisibility(View.GONE);
+            return;
+        }
+        //Map view coordinates to the preview, both views use the source view size like in openMorphResult
+        float scaleX = (float) previewWidth / sourceImageDrawingView.getWidth();
+        float scaleY = (float) previewHeight / sourceImageDrawingView.getHeight();
+        int numOfPairs = pairList.size();
+        LineTable sourceLines = new LineTable(numOfPairs);
+        LineTable destinationLines = new LineTable(numOfPairs);
+        for (int i = 0; i < numOfPairs; i++) {
+            Line source = pairList.get(i).first;
+            Line destination = pairList.get(i).second;
+            sourceLines.set(i, source.getStart().x * scaleX, source.getStart().y * scaleY,
+                    source.getEnd().x * scaleX, source.getEnd().y * scaleY);
+            destinationLines.set(i, destination.getStart().x * scaleX, destination.getStart().y * scaleY,
+                    destination.getEnd().x * scaleX, destination.getEnd().y * scaleY);
+        }
+        previewRenderer.requestRender(sourceLines, destinationLines);
+    }
+
+    /**
+     * Cancel the preview and release its thread
+     */
+    private void stopPreview() {
+        if (previewRenderer != null) {
+            previewRenderer.shutdown();
+            previewRenderer = null;
+        }
+        previewView.setVisibility(View.GONE);
+    }
+
     private void showToast(String str) {
         Toast.makeText(this, str, Toast.LENGTH_SHORT).show();
     }
@@ -335,21 +495,16 @@ public class MainActivity extends AppCompatActivity implements DialogFragment.Di
         //Get image view size
         int width = sourceImageDrawingView.getWidth();
         int height = sourceImageDrawingView.getHeight();
-        Bitmap img = null;
+        int[] imageSize;
         try {
-            img = MediaStore.Images.Media.getBitmap(getContentResolver(), sourceImageUri);
+            imageSize = imageLoader.readSize(sourceImageUri);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        int imageWidth = img.getWidth();
-        int imageHeight = img.getHeight();
-        Intent intent = new Intent(MainActivity.this, MorphResult.class);
-        //Set number of frames for MorphResult
-        intent.putExtra("numOfFrames", numOfFrames);
-        //Set source and destination images Uris for MorphResult
-        intent.putExtra("sourceImageUri", sourceImageUri);
-        intent.putExtra("destinationImageUri", destinationImageUri);
-        //Prepare line pairs for MorphResult
+        //The preview is rendered at MAX_SIZE and the final frames at FINAL_SIZE
+        int[] previewSize = MorphJob.fitSize(imageSize[0], imageSize[1], MAX_SIZE);
+        int[] outputSize = MorphJob.fitSize(imageSize[0], imageSize[1], FINAL_SIZE);
+        //Prepare line pairs for MorphResult in normalized space, both drawing views have the size of the source view
         int numOfPairs = pairList.size();
         float[] startX1 = new float[numOfPairs];
         float[] startY1 = new float[numOfPairs];
@@ -359,17 +514,27 @@ public class MainActivity extends AppCompatActivity implements DialogFragment.Di
         float[] startY2 = new float[numOfPairs];
         float[] endX2 = new float[numOfPairs];
         float[] endY2 = new float[numOfPairs];
-        //Clamp lines
+        LineTable sourceLines = new LineTable(numOfPairs);
+        LineTable destinationLines = new LineTable(numOfPairs);
         for (int i = 0; i < numOfPairs; i++) {
-            startX1[i] = (pairList.get(i).first.getStart().x / width) * imageWidth;
-            startY1[i] = (pairList.get(i).first.getStart().y / height) *imageHeight;
-            endX1[i] = (pairList.get(i).first.getEnd().x / width) * imageWidth;
-            endY1[i] = (pairList.get(i).first.getEnd().y / height) * imageHeight;
-            startX2[i] = (pairList.get(i).second.getStart().x / width) * imageWidth;
-            startY2[i] = (pairList.get(i).second.getStart().y / height) * imageHeight;
-            endX2[i] = (pairList.get(i).second.getEnd().x / width) * imageWidth;
-            endY2[i] = (pairList.get(i).second.getEnd().y / height) * imageHeight;
+            startX1[i] = pairList.get(i).first.getStart().x / width;
+            startY1[i] = pairList.get(i).first.getStart().y / height;
+            endX1[i] = pairList.get(i).first.getEnd().x / width;
+            endY1[i] = pairList.get(i).first.getEnd().y / height;
+            startX2[i] = pairList.get(i).second.getStart().x / width;
+            startY2[i] = pairList.get(i).second.getStart().y / height;
+            endX2[i] = pairList.get(i).second.getEnd().x / width;
+            endY2[i] = pairList.get(i).second.getEnd().y / height;
+            sourceLines.set(i, startX1[i], startY1[i], endX1[i], endY1[i]);
+            destinationLines.set(i, startX2[i], startY2[i], endX2[i], endY2[i]);
         }
+
+        Intent intent = new Intent(MainActivity.this, MorphResult.class);
+        //Set number of frames for MorphResult
+        intent.putExtra("numOfFrames", numOfFrames);
+        //Set source and destination images Uris for MorphResult
+        intent.putExtra("sourceImageUri", sourceImageUri);
+        intent.putExtra("destinationImageUri", destinationImageUri);
         //Set these arrays for MorphResult
         intent.putExtra("startX1", startX1);
         intent.putExtra("startY1", startY1);
@@ -380,30 +545,22 @@ public class MainActivity extends AppCompatActivity implements DialogFragment.Di
         intent.putExtra("endX2", endX2);
         intent.putExtra("endY2", endY2);
         intent.putExtra("isThreadingOn", isThreadingOn);
-        //If image size is too big, resize it to a smaller size
-        if (imageWidth > MAX_SIZE || imageHeight > MAX_SIZE) {
-            float ratio;
-            if (imageWidth > imageHeight) {
-                intent.putExtra("imgWidth", MAX_SIZE);
-                intent.putExtra("imgHeight", imageHeight * MAX_SIZE / imageWidth);
-                ratio = (float) imageWidth / MAX_SIZE;
-            } else {
-                intent.putExtra("imgWidth", imageWidth * MAX_SIZE / imageHeight);
-                intent.putExtra("imgHeight", MAX_SIZE);
-                ratio = (float) imageHeight / MAX_SIZE;
-            }
-            for (int i = 0; i < numOfPairs; i++) {
-                startX1[i] /= ratio;
-                startY1[i] /= ratio;
-                endX1[i] /= ratio;
-                endY1[i] /= ratio;
-                startX2[i] /= ratio;
-                startY2[i] /= ratio;
-                endX2[i] /= ratio;
-                endY2[i] /= ratio;
-            }
+        intent.putExtra("imgWidth", previewSize[0]);
+        intent.putExtra("imgHeight", previewSize[1]);
+        intent.putExtra("outputWidth", outputSize[0]);
+        intent.putExtra("outputHeight", outputSize[1]);
+        //Hand the scaled images and lines over in process, the extras above only serve a restarted process
+        try {
+            MorphJob job = new MorphJob(numOfFrames, isThreadingOn,
+                    imageLoader.loadScaled(sourceImageUri, previewSize[0], previewSize[1]),
+                    imageLoader.loadScaled(destinationImageUri, previewSize[0], previewSize[1]),
+                    sourceImageUri, destinationImageUri, outputSize[0], outputSize[1],
+                    sourceLines, destinationLines);
+            intent.putExtra("morphJobId", MorphJob.register(job));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
         //Start activity
         startActivity(intent);
     }
-}
\ No newline at end of file
+}
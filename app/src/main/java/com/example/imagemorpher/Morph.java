@@ -1,18 +1,38 @@
 package com.example.imagemorpher;
 
-import static java.lang.Math.sqrt;
-
 import android.graphics.Bitmap;
-import android.graphics.Color;
-import android.graphics.Point;
-import android.graphics.PointF;
 import android.util.Pair;
 
+import com.example.imagemorpher.engine.BufferPool;
+import com.example.imagemorpher.engine.CrossDissolve;
+import com.example.imagemorpher.engine.DisplacementCache;
+import com.example.imagemorpher.engine.LineTable;
+import com.example.imagemorpher.engine.MorphRenderer;
+import com.example.imagemorpher.engine.RawImageFile;
+import com.example.imagemorpher.engine.RenderControl;
+import com.example.imagemorpher.engine.Sampler;
+import com.example.imagemorpher.engine.TileRenderer;
+import com.example.imagemorpher.engine.WarpEngine;
+import com.example.imagemorpher.engine.WarpScheduler;
+import com.example.imagemorpher.engine.WeightFunction;
+
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
 
 public class Morph {
 
+    /**
+     * Receives every dissolved frame as soon as it and all frames before it are ready
+     * A morph that fails keeps no frame, those handed to the listener are then the listener's
+     * to give back to the BitmapPool
+     */
+    public interface FrameListener {
+        void onFrameReady(int index, Bitmap frame);
+    }
+
     /**
      * Number of middle frames to generate
      */
@@ -24,9 +44,29 @@ public class Morph {
     private boolean isThreadingOn;
 
     /**
-     * The control line pairs
+     * Keep the forward and reverse warped images instead of fusing warp and cross-dissolve
+     */
+    private boolean keepIntermediates;
+
+    /**
+     * Frame listener, may be null
+     */
+    private FrameListener listener;
+
+    /**
+     * Frames handed to the listener so far, they arrive in order
+     */
+    private int numOfFramesHandedOut;
+
+    /**
+     * Cancellation and progress, may be null
+     */
+    private RenderControl control;
+
+    /**
+     * The control lines of the source and destination images
      */
-    private ArrayList<Pair<Line, Line>> pairsList;
+    private LineTable sourceLines, destinationLines;
 
     /**
      * Final dissolved result
@@ -34,19 +74,24 @@ public class Morph {
     private Bitmap[] images;
 
     /**
-     * Forward warped images
+     * Forward warped images, only kept when asked for
      */
     private Bitmap[] forwardImages;
 
     /**
-     * Reverse warped images
+     * Reverse warped images, only kept when asked for
      */
     private Bitmap[] reverseImages;
 
     /**
      * Interpolated lines
      */
-    private Line[][] intermediateFrameLines;
+    private LineTable[] intermediateFrameLines;
+
+    /**
+     * Pixel buffer warp engine
+     */
+    private WarpEngine warpEngine;
 
     /**
      * Width and height of the image
@@ -56,249 +101,376 @@ public class Morph {
     /**
      * Weight calculation parameters
      */
-    final float P = 0, A = 0.001f, B = 2;
+    static final float P = 0, A = 0.001f, B = 2;
 
-    public Morph(int numOfFrames, Bitmap sourceImage, Bitmap destinationImage, ArrayList<Pair<Line, Line>> pairsList, boolean isThreadingOn) {
-        //Set data
-        this.numOfFrames = numOfFrames;
-        this.pairsList = pairsList;
-        this.width = sourceImage.getWidth();
-        this.height = sourceImage.getHeight();
-        this.isThreadingOn = isThreadingOn;
+    /**
+     * Rows copied into a RawImageFile at once
+     */
+    private static final int STRIP_HEIGHT = 64;
 
-        //Set images array
-        this.forwardImages = new Bitmap[numOfFrames + 2];
-        this.forwardImages[0] = sourceImage;
-        this.reverseImages = new Bitmap[numOfFrames + 2];
-        this.reverseImages[numOfFrames + 1] = destinationImage;
-        this.images = new Bitmap[numOfFrames + 2];
+    /**
+     * Everything about a morph but its images and lines
+     * Unset options keep the defaults of the original morph: nearest sampling, every line
+     * evaluated, no threading, no intermediates, no listener and no control
+     */
+    public static final class Options {
+
+        private final int numOfFrames;
 
-        for (int i = 1; i < numOfFrames + 2; i++) {
-            this.forwardImages[i] = Bitmap.createBitmap(width, height, sourceImage.getConfig());
+        private boolean isThreadingOn, keepIntermediates;
+
+        private Sampler sampler = Sampler.NEAREST;
+
+        private float cullingTolerance;
+
+        private FrameListener listener;
+
+        private RenderControl control;
+
+        /**
+         * @param numOfFrames number of middle frames as integer
+         */
+        public Options(int numOfFrames) {
+            this.numOfFrames = numOfFrames;
         }
-        for (int i = 0; i < numOfFrames + 1; i++) {
-            this.reverseImages[i] = Bitmap.createBitmap(width, height, destinationImage.getConfig());
+
+        /**
+         * @param isThreadingOn threading switch
+         */
+        public Options threading(boolean isThreadingOn) {
+            this.isThreadingOn = isThreadingOn;
+            return this;
         }
-        for (int i = 0; i < numOfFrames + 2; i++) {
-            this.images[i] = Bitmap.createBitmap(width, height, sourceImage.getConfig());
+
+        /**
+         * @param keepIntermediates keep the forward and reverse warped images
+         */
+        public Options keepIntermediates(boolean keepIntermediates) {
+            this.keepIntermediates = keepIntermediates;
+            return this;
         }
 
-        //Morph
-        try {
-            morph();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        /**
+         * @param sampler resampling of the reverse mapping
+         */
+        public Options sampler(Sampler sampler) {
+            this.sampler = sampler;
+            return this;
+        }
+
+        /**
+         * @param cullingTolerance relative weight below which far lines are skipped, 0 evaluates every line
+         */
+        public Options cullingTolerance(float cullingTolerance) {
+            this.cullingTolerance = cullingTolerance;
+            return this;
+        }
+
+        /**
+         * @param listener frame listener, may be null
+         */
+        public Options listener(FrameListener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * @param control cancellation and progress, may be null
+         */
+        public Options control(RenderControl control) {
+            this.control = control;
+            return this;
+        }
+    }
+
+    public Morph(int numOfFrames, Bitmap sourceImage, Bitmap destinationImage, ArrayList<Pair<Line, Line>> pairsList, boolean isThreadingOn) {
+        this(sourceImage, destinationImage, toLineTable(pairsList, true), toLineTable(pairsList, false),
+                new Options(numOfFrames).threading(isThreadingOn));
+    }
+
+    /**
+     * Morph two images
+     * The constructor returns once every frame is done; pass a listener to consume frames while later ones are still computing
+     * @param sourceImage source image
+     * @param destinationImage destination image, same size as the source
+     * @param sourceLines control lines of the source image
+     * @param destinationLines control lines of the destination image, same size as the source lines
+     * @param options frame count, threading, sampling, listener and control
+     * @throws java.util.concurrent.CancellationException if the control is cancelled before the morph is done;
+     * the frames and intermediates not handed to the listener go back to the BitmapPool
+     */
+    public Morph(Bitmap sourceImage, Bitmap destinationImage, LineTable sourceLines, LineTable destinationLines, Options options) {
+        //Set data
+        this.numOfFrames = options.numOfFrames;
+        this.sourceLines = sourceLines;
+        this.destinationLines = destinationLines;
+        this.width = sourceImage.getWidth();
+        this.height = sourceImage.getHeight();
+        this.isThreadingOn = options.isThreadingOn;
+        this.keepIntermediates = options.keepIntermediates;
+        this.listener = options.listener;
+        this.control = options.control;
+        this.warpEngine = new WarpEngine(width, height, WeightFunction.create(P, A, B), options.sampler, options.cullingTolerance);
+
+        //Set images array, reusing the frames of earlier morphs
+        BitmapPool bitmapPool = BitmapPool.getShared();
+        this.images = new Bitmap[numOfFrames + 2];
+        if (keepIntermediates) {
+            this.forwardImages = new Bitmap[numOfFrames + 2];
+            this.forwardImages[0] = sourceImage;
+            this.reverseImages = new Bitmap[numOfFrames + 2];
+            this.reverseImages[numOfFrames + 1] = destinationImage;
         }
+        try {
+            for (int i = 0; i < numOfFrames + 2; i++) {
+                this.images[i] = bitmapPool.acquire(width, height, sourceImage.getConfig());
+            }
+            if (keepIntermediates) {
+                for (int i = 1; i < numOfFrames + 2; i++) {
+                    this.forwardImages[i] = bitmapPool.acquire(width, height, sourceImage.getConfig());
+                }
+                for (int i = 0; i < numOfFrames + 1; i++) {
+                    this.reverseImages[i] = bitmapPool.acquire(width, height, destinationImage.getConfig());
+                }
+            }
 
+            //Morph
+            morph(sourceImage, destinationImage);
+        } catch (RuntimeException | OutOfMemoryError e) {
+            //Nobody gets the morph to release, so give back what was taken so far but the listener's frames
+            Arrays.fill(images, 0, numOfFramesHandedOut, null);
+            release();
+            throw e;
+        }
     }
 
-    private void morph() throws InterruptedException {
+    private void morph(Bitmap sourceImage, Bitmap destinationImage) {
         //Create intermediate frame lines
         createIntermediateFrameLines(numOfFrames);
 
-        if (!isThreadingOn) {
+        //Pull source and destination pixels once
+        BufferPool bufferPool = BufferPool.getShared();
+        int[] sourcePixels = bufferPool.acquire(width * height);
+        int[] destinationPixels = bufferPool.acquire(width * height);
+        sourceImage.getPixels(sourcePixels, 0, width, 0, 0, width, height);
+        destinationImage.getPixels(destinationPixels, 0, width, 0, 0, width, height);
+        try {
+            render(sourcePixels, destinationPixels);
+        } finally {
+            bufferPool.release(sourcePixels);
+            bufferPool.release(destinationPixels);
+        }
+    }
+
+    private void render(int[] sourcePixels, int[] destinationPixels) {
+        BufferPool bufferPool = BufferPool.getShared();
+        WarpScheduler scheduler = isThreadingOn ? WarpScheduler.getShared() : null;
+        if (keepIntermediates) {
+            List<WarpScheduler.BandKernel> kernels = new ArrayList<>();
+            List<Bitmap> targets = new ArrayList<>();
             //Warp source image
             for (int i = 1; i < numOfFrames + 2; i++) {
-                warp(0, i, forwardImages, width, height, 0, 0);
+                kernels.add(WarpScheduler.warpKernel(warpEngine, sourcePixels, intermediateFrameLines[0], intermediateFrameLines[i]));
+                targets.add(forwardImages[i]);
             }
             //Warp destination image
             for (int i = numOfFrames; i >= 0; i--) {
-                warp(numOfFrames + 1, i, reverseImages, width, height, 0, 0);
+                kernels.add(WarpScheduler.warpKernel(warpEngine, destinationPixels, intermediateFrameLines[numOfFrames + 1], intermediateFrameLines[i]));
+                targets.add(reverseImages[i]);
             }
-        } else {
-            //Warp source image
-            for (int i = 1; i < numOfFrames + 2; i++) {
-                threadingWarp(0, i, forwardImages, width, height);
-            }
-            //Warp destination image
-            for (int i = numOfFrames; i >= 0; i--) {
-                threadingWarp(numOfFrames + 1, i, reverseImages, width, height);
+            WarpScheduler.FrameSink sink = (index, pixels) -> {
+                targets.get(index).setPixels(pixels, 0, width, 0, 0, width, height);
+                bufferPool.release(pixels);
+            };
+            if (scheduler != null) {
+                scheduler.runAll(width, height, kernels, control, sink);
+            } else {
+                WarpScheduler.runSequentially(width, height, kernels, control, sink);
             }
-        }
-
-        //Cross-dissolve images
-        crossDissolve();
-    }
 
-    private void createIntermediateFrameLines(int numOfFramesToGenerate) {
-        //Initialize array
-        intermediateFrameLines = new Line[numOfFramesToGenerate + 2][pairsList.size()];
-
-        for (int j = 0; j < pairsList.size(); j++) {
-            //Calculate intermediate stepper for x and y
-            float sourceStartX = pairsList.get(j).first.getStart().x;
-            float sourceStartY = pairsList.get(j).first.getStart().y;
-            float sourceEndX = pairsList.get(j).first.getEnd().x;
-            float sourceEndY = pairsList.get(j).first.getEnd().y;
-
-            float startXStepper = (pairsList.get(j).second.getStart().x - sourceStartX) / (numOfFramesToGenerate + 1);
-            float startYStepper = (pairsList.get(j).second.getStart().y - sourceStartY) / (numOfFramesToGenerate + 1);
-
-            float endXStepper = (pairsList.get(j).second.getEnd().x - sourceEndX) / (numOfFramesToGenerate + 1);
-            float endYStepper = (pairsList.get(j).second.getEnd().y - sourceEndY) / (numOfFramesToGenerate + 1);
-
-            for (int i = 0; i < numOfFramesToGenerate + 2; i++) {
-                //Calculate intermediate stepper for x and y
-                PointF interStart = new PointF(sourceStartX + startXStepper * i, sourceStartY + startYStepper * i);
-                PointF interEnd = new PointF(sourceEndX + endXStepper * i, sourceEndY + endYStepper * i);
-                intermediateFrameLines[i][j] = new Line(interStart, interEnd);
-            }
+            //Cross-dissolve images
+            crossDissolve();
+        } else {
+            //Warp both images and dissolve them in one pass per frame, frames arrive in order
+            //A line template morphed before at this size is only gathered from the shared cache
+            new MorphRenderer(warpEngine, intermediateFrameLines, DisplacementCache.getShared()).render(sourcePixels, destinationPixels, scheduler, control,
+                    (index, pixels) -> {
+                        images[index].setPixels(pixels, 0, width, 0, 0, width, height);
+                        bufferPool.release(pixels);
+                        notifyFrameReady(index);
+                    });
         }
     }
 
     /**
-     * threadingWarp function
-     * Divide the image into 4 sections, and process each section with a thread independently
-     * @param sourceIndex source image index as integer
-     * @param destinationIndex destination image index as integer
-     * @param images output image array
-     * @param width the width of the image as integer
-     * @param height the height of the image as integer
+     * Morph two images into pixel buffers without keeping any frame
+     * Frames go to the sink in order as they are done, the sink owns every buffer it is handed
+     * @param sourceImage source image
+     * @param destinationImage destination image, same size as the source
+     * @param sourceLines control lines of the source image
+     * @param destinationLines control lines of the destination image, same size as the source lines
+     * @param options frame count, threading, sampling and control; intermediates and the listener are not used
+     * @param sink receives the frames
+     * @throws java.util.concurrent.CancellationException if the control is cancelled before the morph is done
      */
-    private void threadingWarp(int sourceIndex, int destinationIndex, Bitmap[] images, int width, int height) throws InterruptedException {
-        int widthStep = width / 3;
-        int heightStep = height / 3;
-        Thread[] threads = new Thread[9];
-
-        threads[0] = new Thread(() -> warp(sourceIndex, destinationIndex, images, widthStep, heightStep, 0, 0));
-        threads[1] = new Thread(() -> warp(sourceIndex, destinationIndex, images, widthStep * 2, heightStep, widthStep, 0));
-        threads[2] = new Thread(() -> warp(sourceIndex, destinationIndex, images, width, heightStep, widthStep * 2, 0));
-        threads[3] = new Thread(() -> warp(sourceIndex, destinationIndex, images, widthStep, heightStep * 2, 0, heightStep));
-        threads[4] = new Thread(() -> warp(sourceIndex, destinationIndex, images, widthStep * 2, heightStep * 2, widthStep, heightStep));
-        threads[5] = new Thread(() -> warp(sourceIndex, destinationIndex, images, width, heightStep * 2, widthStep * 2, heightStep));
-        threads[6] = new Thread(() -> warp(sourceIndex, destinationIndex, images, widthStep, height, 0, heightStep * 2));
-        threads[7] = new Thread(() -> warp(sourceIndex, destinationIndex, images, widthStep * 2, height, widthStep, heightStep * 2));
-        threads[8] = new Thread(() -> warp(sourceIndex, destinationIndex, images, width, height, widthStep * 2, heightStep * 2));
-
-        for (Thread t : threads) {
-            t.start();;
-        }
-        for (Thread t : threads) {
-            t.join();
+    public static void render(Bitmap sourceImage, Bitmap destinationImage, LineTable sourceLines, LineTable destinationLines,
+                              Options options, WarpScheduler.FrameSink sink) {
+        int width = sourceImage.getWidth();
+        int height = sourceImage.getHeight();
+        WarpEngine warpEngine = new WarpEngine(width, height, WeightFunction.create(P, A, B), options.sampler, options.cullingTolerance);
+        BufferPool bufferPool = BufferPool.getShared();
+        int[] sourcePixels = bufferPool.acquire(width * height);
+        int[] destinationPixels = bufferPool.acquire(width * height);
+        sourceImage.getPixels(sourcePixels, 0, width, 0, 0, width, height);
+        destinationImage.getPixels(destinationPixels, 0, width, 0, 0, width, height);
+        try {
+            new MorphRenderer(warpEngine, LineTable.interpolate(sourceLines, destinationLines, options.numOfFrames),
+                    DisplacementCache.getShared()).render(sourcePixels, destinationPixels,
+                    options.isThreadingOn ? WarpScheduler.getShared() : null, options.control, sink);
+        } finally {
+            bufferPool.release(sourcePixels);
+            bufferPool.release(destinationPixels);
         }
     }
 
     /**
-     * Warp function
-     * Warp the image based on control lines
-     *
-     * @param sourceIndex source image index as integer
-     * @param destinationIndex destination image index as integer
-     * @param images images array for output
-     * @param width the width of the image as integer
-     * @param height the height of the image as integer
-     * @param startX the start x as int
-     * @param startY the start y as int
+     * Morph two images tile by tile from a file, for sizes whose images and frames do not fit the heap
+     * Neither image nor any frame is ever held whole; the tiles of every frame go to the sink,
+     * such as TileRenderer.encoderSink, and each frame is done before the next is started
+     * @param images file holding the source as image 0 and the destination as image 1
+     * @param sourceLines control lines of the source image
+     * @param destinationLines control lines of the destination image, same size as the source lines
+     * @param options frame count, threading, sampling and control; intermediates and the listener are not used
+     * @param sink receives the tiles
+     * @throws java.io.UncheckedIOException if the file cannot be read or the sink fails
+     * @throws java.util.concurrent.CancellationException if the control is cancelled before the morph is done
      */
-    private void warp(int sourceIndex, int destinationIndex, Bitmap[] images, int width, int height, int startX, int startY) {
-        for (int x = startX; x < width; x++) {
-            for (int y = startY; y < height; y++) {
-                float[] weights = new float[pairsList.size()];
-                float[] deltaXs = new float[pairsList.size()];
-                float[] deltaYs = new float[pairsList.size()];
-
-                for (int i = 0; i < pairsList.size(); i++) {
-                    //Calculate distance and fraction
-                    float d = intermediateFrameLines[destinationIndex][i].distanceTo(x, y);
-                    float f = intermediateFrameLines[destinationIndex][i].projectionLengthOn(x, y) /
-                            intermediateFrameLines[destinationIndex][i].length();
-
-                    //Calculate corresponding x and y in source image
-                    int sourceX = (int)(intermediateFrameLines[sourceIndex][i].getStart().x +
-                            f * intermediateFrameLines[sourceIndex][i].getVector()[0] -
-                            d * intermediateFrameLines[sourceIndex][i].getUnityNormalVector()[0]);
-                    int sourceY = (int)(intermediateFrameLines[sourceIndex][i].getStart().y +
-                            f * intermediateFrameLines[sourceIndex][i].getVector()[1] -
-                            d * intermediateFrameLines[sourceIndex][i].getUnityNormalVector()[1]);
-                    sourceX = clamp(sourceX, this.width);
-                    sourceY = clamp(sourceY, this.height);
-
-                    //Calculate delta = new - original
-                    deltaXs[i] = sourceX - x;
-                    deltaYs[i] = sourceY - y;
-
-                    //Check fraction
-                    if (f < 0) {
-                        float x2 = intermediateFrameLines[destinationIndex][i].getStart().x;
-                        float y2 = intermediateFrameLines[destinationIndex][i].getStart().y;
-                        d = (float)sqrt((x2 - x) * (x2 - x) + (y2 - y) * (y2 - y));
-                    } else if (f > 1) {
-                        float x2 = intermediateFrameLines[destinationIndex][i].getEnd().x;
-                        float y2 = intermediateFrameLines[destinationIndex][i].getEnd().y;
-                        d = (float)sqrt((x2 - x) * (x2 - x) + (y2 - y) * (y2 - y));
-                    }
-
-                    //Calculate weight
-                    weights[i] = (float)Math.pow((Math.pow(intermediateFrameLines[destinationIndex][i].length(), P) / (A + d)), B);
-                }
+    public static void renderTiled(RawImageFile images, LineTable sourceLines, LineTable destinationLines,
+                                   Options options, TileRenderer.TileSink sink) {
+        int width = images.getWidth();
+        int height = images.getHeight();
+        WarpEngine warpEngine = new WarpEngine(width, height, WeightFunction.create(P, A, B), options.sampler, options.cullingTolerance);
+        new TileRenderer(warpEngine, LineTable.interpolate(sourceLines, destinationLines, options.numOfFrames))
+                .render(images.image(0), images.image(1), options.isThreadingOn ? WarpScheduler.getShared() : null,
+                        options.control, sink);
+    }
 
-                //Calculate sum of weights
-                float sumOfWeights = 0;
-                for (float weight : weights) {
-                    sumOfWeights += weight;
-                }
+    /**
+     * Copy an image into a file a strip of rows at a time
+     * @param image image of the size of the file
+     * @param images the file
+     * @param index image index as integer
+     * @throws IOException if the file cannot be written
+     */
+    static void writeImage(Bitmap image, RawImageFile images, int index) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferPool bufferPool = BufferPool.getShared();
+        int[] strip = bufferPool.acquire(width * STRIP_HEIGHT);
+        try {
+            for (int y = 0; y < height; y += STRIP_HEIGHT) {
+                int stripHeight = Math.min(STRIP_HEIGHT, height - y);
+                image.getPixels(strip, 0, width, 0, y, width, stripHeight);
+                images.write(index, 0, y, width, stripHeight, strip);
+            }
+        } finally {
+            bufferPool.release(strip);
+        }
+    }
 
-                //Calculate total weighted deltas
-                float totalWeightedDeltaX = 0;
-                float totalWeightedDeltaY = 0;
-                for (int j = 0; j < pairsList.size(); j++) {
-                    totalWeightedDeltaX += weights[j] * deltaXs[j];
-                    totalWeightedDeltaY += weights[j] * deltaYs[j];
-                }
+    private void createIntermediateFrameLines(int numOfFramesToGenerate) {
+        //Interpolate the lines of every frame
+        intermediateFrameLines = LineTable.interpolate(sourceLines, destinationLines, numOfFramesToGenerate);
+    }
 
-                //Calculate corresponding x and y in source image
-                int newX = clamp((int)(x + (totalWeightedDeltaX / sumOfWeights)), this.width);
-                int newY = clamp((int)(y + (totalWeightedDeltaY / sumOfWeights)), this.height);
+    /**
+     * Copy one side of the line pairs into a primitive table
+     * @param pairsList control line pairs
+     * @param isSource true for the source lines, false for the destination lines
+     * @return lines
+     */
+    static LineTable toLineTable(ArrayList<Pair<Line, Line>> pairsList, boolean isSource) {
+        LineTable lines = new LineTable(pairsList.size());
+        for (int j = 0; j < pairsList.size(); j++) {
+            Line line = isSource ? pairsList.get(j).first : pairsList.get(j).second;
+            lines.set(j, line.getStart().x, line.getStart().y, line.getEnd().x, line.getEnd().y);
+        }
+        return lines;
+    }
 
-                //Reverse mapping
-                //Get pixel from the source image then set it to the destination image
-                int pixel = images[sourceIndex].getPixel(newX, newY);
-                images[destinationIndex].setPixel(x, y, pixel);
-            }
+    private void notifyFrameReady(int index) {
+        if (listener != null) {
+            numOfFramesHandedOut = index + 1;
+            listener.onFrameReady(index, images[index]);
         }
     }
 
     private void crossDissolve() {
+        BufferPool bufferPool = BufferPool.getShared();
+        int[] forwardPixels = bufferPool.acquire(width * height);
+        int[] reversePixels = bufferPool.acquire(width * height);
+        int[] outputPixels = bufferPool.acquire(width * height);
+        try {
+            crossDissolve(forwardPixels, reversePixels, outputPixels);
+        } finally {
+            bufferPool.release(forwardPixels);
+            bufferPool.release(reversePixels);
+            bufferPool.release(outputPixels);
+        }
+    }
+
+    private void crossDissolve(int[] forwardPixels, int[] reversePixels, int[] outputPixels) {
         int totalNumOfFrames = numOfFrames + 2;
         for (int i = 0; i < totalNumOfFrames; i++) {
-            float forwardDissolveRatio = (float) (totalNumOfFrames - i) / totalNumOfFrames;
-            float reverseDissolveRatio = (float) i / totalNumOfFrames;
-
-            for (int x = 0; x < width; x++) {
-                for (int y = 0; y < height; y++) {
-                    int forwardImagePixel = forwardImages[i].getPixel(x, y);
-                    int reverseImagePixel = reverseImages[i].getPixel(x, y);
-
-                    int forwardRed = Color.red(forwardImagePixel);
-                    int forwardGreen = Color.green(forwardImagePixel);
-                    int forwardBlue = Color.blue(forwardImagePixel);
-
-                    int reverseRed = Color.red(reverseImagePixel);
-                    int reverseGreen = Color.green(reverseImagePixel);
-                    int reverseBlue = Color.blue(reverseImagePixel);
+            if (control != null && control.isCancelled()) {
+                throw new CancellationException("Morph cancelled");
+            }
+            //8.8 fixed-point weights, computed once per frame
+            int forwardWeight = CrossDissolve.forwardWeight(i, totalNumOfFrames);
+            int reverseWeight = CrossDissolve.reverseWeight(i, totalNumOfFrames);
+
+            forwardImages[i].getPixels(forwardPixels, 0, width, 0, 0, width, height);
+            reverseImages[i].getPixels(reversePixels, 0, width, 0, 0, width, height);
+            for (int y = 0; y < height; y++) {
+                CrossDissolve.blendRow(forwardPixels, reversePixels, outputPixels, y * width, width,
+                        forwardWeight, reverseWeight);
+            }
+            images[i].setPixels(outputPixels, 0, width, 0, 0, width, height);
+            notifyFrameReady(i);
+        }
+    }
 
-                    int newRed = (int) (forwardRed * forwardDissolveRatio + reverseRed * reverseDissolveRatio);
-                    int newGreen = (int) (forwardGreen * forwardDissolveRatio + reverseGreen * reverseDissolveRatio);
-                    int newBlue = (int) (forwardBlue * forwardDissolveRatio + reverseBlue * reverseDissolveRatio);
+    public Bitmap[] getResults() { return this.images; }
 
-                    int newPixel = Color.rgb(newRed, newGreen, newBlue);
-                    images[i].setPixel(x, y, newPixel);
-                }
+    /**
+     * Give every frame and intermediate image back to the BitmapPool for the next morph
+     * None of them may be used or shown afterwards; the source and destination images stay with the caller
+     */
+    public void release() {
+        BitmapPool bitmapPool = BitmapPool.getShared();
+        bitmapPool.releaseAll(images);
+        if (forwardImages != null) {
+            for (int i = 1; i < forwardImages.length; i++) {
+                bitmapPool.release(forwardImages[i]);
+            }
+            for (int i = 0; i < reverseImages.length - 1; i++) {
+                bitmapPool.release(reverseImages[i]);
             }
         }
+        images = null;
+        forwardImages = null;
+        reverseImages = null;
     }
 
     /**
-     * Restrain the output
-     * @param input
-     * @param max
-     * @return
+     * Get the forward warped images
+     * @return images, or null unless keepIntermediates was set
      */
-    private int clamp(int input, int max) {
-        if (input < 0) {
-            return 0;
-        } else return Math.min(input, max - 1);
-    }
+    public Bitmap[] getForwardImages() { return this.forwardImages; }
 
-    public Bitmap[] getResults() { return this.images; }
+    /**
+     * Get the reverse warped images
+     * @return images, or null unless keepIntermediates was set
+     */
+    public Bitmap[] getReverseImages() { return this.reverseImages; }
 }
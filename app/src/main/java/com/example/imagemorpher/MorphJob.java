@@ -0,0 +1,141 @@
+package com.example.imagemorpher;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import com.example.imagemorpher.engine.LineTable;
+
+import java.security.SecureRandom;
+import java.util.HashMap;
+
+/**
+ * Everything MorphResult needs to run a morph, handed over in process
+ * MainActivity registers a job and only puts its id in the intent, so the result screen
+ * takes the scaled images and line tables as they are instead of decoding, scaling and
+ * rebuilding them. Jobs live until the result screen finishes; after the process was
+ * restarted the id is unknown and the result screen falls back to the intent extras
+ *
+ * Lines are kept normalized, so the same job renders a quick preview from the small images
+ * and the final frames at the output size from the images behind the Uris
+ */
+public class MorphJob {
+
+    /**
+     * Registered jobs by id
+     */
+    private static final HashMap<Long, MorphJob> jobs = new HashMap<>();
+
+    /**
+     * Next id, starting at a random point in every process so that an id from an intent that
+     * outlived its process never names a job of the new one; never negative, -1 means no job
+     */
+    private static long nextId = new SecureRandom().nextLong() & Long.MAX_VALUE;
+
+    /**
+     * Number of middle frames to generate
+     */
+    final int numOfFrames;
+
+    /**
+     * Threading switch
+     */
+    final boolean isThreadingOn;
+
+    /**
+     * Source and destination images, both scaled to the preview size and never changed
+     */
+    final Bitmap sourceImage, destinationImage;
+
+    /**
+     * Full source and destination images
+     */
+    final Uri sourceImageUri, destinationImageUri;
+
+    /**
+     * Size of the final frames
+     */
+    final int outputWidth, outputHeight;
+
+    /**
+     * Control lines in normalized space, the image spans 0 to 1 on both axes
+     */
+    final LineTable sourceLines, destinationLines;
+
+    /**
+     * Create a job
+     * @param numOfFrames number of middle frames as integer
+     * @param isThreadingOn threading switch
+     * @param sourceImage source image at the preview size
+     * @param destinationImage destination image, same size as the source
+     * @param sourceImageUri full source image
+     * @param destinationImageUri full destination image
+     * @param outputWidth the width of the final frames as integer
+     * @param outputHeight the height of the final frames as integer
+     * @param sourceLines normalized control lines of the source image
+     * @param destinationLines normalized control lines of the destination image
+     */
+    public MorphJob(int numOfFrames, boolean isThreadingOn, Bitmap sourceImage, Bitmap destinationImage,
+                    Uri sourceImageUri, Uri destinationImageUri, int outputWidth, int outputHeight,
+                    LineTable sourceLines, LineTable destinationLines) {
+        this.numOfFrames = numOfFrames;
+        this.isThreadingOn = isThreadingOn;
+        this.sourceImage = sourceImage;
+        this.destinationImage = destinationImage;
+        this.sourceImageUri = sourceImageUri;
+        this.destinationImageUri = destinationImageUri;
+        this.outputWidth = outputWidth;
+        this.outputHeight = outputHeight;
+        this.sourceLines = sourceLines;
+        this.destinationLines = destinationLines;
+    }
+
+    /**
+     * Keep a job until it is removed
+     * @param job the job
+     * @return id to pass in the intent as long
+     */
+    public static synchronized long register(MorphJob job) {
+        long id = nextId;
+        nextId = (nextId + 1) & Long.MAX_VALUE;
+        jobs.put(id, job);
+        return id;
+    }
+
+    /**
+     * Get a registered job
+     * @param id job id as long
+     * @return the job, or null if it is not registered in this process
+     */
+    public static synchronized MorphJob get(long id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Drop a job
+     * @param id job id as long
+     */
+    public static synchronized void remove(long id) {
+        jobs.remove(id);
+    }
+
+    public int getWidth() { return sourceImage.getWidth(); }
+
+    public int getHeight() { return sourceImage.getHeight(); }
+
+    /**
+     * Fit an image into a square, keeping its aspect ratio and never enlarging it
+     * @param width the width of the image as integer
+     * @param height the height of the image as integer
+     * @param maxSize longest side allowed as integer
+     * @return width and height as int[]
+     */
+    public static int[] fitSize(int width, int height, int maxSize) {
+        if (width <= maxSize && height <= maxSize) {
+            return new int[]{width, height};
+        }
+        if (width > height) {
+            return new int[]{maxSize, Math.max(1, height * maxSize / width)};
+        }
+        return new int[]{Math.max(1, width * maxSize / height), maxSize};
+    }
+}
@@ -3,26 +3,47 @@ package com.example.imagemorpher;
 import android.annotation.SuppressLint;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.PointF;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Environment;
 import android.os.Handler;
-import android.provider.MediaStore;
+import android.util.Log;
+import android.view.Menu;
 import android.view.MenuItem;
 import androidx.appcompat.widget.Toolbar;
 
 import androidx.appcompat.app.ActionBar;
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.example.imagemorpher.engine.DisplacementCache;
+import com.example.imagemorpher.engine.EncoderStage;
+import com.example.imagemorpher.engine.FrameEncoder;
+import com.example.imagemorpher.engine.GifEncoder;
+import com.example.imagemorpher.engine.LineTable;
+import com.example.imagemorpher.engine.MemoryBudget;
+import com.example.imagemorpher.engine.RawImageFile;
+import com.example.imagemorpher.engine.RenderControl;
+import com.example.imagemorpher.engine.Sampler;
+import com.example.imagemorpher.engine.TileRenderer;
+import com.example.imagemorpher.engine.WarpScheduler;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import android.util.Pair;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
+import android.widget.Toast;
 
 public class MorphResult extends AppCompatActivity {
 
@@ -47,9 +68,14 @@ public class MorphResult extends AppCompatActivity {
     private int numOfFrames;
 
     /**
-     * The user input lines
+     * The user input lines in normalized space, the image spans 0 to 1 on both axes
      */
-    private ArrayList<Pair<Line, Line>> pairsList;
+    private LineTable sourceLines = new LineTable(0), destinationLines = new LineTable(0);
+
+    /**
+     * Id of the job handed over by MainActivity, -1 without one
+     */
+    private long morphJobId = -1;
 
     /**
      * Source image and destination image
@@ -66,24 +92,88 @@ public class MorphResult extends AppCompatActivity {
      */
     private TextView timeElapsedText;
 
+    /**
+     * Morph progress
+     */
+    private ProgressBar progressBar;
+
+    /**
+     * Background thread that runs the morph
+     */
+    private ExecutorService morphExecutor;
+
+    /**
+     * Cancellation and progress of the running morph
+     */
+    private RenderControl renderControl;
+
+    /**
+     * Whether the platform codec takes an MP4 of the export size, false until it is known
+     */
+    private boolean isMp4Available;
+
+    /**
+     * Cancellation of the running export, null while none runs
+     */
+    private RenderControl exportControl;
+
     /**
      * The morphing result that returned by Morph
      */
     private Bitmap[] results;
 
+    /**
+     * Number of frames streamed in by Morph so far, frames arrive in order
+     */
+    private volatile int numOfFramesReady;
+
     /**
      * Threading switch
      */
     private boolean isThreadingOn;
 
+    /**
+     * Playback loop only, its callbacks are dropped whenever playback stops
+     * The morph and export threads post through runOnUiThread instead
+     */
     private Handler handler;
 
     private boolean isPlaying;
 
     private int frameDelay = 200;
 
+    /**
+     * Size of the preview frames
+     */
     private int width, height;
 
+    /**
+     * Size the final frames are rendered at once the preview is done
+     */
+    private int outputWidth, outputHeight;
+
+    /**
+     * Full source and destination images the final frames are rendered from
+     */
+    private Uri sourceImageUri, destinationImageUri;
+
+    /**
+     * From this many line pairs on, lines far from a pixel are skipped
+     */
+    private static final int MIN_PAIRS_FOR_CULLING = 16;
+
+    /**
+     * Relative weight below which a far line is skipped
+     */
+    private static final float CULLING_TOLERANCE = 0.005f;
+
+    private static final String TAG = "MorphResult";
+
+    /**
+     * Subdirectory of the cache directory that holds displacement files
+     */
+    private static final String DISPLACEMENT_DIRECTORY = "displacement";
+
     @SuppressLint("RestrictedApi")
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -101,7 +191,6 @@ public class MorphResult extends AppCompatActivity {
         //Initialize
         currentImageIndex = 0;
         isPlaying = false;
-        pairsList = new ArrayList<>();
         handler = new Handler();
         this.resultView = findViewById(R.id.morphResultImage);
         this.previous = findViewById(R.id.backBtn);
@@ -109,35 +198,316 @@ public class MorphResult extends AppCompatActivity {
         this.next = findViewById(R.id.nextBtn);
         this.imageIndexText = findViewById(R.id.imageIndex);
         this.timeElapsedText = findViewById(R.id.timeElapsed);
+        this.progressBar = findViewById(R.id.morphProgress);
+        this.morphExecutor = Executors.newSingleThreadExecutor();
+        //Keep line templates across restarts, the cache directory may be cleared by the system
+        DisplacementCache.getShared().setStoreDirectory(new File(getCacheDir(), DISPLACEMENT_DIRECTORY));
 
         //Get data
         this.getData();
 
+        //Querying the codecs is slow, so it runs once off the UI thread and the menu follows
+        int[] mp4Size = exportSize(true);
+        new Thread(() -> {
+            boolean isAvailable = Mp4Encoder.isAvailable(mp4Size[0], mp4Size[1], frameDelay);
+            //Not through handler, whose callbacks are dropped whenever playback stops
+            runOnUiThread(() -> {
+                isMp4Available = isAvailable;
+                invalidateOptionsMenu();
+            });
+        }, "mp4-check").start();
+
         //Run morph process
         this.runMorph();
     }
 
-    @SuppressLint("SetTextI18n")
+    /**
+     * Run the morph on the background thread
+     * A preview at the size of the small images is streamed in first and playback starts with
+     * its first frame. The final frames are rendered at the output size afterwards and replace
+     * the preview frame by frame
+     */
     private void runMorph() {
         //Set benchmark
         long startTime = System.nanoTime();
-        long endTime = 0;
-        //Create Morph object
-        Morph morph = new Morph(numOfFrames, sourceImage, destinationImage, pairsList, isThreadingOn);
-        //Get results
-        results = morph.getResults();
-        if (results != null) {
-            endTime = System.nanoTime();
-            //Show results
-            this.playResults();
-            //Add listeners
-            this.setListeners();
+        //Reset results
+        results = new Bitmap[numOfFrames + 2];
+        Bitmap[] previewFrames = results;
+        numOfFramesReady = 0;
+        progressBar.setProgress(0);
+        progressBar.setVisibility(View.VISIBLE);
+        //ProgressBar can be updated from worker threads, it covers both passes
+        RenderControl control = new RenderControl((completedRows, totalRows) ->
+                progressBar.setProgress((int) (100L * completedRows / totalRows)));
+        renderControl = control;
+        float cullingTolerance = sourceLines.size() >= MIN_PAIRS_FOR_CULLING ? CULLING_TOLERANCE : 0;
+        morphExecutor.execute(() -> {
+            long[] firstFrameTime = new long[1];
+            try {
+                new Morph(sourceImage, destinationImage, sourceLines.scaled(width, height), destinationLines.scaled(width, height),
+                        morphOptions(cullingTolerance, control).listener((index, frame) -> {
+                            previewFrames[index] = frame;
+                            numOfFramesReady = index + 1;
+                            if (index == 0) {
+                                firstFrameTime[0] = System.nanoTime();
+                                //Show results
+                                runOnUiThread(() -> {
+                                    //The screen is gone before its first frame
+                                    if (results == null) {
+                                        return;
+                                    }
+                                    this.playResults();
+                                    //Add listeners
+                                    this.setListeners();
+                                });
+                            }
+                        }));
+            } catch (CancellationException e) {
+                return;
+            }
+            long previewTime = System.nanoTime();
+            runOnUiThread(() -> showElapsedTime(previewTime - startTime, firstFrameTime[0] - startTime));
+            if (!renderFinal(cullingTolerance, control)) {
+                return;
+            }
+            long endTime = System.nanoTime();
+            runOnUiThread(() -> {
+                progressBar.setVisibility(View.GONE);
+                showFinalTime(endTime - previewTime);
+            });
+        });
+    }
+
+    /**
+     * Options shared by the preview, the final frames and the export
+     * Bilinear sampling hides aliasing at the preview size and costs little at the others
+     */
+    private Morph.Options morphOptions(float cullingTolerance, RenderControl control) {
+        return new Morph.Options(numOfFrames).threading(isThreadingOn).sampler(Sampler.BILINEAR)
+                .cullingTolerance(cullingTolerance).control(control);
+    }
+
+    /**
+     * Render the final frames on the morph thread and swap them in on the UI thread
+     * The output size is shrunk to what the free heap holds next to the preview
+     * @return true if the final frames replaced the preview, false if it stays
+     */
+    private boolean renderFinal(float cullingTolerance, RenderControl control) {
+        int[] finalSize = MemoryBudget.fitSize(outputWidth, outputHeight, numOfFrames + 2,
+                MemoryBudget.frameBudget(BitmapPool.getShared().size()));
+        int finalWidth = finalSize[0], finalHeight = finalSize[1];
+        if (finalWidth <= width && finalHeight <= height) {
+            runOnUiThread(() -> progressBar.setVisibility(View.GONE));
+            return false;
+        }
+        Bitmap finalSource, finalDestination;
+        try {
+            ImageLoader imageLoader = ImageLoader.getShared(this);
+            finalSource = imageLoader.loadScaled(sourceImageUri, finalWidth, finalHeight);
+            finalDestination = imageLoader.loadScaled(destinationImageUri, finalWidth, finalHeight);
+        } catch (IOException e) {
+            runOnUiThread(() -> progressBar.setVisibility(View.GONE));
+            return false;
         }
+        try {
+            //Bands of each frame are spread over the workers, so only the frames themselves grow with the size
+            new Morph(finalSource, finalDestination, sourceLines.scaled(finalWidth, finalHeight),
+                    destinationLines.scaled(finalWidth, finalHeight), morphOptions(cullingTolerance, control)
+                    .listener((index, frame) -> runOnUiThread(() -> swapFrame(index, frame))));
+        } catch (CancellationException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Replace a preview frame with its final frame, on the UI thread
+     * @param index frame index as integer
+     * @param frame final frame
+     */
+    private void swapFrame(int index, Bitmap frame) {
+        //The screen is gone and its frames are already on their way back to the pool, this one follows them
+        if (results == null) {
+            BitmapPool.getShared().release(frame);
+            return;
+        }
+        Bitmap previewFrame = results[index];
+        results[index] = frame;
+        //The pool may recycle the preview frame, so it must not stay on screen
+        Drawable shown = resultView.getDrawable();
+        if (shown instanceof BitmapDrawable && ((BitmapDrawable) shown).getBitmap() == previewFrame) {
+            resultView.setImageBitmap(frame);
+        }
+        BitmapPool.getShared().release(previewFrame);
+    }
+
+    /**
+     * Render the morph again at the output size and encode it into a file as the frames come
+     * Frames are queued to an EncoderStage and dropped once encoded, so the export never holds
+     * the sequence and is not shrunk to the free heap like the frames on screen. Where the images
+     * and frames do not fit the heap, the images are spilled to a file and the frames are
+     * rendered in tiles into another, which the encoder reads back a strip of rows at a time
+     * @param isVideo true for an MP4 through the platform codec, false for a GIF
+     */
+    private void exportMorph(boolean isVideo) {
+        if (exportControl != null) {
+            showToast("Export already running");
+            return;
+        }
+        int[] exportSize = exportSize(isVideo);
+        int exportWidth = exportSize[0], exportHeight = exportSize[1];
+        File directory = getExternalFilesDir(Environment.DIRECTORY_PICTURES);
+        if (directory == null) {
+            directory = getFilesDir();
+        }
+        File file = new File(directory, "morph-" + System.currentTimeMillis() + (isVideo ? ".mp4" : ".gif"));
+        RenderControl control = new RenderControl(null);
+        exportControl = control;
+        float cullingTolerance = sourceLines.size() >= MIN_PAIRS_FOR_CULLING ? CULLING_TOLERANCE : 0;
+        showToast("Exporting " + exportWidth + "x" + exportHeight);
+        //Queued behind the morph, so the export does not compete with the final frames for the workers
+        //Both images as bitmaps and as pixels, the frames in flight on the workers and the frames at the encoder
+        int imagesHeld = 4 + WarpScheduler.getShared().getParallelism() + 1 + EncoderStage.QUEUE_CAPACITY + 1;
+        //Where those would not fit the heap, the export is rendered in tiles
+        int[] fitSize = MemoryBudget.fitSize(exportWidth, exportHeight, imagesHeld,
+                MemoryBudget.frameBudget(BitmapPool.getShared().size()));
+        boolean isTiled = fitSize[0] < exportWidth || fitSize[1] < exportHeight;
+        morphExecutor.execute(() -> {
+            boolean isSaved = false;
+            String message = null;
+            try (FrameEncoder encoder = isVideo ? new Mp4Encoder(file, exportWidth, exportHeight, frameDelay)
+                    : new GifEncoder(new BufferedOutputStream(new FileOutputStream(file)), exportWidth, exportHeight, frameDelay)) {
+                Morph.Options options = morphOptions(cullingTolerance, control);
+                if (isTiled) {
+                    renderTiledExport(exportWidth, exportHeight, options, encoder);
+                    encoder.finish();
+                } else {
+                    //Frames are encoded on the stage's thread while the workers render the next ones
+                    EncoderStage stage = new EncoderStage(encoder);
+                    try {
+                        renderExport(exportWidth, exportHeight, options, stage);
+                    } catch (IOException | RuntimeException e) {
+                        stage.abort();
+                        throw e;
+                    }
+                    stage.finish();
+                }
+                isSaved = true;
+                message = "Saved to " + file.getPath();
+            } catch (CancellationException e) {
+                //The screen was left, nobody to tell
+            } catch (IOException | RuntimeException e) {
+                //Also a codec or the engine rejecting the size, which must not take the app down
+                Log.e(TAG, "Export to " + file + " failed", e);
+                message = "Export failed: " + e.getMessage();
+            } finally {
+                //A partial file is not playable
+                if (!isSaved) {
+                    file.delete();
+                }
+                //Not through handler, playback would drop the reset and block every later export
+                String result = message;
+                runOnUiThread(() -> {
+                    exportControl = null;
+                    if (results != null && result != null) {
+                        showToast(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Get the size of an export, the output size
+     * @param isVideo true for an MP4, whose codec takes even sizes only
+     * @return width and height as int[]
+     */
+    private int[] exportSize(boolean isVideo) {
+        int[] size = {outputWidth, outputHeight};
+        if (isVideo) {
+            size[0] = Math.max(2, size[0] & ~1);
+            size[1] = Math.max(2, size[1] & ~1);
+        }
+        return size;
+    }
+
+    /**
+     * Render the export frames at their size into a sink, on the morph thread
+     */
+    private void renderExport(int exportWidth, int exportHeight, Morph.Options options,
+                              WarpScheduler.FrameSink sink) throws IOException {
+        ImageLoader imageLoader = ImageLoader.getShared(this);
+        Morph.render(imageLoader.loadScaled(sourceImageUri, exportWidth, exportHeight),
+                imageLoader.loadScaled(destinationImageUri, exportWidth, exportHeight),
+                sourceLines.scaled(exportWidth, exportHeight), destinationLines.scaled(exportWidth, exportHeight),
+                options, sink);
+    }
+
+    /**
+     * Render the export frames a tile at a time from a file of both images, on the morph thread
+     * The tiles of a frame go into a file of one frame that the encoder reads back before the
+     * next frame is rendered over it, so neither the images nor any frame is held whole
+     */
+    private void renderTiledExport(int exportWidth, int exportHeight, Morph.Options options,
+                                   FrameEncoder encoder) throws IOException {
+        long stamp = System.nanoTime();
+        File imagesFile = new File(getCacheDir(), "export-" + stamp + ".raw");
+        File frameFile = new File(getCacheDir(), "export-" + stamp + "-frame.raw");
+        try (RawImageFile images = new RawImageFile(imagesFile, exportWidth, exportHeight, 2, true);
+             RawImageFile frame = new RawImageFile(frameFile, exportWidth, exportHeight, 1, true)) {
+            //One image is decoded at a time, the tiles read both back a window at a time
+            writeExportImage(sourceImageUri, images, 0);
+            writeExportImage(destinationImageUri, images, 1);
+            Morph.renderTiled(images, sourceLines.scaled(exportWidth, exportHeight),
+                    destinationLines.scaled(exportWidth, exportHeight), options,
+                    TileRenderer.encoderSink(frame, encoder));
+        } finally {
+            imagesFile.delete();
+            frameFile.delete();
+        }
+    }
+
+    private void writeExportImage(Uri uri, RawImageFile images, int index) throws IOException {
+        Morph.writeImage(ImageLoader.getShared(this).loadScaled(uri, images.getWidth(), images.getHeight()), images, index);
+    }
+
+    private void showToast(String str) {
+        Toast.makeText(this, str, Toast.LENGTH_SHORT).show();
+    }
+
+    @SuppressLint("SetTextI18n")
+    private void showElapsedTime(long elapsedNanos, long firstFrameNanos) {
         //Show benchmark
-        double elapsedTimeInSeconds = (endTime - startTime) / 1000000000.0;
+        double elapsedTimeInSeconds = elapsedNanos / 1000000000.0;
+        double firstFrameTimeInSeconds = firstFrameNanos / 1000000000.0;
         @SuppressLint("DefaultLocale")
         String formattedTime = String.format("%.6f", elapsedTimeInSeconds);
-        timeElapsedText.setText("Time elapsed: " + formattedTime + "s");
+        @SuppressLint("DefaultLocale")
+        String formattedFirstFrameTime = String.format("%.6f", firstFrameTimeInSeconds);
+        timeElapsedText.setText("Time elapsed: " + formattedTime + "s (first frame: " + formattedFirstFrameTime + "s)");
+    }
+
+    @SuppressLint("SetTextI18n")
+    private void showFinalTime(long elapsedNanos) {
+        if (results == null) {
+            return;
+        }
+        @SuppressLint("DefaultLocale")
+        String formattedTime = String.format("%.6f", elapsedNanos / 1000000000.0);
+        timeElapsedText.append("\nFinal " + results[0].getWidth() + "x" + results[0].getHeight() + ": " + formattedTime + "s");
+    }
+
+    /**
+     * Stop the running morph, workers give up at their next tile
+     */
+    private void cancelMorph() {
+        if (renderControl != null) {
+            renderControl.cancel();
+        }
+        if (exportControl != null) {
+            exportControl.cancel();
+        }
+        handler.removeCallbacksAndMessages(null);
     }
 
     @SuppressLint("SetTextI18n")
@@ -150,17 +520,41 @@ public class MorphResult extends AppCompatActivity {
                 @Override
                 public void run() {
                     isPlaying = true;
-                    resultView.setImageBitmap(results[currentImageIndex]);
-                    imageIndexText.setText("Current image: " + (currentImageIndex + 1));
-                    currentImageIndex = (currentImageIndex + 1) % results.length;
+                    //Only loop over the frames that are ready
+                    if (numOfFramesReady > 0) {
+                        currentImageIndex = currentImageIndex % numOfFramesReady;
+                        resultView.setImageBitmap(results[currentImageIndex]);
+                        imageIndexText.setText("Current image: " + (currentImageIndex + 1));
+                        currentImageIndex = (currentImageIndex + 1) % numOfFramesReady;
+                    }
                     handler.postDelayed(this, frameDelay);
                 }
             }, frameDelay);
         }
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.result_menu, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        //MP4 goes through the platform codec, which not every device has for every size
+        menu.findItem(R.id.exportMp4Btn).setVisible(isMp4Available);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.exportGifBtn) {
+            exportMorph(false);
+            return true;
+        } else if (item.getItemId() == R.id.exportMp4Btn) {
+            exportMorph(true);
+            return true;
+        }
         //Handle return button
         switch (item.getItemId()) {
             case android.R.id.home:
@@ -198,7 +592,7 @@ public class MorphResult extends AppCompatActivity {
             public void onClick(View v) {
                 onPause();
                 isPlaying = false;
-                if (currentImageIndex < (numOfFrames + 1)) {
+                if (currentImageIndex < numOfFramesReady - 1) {
                     resultView.setImageBitmap(results[++currentImageIndex]);
                     imageIndexText.setText("Current image: " + (currentImageIndex + 1));
                 }
@@ -210,6 +604,25 @@ public class MorphResult extends AppCompatActivity {
     protected void onPause() {
         super.onPause();
         handler.removeCallbacksAndMessages(null);
+        //The user backed out
+        if (isFinishing()) {
+            cancelMorph();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        cancelMorph();
+        resultView.setImageBitmap(null);
+        //Queued behind the morph, so no frame is still being written when it goes back to the pool
+        Bitmap[] frames = results;
+        results = null;
+        morphExecutor.execute(() -> BitmapPool.getShared().releaseAll(frames));
+        morphExecutor.shutdown();
+        if (isFinishing()) {
+            MorphJob.remove(morphJobId);
+        }
     }
 
     private Bitmap cropImage(Bitmap img, int width, int height) {
@@ -235,7 +648,26 @@ public class MorphResult extends AppCompatActivity {
     private void getData() {
         //Extract the data passed in
         Intent intent = getIntent();
-        if (intent != null && intent.hasExtra("numOfFrames")
+        if (intent == null) {
+            return;
+        }
+        this.morphJobId = intent.getLongExtra("morphJobId", -1);
+        MorphJob job = MorphJob.get(morphJobId);
+        if (job != null) {
+            //Take over what MainActivity already decoded and scaled
+            this.numOfFrames = job.numOfFrames;
+            this.isThreadingOn = job.isThreadingOn;
+            this.width = job.getWidth();
+            this.height = job.getHeight();
+            this.outputWidth = job.outputWidth;
+            this.outputHeight = job.outputHeight;
+            this.sourceImageUri = job.sourceImageUri;
+            this.destinationImageUri = job.destinationImageUri;
+            this.sourceImage = job.sourceImage;
+            this.destinationImage = job.destinationImage;
+            this.sourceLines = job.sourceLines;
+            this.destinationLines = job.destinationLines;
+        } else if (intent.hasExtra("numOfFrames")
                 && intent.hasExtra("sourceImageUri")
                 && intent.hasExtra("destinationImageUri")
                 && intent.hasExtra("startX1") && intent.hasExtra("startY1")
@@ -244,16 +676,19 @@ public class MorphResult extends AppCompatActivity {
                 && intent.hasExtra("endX2") && intent.hasExtra("endY2")
                 && intent.hasExtra("isThreadingOn") && intent.hasExtra("imgWidth")
                 && intent.hasExtra("imgHeight")) {
-            //Set data
+            //The job is gone after a process restart, rebuild it from the extras
             this.numOfFrames = intent.getIntExtra("numOfFrames", 0);
             this.isThreadingOn = intent.getBooleanExtra("isThreadingOn", true);
             this.width = intent.getIntExtra("imgWidth", 0);
             this.height = intent.getIntExtra("imgHeight", 0);
+            this.outputWidth = intent.getIntExtra("outputWidth", width);
+            this.outputHeight = intent.getIntExtra("outputHeight", height);
+            this.sourceImageUri = intent.getParcelableExtra("sourceImageUri");
+            this.destinationImageUri = intent.getParcelableExtra("destinationImageUri");
             try {
-                Bitmap originalSource = MediaStore.Images.Media.getBitmap(getContentResolver(), intent.getParcelableExtra("sourceImageUri"));
-                this.sourceImage = Bitmap.createScaledBitmap(originalSource, width, height, true);
-                Bitmap originalDestination = MediaStore.Images.Media.getBitmap(getContentResolver(), intent.getParcelableExtra("destinationImageUri"));
-                this.destinationImage = Bitmap.createScaledBitmap(originalDestination, width, height, true);
+                ImageLoader imageLoader = ImageLoader.getShared(this);
+                this.sourceImage = imageLoader.loadScaled(sourceImageUri, width, height);
+                this.destinationImage = imageLoader.loadScaled(destinationImageUri, width, height);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -274,15 +709,23 @@ public class MorphResult extends AppCompatActivity {
             assert startY2 != null;
             assert endX2 != null;
             assert endY2 != null;
-            for (int i = 0; i < startY1.length; i++) {
-                PointF start1 = new PointF(startX1[i], startY1[i]);
-                PointF end1 = new PointF(endX1[i], endY1[i]);
-                PointF start2 = new PointF(startX2[i], startY2[i]);
-                PointF end2 = new PointF(endX2[i], endY2[i]);
-                Line line1 = new Line(start1, end1);
-                Line line2 = new Line(start2, end2);
-                pairsList.add(new Pair<>(line1, line2));
+            this.sourceLines = new LineTable(startX1.length);
+            this.destinationLines = new LineTable(startX1.length);
+            for (int i = 0; i < startX1.length; i++) {
+                sourceLines.set(i, startX1[i], startY1[i], endX1[i], endY1[i]);
+                destinationLines.set(i, startX2[i], startY2[i], endX2[i], endY2[i]);
             }
+        } else {
+            return;
+        }
+        //Render smaller frames rather than run out of memory on long sequences, the lines are normalized
+        int[] fittedSize = MemoryBudget.fitSize(width, height, numOfFrames + 2,
+                MemoryBudget.frameBudget(BitmapPool.getShared().size()));
+        if (fittedSize[0] != width || fittedSize[1] != height) {
+            this.width = fittedSize[0];
+            this.height = fittedSize[1];
+            this.sourceImage = Bitmap.createScaledBitmap(sourceImage, width, height, true);
+            this.destinationImage = Bitmap.createScaledBitmap(destinationImage, width, height, true);
         }
     }
 }
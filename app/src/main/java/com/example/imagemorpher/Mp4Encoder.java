@@ -0,0 +1,281 @@
+package com.example.imagemorpher;
+
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+
+import com.example.imagemorpher.engine.FrameEncoder;
+import com.example.imagemorpher.engine.TileRenderer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * H.264 video through the platform codec, muxed into an MP4 file
+ * Every frame is converted to YUV straight into the codec's input image and the codec output
+ * is drained into the muxer after each frame, so nothing of a frame stays with the encoder.
+ * A frame added from a PixelSource is read a strip of rows at a time.
+ * Only available where the device has an AVC encoder for the size, see isAvailable
+ */
+public class Mp4Encoder implements FrameEncoder {
+
+    private static final String MIME_TYPE = MediaFormat.MIMETYPE_VIDEO_AVC;
+
+    /**
+     * Bits per pixel and second of video
+     */
+    private static final int BITS_PER_PIXEL = 4;
+
+    /**
+     * Wait for a codec buffer in microseconds
+     */
+    private static final long TIMEOUT = 10000;
+
+    /**
+     * Rows read from a PixelSource at once, even so chroma rows are never split
+     */
+    private static final int STRIP_HEIGHT = 16;
+
+    private final MediaCodec codec;
+
+    private final MediaMuxer muxer;
+
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+
+    private final int width, height;
+
+    /**
+     * Time every frame is shown in microseconds
+     */
+    private final long frameDuration;
+
+    private int numOfFramesQueued;
+
+    private int trackIndex = -1;
+
+    private boolean isMuxerStarted, isReleased;
+
+    /**
+     * Rows of a PixelSource frame, created on first use
+     */
+    private int[] strip;
+
+    /**
+     * Start the codec and the muxer
+     * @param file receives the video
+     * @param width the width of the frames as integer, even
+     * @param height the height of the frames as integer, even
+     * @param frameDelay time every frame is shown in milliseconds as integer
+     * @throws IOException if there is no encoder for the size or the file cannot be created
+     */
+    public Mp4Encoder(File file, int width, int height, int frameDelay) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.frameDuration = frameDelay * 1000L;
+        MediaFormat format = format(width, height, frameDelay);
+        String codecName = new MediaCodecList(MediaCodecList.REGULAR_CODECS).findEncoderForFormat(format);
+        if (codecName == null) {
+            throw new IOException("No " + MIME_TYPE + " encoder for " + width + "x" + height);
+        }
+        codec = MediaCodec.createByCodecName(codecName);
+        try {
+            codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            codec.start();
+            muxer = new MediaMuxer(file.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        } catch (IOException | RuntimeException e) {
+            codec.release();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    /**
+     * Check for a platform encoder
+     * @param width the width of the frames as integer
+     * @param height the height of the frames as integer
+     * @param frameDelay time every frame is shown in milliseconds as integer
+     * @return true if an MP4 of this size can be encoded
+     */
+    public static boolean isAvailable(int width, int height, int frameDelay) {
+        if (width % 2 != 0 || height % 2 != 0) {
+            return false;
+        }
+        return new MediaCodecList(MediaCodecList.REGULAR_CODECS).findEncoderForFormat(format(width, height, frameDelay)) != null;
+    }
+
+    private static MediaFormat format(int width, int height, int frameDelay) {
+        int frameRate = Math.max(1, 1000 / frameDelay);
+        MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, width * height * BITS_PER_PIXEL);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+        return format;
+    }
+
+    @Override
+    public void addFrame(int[] pixels) throws IOException {
+        try {
+            int index = dequeueInput();
+            writeYuv(pixels, 0, height, inputImage(index));
+            queueInput(index);
+        } catch (IllegalStateException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void addFrame(TileRenderer.PixelSource frame) throws IOException {
+        if (strip == null) {
+            strip = new int[width * STRIP_HEIGHT];
+        }
+        try {
+            int index = dequeueInput();
+            Image image = inputImage(index);
+            for (int y = 0; y < height; y += STRIP_HEIGHT) {
+                int stripHeight = Math.min(STRIP_HEIGHT, height - y);
+                frame.read(0, y, width, stripHeight, strip);
+                writeYuv(strip, y, stripHeight, image);
+            }
+            queueInput(index);
+        } catch (IllegalStateException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Wait for a free input buffer, draining the output meanwhile
+     * @return index of the input buffer as integer
+     */
+    private int dequeueInput() {
+        int index;
+        while ((index = codec.dequeueInputBuffer(TIMEOUT)) < 0) {
+            drain(false);
+        }
+        return index;
+    }
+
+    private Image inputImage(int index) throws IOException {
+        Image image = codec.getInputImage(index);
+        if (image == null) {
+            throw new IOException("Codec has no input image");
+        }
+        return image;
+    }
+
+    /**
+     * Hand a filled input buffer to the codec as the next frame
+     * @param index index of the input buffer as integer
+     */
+    private void queueInput(int index) {
+        codec.queueInputBuffer(index, 0, width * height * 3 / 2, numOfFramesQueued * frameDuration, 0);
+        numOfFramesQueued++;
+        drain(false);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        try {
+            int index = dequeueInput();
+            codec.queueInputBuffer(index, 0, 0, numOfFramesQueued * frameDuration, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            drain(true);
+        } catch (IllegalStateException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Convert ARGB to BT.601 limited range YUV, chroma averaged over 2x2 pixels
+     * @param pixels ARGB pixels of the rows as int[]
+     * @param top first row of the frame in pixels as integer, even
+     * @param numOfRows number of rows as integer, even
+     * @param image input image of the codec
+     */
+    private void writeYuv(int[] pixels, int top, int numOfRows, Image image) {
+        Image.Plane[] planes = image.getPlanes();
+        ByteBuffer yPlane = planes[0].getBuffer();
+        ByteBuffer uPlane = planes[1].getBuffer();
+        ByteBuffer vPlane = planes[2].getBuffer();
+        int yRowStride = planes[0].getRowStride(), yPixelStride = planes[0].getPixelStride();
+        int uRowStride = planes[1].getRowStride(), uPixelStride = planes[1].getPixelStride();
+        int vRowStride = planes[2].getRowStride(), vPixelStride = planes[2].getPixelStride();
+        for (int row = 0; row < numOfRows; row += 2) {
+            int y = top + row;
+            for (int x = 0; x < width; x += 2) {
+                int red = 0, green = 0, blue = 0;
+                for (int j = 0; j < 2; j++) {
+                    for (int i = 0; i < 2; i++) {
+                        int pixel = pixels[(row + j) * width + x + i];
+                        int r = (pixel >> 16) & 0xFF, g = (pixel >> 8) & 0xFF, b = pixel & 0xFF;
+                        yPlane.put((y + j) * yRowStride + (x + i) * yPixelStride,
+                                (byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16));
+                        red += r;
+                        green += g;
+                        blue += b;
+                    }
+                }
+                red >>= 2;
+                green >>= 2;
+                blue >>= 2;
+                uPlane.put((y / 2) * uRowStride + (x / 2) * uPixelStride,
+                        (byte) (((-38 * red - 74 * green + 112 * blue + 128) >> 8) + 128));
+                vPlane.put((y / 2) * vRowStride + (x / 2) * vPixelStride,
+                        (byte) (((112 * red - 94 * green - 18 * blue + 128) >> 8) + 128));
+            }
+        }
+    }
+
+    /**
+     * Move encoded samples from the codec to the muxer
+     * @param isEndOfStream wait until the codec has put out its last sample
+     */
+    private void drain(boolean isEndOfStream) {
+        while (true) {
+            int index = codec.dequeueOutputBuffer(bufferInfo, TIMEOUT);
+            if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (!isEndOfStream) {
+                    return;
+                }
+            } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                trackIndex = muxer.addTrack(codec.getOutputFormat());
+                muxer.start();
+                isMuxerStarted = true;
+            } else if (index >= 0) {
+                ByteBuffer data = codec.getOutputBuffer(index);
+                //Codec config is already part of the output format
+                if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0
+                        && bufferInfo.size > 0 && isMuxerStarted && data != null) {
+                    data.position(bufferInfo.offset);
+                    data.limit(bufferInfo.offset + bufferInfo.size);
+                    muxer.writeSampleData(trackIndex, data, bufferInfo);
+                }
+                codec.releaseOutputBuffer(index, false);
+                if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isReleased) {
+            return;
+        }
+        isReleased = true;
+        try {
+            codec.stop();
+            if (isMuxerStarted) {
+                muxer.stop();
+            }
+        } catch (IllegalStateException e) {
+            throw new IOException(e);
+        } finally {
+            codec.release();
+            muxer.release();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.imagemorpher.engine;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Size-bucketed pool of pixel buffers
+ * Released buffers are kept per length up to a byte budget and handed out again, so a
+ * render does not allocate and drop a full frame buffer for every frame. Buffers come
+ * back with their old content, every user overwrites the whole buffer
+ */
+public class BufferPool {
+
+    /**
+     * Budget of the shared pool in bytes
+     */
+    static final long SHARED_BUDGET = 16L * 1024 * 1024;
+
+    /**
+     * Process-wide pool shared by every render
+     */
+    private static BufferPool shared;
+
+    /**
+     * Free buffers by length
+     */
+    private final Map<Integer, ArrayDeque<int[]>> free = new HashMap<>();
+
+    private final long budget;
+
+    /**
+     * Bytes held by the free buffers
+     */
+    private long size;
+
+    /**
+     * Create a pool
+     * @param budget largest total size of the free buffers in bytes as long
+     */
+    public BufferPool(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Get the shared pool
+     * @return shared pool
+     */
+    public static synchronized BufferPool getShared() {
+        if (shared == null) {
+            shared = new BufferPool(SHARED_BUDGET);
+        }
+        return shared;
+    }
+
+    /**
+     * Take a buffer out of the pool, or allocate one if none of the length is free
+     * @param length number of pixels as integer
+     * @return buffer as int[], its content is undefined
+     */
+    public synchronized int[] acquire(int length) {
+        ArrayDeque<int[]> buffers = free.get(length);
+        if (buffers != null && !buffers.isEmpty()) {
+            size -= bytes(length);
+            return buffers.pop();
+        }
+        return new int[length];
+    }
+
+    /**
+     * Give a buffer back, the caller must not use it anymore
+     * Buffers of other lengths are dropped first when the pool is full; a buffer that
+     * still does not fit is left to the garbage collector
+     * @param buffer buffer as int[]
+     */
+    public synchronized void release(int[] buffer) {
+        long bytes = bytes(buffer.length);
+        if (bytes > budget) {
+            return;
+        }
+        Iterator<Map.Entry<Integer, ArrayDeque<int[]>>> buckets = free.entrySet().iterator();
+        while (size + bytes > budget && buckets.hasNext()) {
+            Map.Entry<Integer, ArrayDeque<int[]>> bucket = buckets.next();
+            if (bucket.getKey() != buffer.length) {
+                size -= bucket.getValue().size() * bytes(bucket.getKey());
+                buckets.remove();
+            }
+        }
+        if (size + bytes > budget) {
+            return;
+        }
+        ArrayDeque<int[]> buffers = free.get(buffer.length);
+        if (buffers == null) {
+            buffers = new ArrayDeque<>();
+            free.put(buffer.length, buffers);
+        }
+        buffers.push(buffer);
+        size += bytes;
+    }
+
+    public synchronized void clear() {
+        free.clear();
+        size = 0;
+    }
+
+    /**
+     * Get the memory held by the free buffers
+     * @return size in bytes as long
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    private static long bytes(int length) {
+        return (long) length * Integer.BYTES;
+    }
+}
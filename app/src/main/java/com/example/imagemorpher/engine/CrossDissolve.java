@@ -0,0 +1,96 @@
+package com.example.imagemorpher.engine;
+
+/**
+ * Cross-dissolve of packed ARGB pixels
+ * Weights are 8.8 fixed point computed once per frame, and every pixel is blended as two
+ * words of two channels each, red/blue and alpha/green, so alpha is kept
+ */
+public class CrossDissolve {
+
+    /**
+     * Fractional bits of a weight
+     */
+    static final int WEIGHT_BITS = 8;
+
+    /**
+     * Weight of 1.0
+     */
+    static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+
+    private CrossDissolve() {}
+
+    /**
+     * Forward weight of a frame, the source fades out over the sequence
+     * @param frameIndex frame index as integer
+     * @param totalNumOfFrames number of frames including source and destination as integer
+     * @return ratio as float
+     */
+    public static float forwardRatio(int frameIndex, int totalNumOfFrames) {
+        return (float) (totalNumOfFrames - frameIndex) / totalNumOfFrames;
+    }
+
+    /**
+     * Reverse weight of a frame, the destination fades in over the sequence
+     * @param frameIndex frame index as integer
+     * @param totalNumOfFrames number of frames including source and destination as integer
+     * @return ratio as float
+     */
+    public static float reverseRatio(int frameIndex, int totalNumOfFrames) {
+        return (float) frameIndex / totalNumOfFrames;
+    }
+
+    /**
+     * Forward ratio of a frame in 8.8 fixed point
+     * @param frameIndex frame index as integer
+     * @param totalNumOfFrames number of frames including source and destination as integer
+     * @return weight in [0, 256] as integer
+     */
+    public static int forwardWeight(int frameIndex, int totalNumOfFrames) {
+        return Math.round(forwardRatio(frameIndex, totalNumOfFrames) * WEIGHT_ONE);
+    }
+
+    /**
+     * Reverse ratio of a frame in 8.8 fixed point, forward and reverse always add up to 256
+     * so opaque frames stay opaque
+     * @param frameIndex frame index as integer
+     * @param totalNumOfFrames number of frames including source and destination as integer
+     * @return weight in [0, 256] as integer
+     */
+    public static int reverseWeight(int frameIndex, int totalNumOfFrames) {
+        return WEIGHT_ONE - forwardWeight(frameIndex, totalNumOfFrames);
+    }
+
+    /**
+     * Blend two pixels, every channel including alpha
+     * @param forwardPixel forward warped pixel as integer
+     * @param reversePixel reverse warped pixel as integer
+     * @param forwardWeight forward weight in 8.8 fixed point as integer
+     * @param reverseWeight reverse weight in 8.8 fixed point as integer, the two add up to at most 256
+     * @return blended pixel as integer
+     */
+    public static int blend(int forwardPixel, int reversePixel, int forwardWeight, int reverseWeight) {
+        //Each channel product stays below 2^16, so the two channels of a word never carry into each other
+        int redBlue = ((forwardPixel & 0x00FF00FF) * forwardWeight
+                + (reversePixel & 0x00FF00FF) * reverseWeight) >>> WEIGHT_BITS;
+        int alphaGreen = ((forwardPixel >>> 8) & 0x00FF00FF) * forwardWeight
+                + ((reversePixel >>> 8) & 0x00FF00FF) * reverseWeight;
+        return (redBlue & 0x00FF00FF) | (alphaGreen & 0xFF00FF00);
+    }
+
+    /**
+     * Blend a run of pixels, forward, reverse and output share the same layout
+     * @param forwardPixels forward warped pixels as int[]
+     * @param reversePixels reverse warped pixels as int[]
+     * @param outputPixels output pixels as int[]
+     * @param offset index of the first pixel as integer
+     * @param length number of pixels as integer
+     * @param forwardWeight forward weight in 8.8 fixed point as integer
+     * @param reverseWeight reverse weight in 8.8 fixed point as integer, the two add up to at most 256
+     */
+    public static void blendRow(int[] forwardPixels, int[] reversePixels, int[] outputPixels, int offset, int length,
+                                int forwardWeight, int reverseWeight) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            outputPixels[i] = blend(forwardPixels[i], reversePixels[i], forwardWeight, reverseWeight);
+        }
+    }
+}
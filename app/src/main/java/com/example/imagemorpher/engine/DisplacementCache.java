@@ -0,0 +1,311 @@
+package com.example.imagemorpher.engine;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Least recently used displacement fields under a memory budget
+ * The warp of a frame depends on the lines, the frame count, the resolution and the engine
+ * parameters but not on the pixels, so morphing another image pair with a known line
+ * template only has to gather from the kept fields
+ * With a store directory, MorphRenderer also keeps every template in a DisplacementFile
+ * there, so fields outlive the process; the least recently used files are deleted once the
+ * directory outgrows its budget
+ */
+public class DisplacementCache {
+
+    /**
+     * Budget of the shared cache in bytes
+     */
+    static final long SHARED_BUDGET = 32L * 1024 * 1024;
+
+    /**
+     * Default budget of the template files in a store directory in bytes
+     */
+    static final long STORE_BUDGET = 128L * 1024 * 1024;
+
+    /**
+     * Process-wide cache shared by every morph
+     */
+    private static DisplacementCache shared;
+
+    /**
+     * Most recently used last
+     */
+    private final LinkedHashMap<Key, DisplacementField> fields = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final long budget;
+
+    /**
+     * Bytes held by the fields
+     */
+    private long size;
+
+    /**
+     * Directory of the template files, may be null
+     */
+    private File storeDirectory;
+
+    private long storeBudget;
+
+    /**
+     * Create a cache
+     * @param budget largest total size of the fields in bytes as long
+     */
+    public DisplacementCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Get the shared cache
+     * @return shared cache
+     */
+    public static synchronized DisplacementCache getShared() {
+        if (shared == null) {
+            shared = new DisplacementCache(SHARED_BUDGET);
+        }
+        return shared;
+    }
+
+    /**
+     * Look up a field and mark it as recently used
+     * @param key frame key
+     * @return the field, or null if it is not cached
+     */
+    public synchronized DisplacementField get(Key key) {
+        return fields.get(key);
+    }
+
+    /**
+     * Keep a field, evicting the least recently used ones until the cache fits its budget
+     * A field larger than the whole budget is not kept, nor is a mapped one: it holds page
+     * cache rather than heap and is mapped again from its file for the next morph
+     * @param key frame key
+     * @param field complete field of the frame
+     */
+    public synchronized void put(Key key, DisplacementField field) {
+        if (field.isMapped() || field.sizeInBytes() > budget) {
+            return;
+        }
+        DisplacementField previous = fields.put(key, field);
+        if (previous != null) {
+            size -= previous.sizeInBytes();
+        }
+        size += field.sizeInBytes();
+        Iterator<Map.Entry<Key, DisplacementField>> eldest = fields.entrySet().iterator();
+        while (size > budget) {
+            size -= eldest.next().getValue().sizeInBytes();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Check if the fields of every frame of a morph fit in the budget together
+     * @param width the width of the frames as integer
+     * @param height the height of the frames as integer
+     * @param totalNumOfFrames number of frames including source and destination as integer
+     * @return true if they do
+     */
+    public boolean canHold(int width, int height, int totalNumOfFrames) {
+        //The first and the last frame only map one image
+        return (2L * totalNumOfFrames - 2) * width * height * Long.BYTES <= budget;
+    }
+
+    /**
+     * Keep templates on disk as well, within STORE_BUDGET
+     * @param storeDirectory directory of the template files, null keeps them in memory only
+     */
+    public void setStoreDirectory(File storeDirectory) {
+        setStoreDirectory(storeDirectory, STORE_BUDGET);
+    }
+
+    /**
+     * Keep templates on disk as well
+     * Temporary files left by a process that died while writing are deleted
+     * @param storeDirectory directory of the template files, null keeps them in memory only
+     * @param storeBudget largest total size of the template files in bytes as long
+     */
+    public synchronized void setStoreDirectory(File storeDirectory, long storeBudget) {
+        if (storeDirectory != null && !storeDirectory.equals(this.storeDirectory)) {
+            File[] files = storeDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (DisplacementFile.isTemporary(file.getName())) {
+                        file.delete();
+                    }
+                }
+            }
+        }
+        this.storeDirectory = storeDirectory;
+        this.storeBudget = storeBudget;
+    }
+
+    /**
+     * Delete the least recently modified template files until the store fits its budget
+     * The newest file is always kept, even if it is larger than the whole budget
+     */
+    public synchronized void trimStore() {
+        File[] files = storeDirectory != null ? storeDirectory.listFiles() : null;
+        if (files == null) {
+            return;
+        }
+        List<File> templates = new ArrayList<>();
+        //Read once, so the order cannot change while sorting
+        Map<File, Long> modified = new HashMap<>();
+        for (File file : files) {
+            if (DisplacementFile.isTemplate(file.getName())) {
+                templates.add(file);
+                modified.put(file, file.lastModified());
+            }
+        }
+        //Newest first
+        Collections.sort(templates, (a, b) -> Long.compare(modified.get(b), modified.get(a)));
+        long total = 0;
+        for (int i = 0; i < templates.size(); i++) {
+            File file = templates.get(i);
+            total += file.length();
+            if (i > 0 && total > storeBudget) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Get the file a morph is stored in
+     * @param key key of any frame of the morph
+     * @return the file, or null without a store directory
+     */
+    public synchronized File storeFile(Key key) {
+        return storeDirectory != null ? new File(storeDirectory, DisplacementFile.fileName(key)) : null;
+    }
+
+    public synchronized void clear() {
+        fields.clear();
+        size = 0;
+    }
+
+    /**
+     * Get the memory held by the cached fields
+     * @return size in bytes as long
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized int count() {
+        return fields.size();
+    }
+
+    /**
+     * Identity of one frame of a morph: the source and destination lines, the frame count
+     * and index, and everything about the engine that changes the mapping
+     * Lines are compared in full, the hash only picks the bucket
+     */
+    public static final class Key {
+
+        /**
+         * Engine parameters, frame count and every line end, shared by the keys of a morph
+         */
+        final float[] template;
+
+        /**
+         * Weight function implementation, table and exact evaluations differ slightly
+         */
+        final String weightFunctionType;
+
+        final int width, height, totalNumOfFrames, frameIndex;
+
+        private final int hash;
+
+        private Key(float[] template, String weightFunctionType, int width, int height, int totalNumOfFrames,
+                    int frameIndex) {
+            this.template = template;
+            this.weightFunctionType = weightFunctionType;
+            this.width = width;
+            this.height = height;
+            this.totalNumOfFrames = totalNumOfFrames;
+            this.frameIndex = frameIndex;
+            this.hash = 31 * templateHash() + frameIndex;
+        }
+
+        /**
+         * Create the key of a frame
+         * @param engine warp engine of the frame size
+         * @param sourceLines control lines of the source image
+         * @param destinationLines control lines of the destination image
+         * @param totalNumOfFrames number of frames including source and destination as integer
+         * @param frameIndex frame index as integer
+         * @return the key
+         */
+        public static Key of(WarpEngine engine, LineTable sourceLines, LineTable destinationLines,
+                             int totalNumOfFrames, int frameIndex) {
+            float[] parameters = engine.mappingParameters();
+            int numOfLines = sourceLines.size();
+            float[] template = Arrays.copyOf(parameters, parameters.length + 1 + 8 * numOfLines);
+            int k = parameters.length;
+            template[k++] = totalNumOfFrames;
+            for (int i = 0; i < numOfLines; i++) {
+                template[k++] = sourceLines.startX[i];
+                template[k++] = sourceLines.startY[i];
+                template[k++] = sourceLines.endX[i];
+                template[k++] = sourceLines.endY[i];
+                template[k++] = destinationLines.startX[i];
+                template[k++] = destinationLines.startY[i];
+                template[k++] = destinationLines.endX[i];
+                template[k++] = destinationLines.endY[i];
+            }
+            return new Key(template, engine.getWeightFunction().getClass().getName(),
+                    engine.getWidth(), engine.getHeight(), totalNumOfFrames, frameIndex);
+        }
+
+        /**
+         * Get the key of another frame of the same morph
+         * @param frameIndex frame index as integer
+         * @return the key
+         */
+        public Key frame(int frameIndex) {
+            return new Key(template, weightFunctionType, width, height, totalNumOfFrames, frameIndex);
+        }
+
+        /**
+         * Hash of the whole morph, the same in every process
+         * @return hash as integer
+         */
+        int templateHash() {
+            return 31 * Arrays.hashCode(template) + weightFunctionType.hashCode();
+        }
+
+        /**
+         * Check if another key belongs to the same morph
+         * @param other key
+         * @return true if it does
+         */
+        boolean isSameTemplate(Key other) {
+            return weightFunctionType.equals(other.weightFunctionType) && Arrays.equals(template, other.template);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && frameIndex == other.frameIndex && isSameTemplate(other);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
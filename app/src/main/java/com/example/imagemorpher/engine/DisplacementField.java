@@ -0,0 +1,53 @@
+package com.example.imagemorpher.engine;
+
+import java.nio.LongBuffer;
+
+/**
+ * Mapped source positions of one morph frame, forward into the source image and reverse
+ * into the destination image
+ * Positions are packed like the warp packs them, 24.8 fixed point x in the high and y in
+ * the low 32 bits, so gathering from a field gives the same pixels as warping
+ * A field is either on the heap or a view of a memory-mapped DisplacementFile
+ */
+public final class DisplacementField {
+
+    /**
+     * Width and height of the frame
+     */
+    final int width, height;
+
+    /**
+     * Row-major positions, null where the frame samples that image unwarped
+     */
+    final LongBuffer forwardPositions, reversePositions;
+
+    DisplacementField(int width, int height, boolean hasForward, boolean hasReverse) {
+        this(width, height, hasForward ? LongBuffer.wrap(new long[width * height]) : null,
+                hasReverse ? LongBuffer.wrap(new long[width * height]) : null);
+    }
+
+    DisplacementField(int width, int height, LongBuffer forwardPositions, LongBuffer reversePositions) {
+        this.width = width;
+        this.height = height;
+        this.forwardPositions = forwardPositions;
+        this.reversePositions = reversePositions;
+    }
+
+    /**
+     * Get the memory held by the field
+     * @return size in bytes as long
+     */
+    public long sizeInBytes() {
+        long numOfFields = (forwardPositions != null ? 1 : 0) + (reversePositions != null ? 1 : 0);
+        return numOfFields * width * height * Long.BYTES;
+    }
+
+    /**
+     * Check if the field is a view of a mapped file rather than on the heap
+     * @return true for mapped fields
+     */
+    public boolean isMapped() {
+        LongBuffer positions = forwardPositions != null ? forwardPositions : reversePositions;
+        return positions != null && positions.isDirect();
+    }
+}
@@ -0,0 +1,304 @@
+package com.example.imagemorpher.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Displacement fields of every frame of a morph in one little-endian binary file
+ *
+ * Header:
+ *   int magic, int version, int width, int height, int number of frames, int template hash,
+ *   int template length, int weight function name length,
+ *   weight function name as UTF-8, float template[template length], byte flags per frame
+ *   (bit 0 forward, bit 1 reverse), zero padding up to a multiple of 8
+ * Body: per frame, the forward then the reverse positions, width * height longs each
+ *
+ * The template in the header is compared in full on read, the hash only names the file.
+ * Files are read with FileChannel.map, so the fields stay in the page cache instead of
+ * the heap and only the rows a gather touches are ever paged in
+ */
+public final class DisplacementFile {
+
+    /**
+     * "IMDF"
+     */
+    static final int MAGIC = 0x494D4446;
+
+    static final int VERSION = 1;
+
+    static final int FORWARD = 1, REVERSE = 2;
+
+    /**
+     * Bytes per write
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final String PREFIX = "template-", SUFFIX = ".bin", TEMPORARY_SUFFIX = ".tmp";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private DisplacementFile() {}
+
+    /**
+     * Get the file name of a morph
+     * @param key key of any frame of the morph
+     * @return file name as String
+     */
+    static String fileName(DisplacementCache.Key key) {
+        return PREFIX + Integer.toHexString(key.templateHash()) + SUFFIX;
+    }
+
+    /**
+     * Check if a file is a template file
+     * @param name file name as String
+     * @return true for finished template files
+     */
+    static boolean isTemplate(String name) {
+        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+    }
+
+    /**
+     * Check if a file is a template file a writer has not committed
+     * @param name file name as String
+     * @return true for temporary template files
+     */
+    static boolean isTemporary(String name) {
+        return name.startsWith(PREFIX) && name.endsWith(TEMPORARY_SUFFIX);
+    }
+
+    /**
+     * Map the fields of a morph
+     * @param file template file
+     * @param key key of any frame of the morph
+     * @return the field of every frame, or null if the file does not exist or holds another morph
+     * @throws IOException if the file cannot be read
+     */
+    public static DisplacementField[] read(File file, DisplacementCache.Key key) throws IOException {
+        //A single mapping holds at most 2 GB
+        if (!file.isFile() || file.length() > Integer.MAX_VALUE) {
+            return null;
+        }
+        MappedByteBuffer buffer;
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            //The mapping stays valid after the channel is closed
+            buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < 32 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                || buffer.getInt() != key.width || buffer.getInt() != key.height
+                || buffer.getInt() != key.totalNumOfFrames || buffer.getInt() != key.templateHash()) {
+            return null;
+        }
+        int templateLength = buffer.getInt();
+        int typeLength = buffer.getInt();
+        if (templateLength != key.template.length || typeLength != key.weightFunctionType.getBytes(UTF_8).length
+                || buffer.capacity() < headerLength(key)) {
+            return null;
+        }
+        byte[] type = new byte[typeLength];
+        buffer.get(type);
+        float[] template = new float[templateLength];
+        buffer.asFloatBuffer().get(template);
+        buffer.position(buffer.position() + templateLength * 4);
+        if (!key.weightFunctionType.equals(new String(type, UTF_8)) || !Arrays.equals(template, key.template)) {
+            return null;
+        }
+        byte[] flags = new byte[key.totalNumOfFrames];
+        buffer.get(flags);
+        for (int i = 0; i < flags.length; i++) {
+            if (flags[i] != flags(i, key.totalNumOfFrames)) {
+                return null;
+            }
+        }
+
+        long fieldLength = (long) key.width * key.height;
+        long offset = headerLength(key);
+        DisplacementField[] fields = new DisplacementField[key.totalNumOfFrames];
+        for (int i = 0; i < fields.length; i++) {
+            LongBuffer forward = null, reverse = null;
+            if ((flags[i] & FORWARD) != 0) {
+                forward = slice(buffer, offset, fieldLength);
+                offset += fieldLength * Long.BYTES;
+            }
+            if ((flags[i] & REVERSE) != 0) {
+                reverse = slice(buffer, offset, fieldLength);
+                offset += fieldLength * Long.BYTES;
+            }
+            fields[i] = new DisplacementField(key.width, key.height, forward, reverse);
+        }
+        //A truncated file has empty views
+        return offset == buffer.capacity() ? fields : null;
+    }
+
+    /**
+     * View part of a mapped file as longs
+     * @return the view, or an empty one past the end of the file
+     */
+    private static LongBuffer slice(ByteBuffer buffer, long offset, long numOfLongs) {
+        if (offset + numOfLongs * Long.BYTES > buffer.capacity()) {
+            return LongBuffer.allocate(0);
+        }
+        ByteBuffer part = buffer.duplicate();
+        part.position((int) offset);
+        part.limit((int) (offset + numOfLongs * Long.BYTES));
+        //slice resets the byte order
+        return part.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+    }
+
+    /**
+     * Length of the header of a morph, padding included
+     * @param key key of any frame of the morph
+     * @return length in bytes as long
+     */
+    static long headerLength(DisplacementCache.Key key) {
+        long length = 32 + key.weightFunctionType.getBytes(UTF_8).length + 4L * key.template.length + key.totalNumOfFrames;
+        return (length + 7) & ~7L;
+    }
+
+    /**
+     * Flags of a frame: the first frame shows the source and the last the destination unwarped
+     */
+    static int flags(int frameIndex, int totalNumOfFrames) {
+        return (frameIndex != 0 ? FORWARD : 0) | (frameIndex != totalNumOfFrames - 1 ? REVERSE : 0);
+    }
+
+    /**
+     * Writes the fields of a morph frame by frame, in order, into a temporary file of its own
+     * that replaces the template file on commit, so a reader never maps half a file
+     */
+    public static final class Writer {
+
+        private final File file, temporaryFile;
+
+        private final DisplacementCache.Key key;
+
+        private final RandomAccessFile output;
+
+        private final FileChannel channel;
+
+        private final ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        private int numOfFrames;
+
+        /**
+         * Start a template file and write its header
+         * @param file template file
+         * @param key key of any frame of the morph
+         * @throws IOException if the file cannot be written
+         */
+        public Writer(File file, DisplacementCache.Key key) throws IOException {
+            this.file = file;
+            this.key = key;
+            File directory = file.getAbsoluteFile().getParentFile();
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            //A name of its own, so writers of the same template in other processes never share it
+            this.temporaryFile = File.createTempFile(file.getName() + ".", TEMPORARY_SUFFIX, directory);
+            this.output = new RandomAccessFile(temporaryFile, "rw");
+            this.channel = output.getChannel();
+            try {
+                output.setLength(0);
+                writeHeader();
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+        }
+
+        private void writeHeader() throws IOException {
+            byte[] type = key.weightFunctionType.getBytes(UTF_8);
+            ByteBuffer header = ByteBuffer.allocate((int) headerLength(key)).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(key.width).putInt(key.height)
+                    .putInt(key.totalNumOfFrames).putInt(key.templateHash())
+                    .putInt(key.template.length).putInt(type.length);
+            header.put(type);
+            for (float value : key.template) {
+                header.putFloat(value);
+            }
+            for (int i = 0; i < key.totalNumOfFrames; i++) {
+                header.put((byte) flags(i, key.totalNumOfFrames));
+            }
+            header.position(0);
+            writeFully(header);
+        }
+
+        /**
+         * Append the field of the next frame
+         * @param field complete field of frame number of frames written so far
+         * @throws IOException if the file cannot be written
+         */
+        public void write(DisplacementField field) throws IOException {
+            int expected = flags(numOfFrames, key.totalNumOfFrames);
+            int actual = (field.forwardPositions != null ? FORWARD : 0) | (field.reversePositions != null ? REVERSE : 0);
+            if (expected != actual) {
+                throw new IllegalArgumentException("Unexpected field for frame " + numOfFrames);
+            }
+            if (field.forwardPositions != null) {
+                writePositions(field.forwardPositions);
+            }
+            if (field.reversePositions != null) {
+                writePositions(field.reversePositions);
+            }
+            numOfFrames++;
+        }
+
+        private void writePositions(LongBuffer positions) throws IOException {
+            LongBuffer remaining = positions.duplicate();
+            remaining.clear();
+            while (remaining.hasRemaining()) {
+                chunk.clear();
+                LongBuffer longs = chunk.asLongBuffer();
+                int count = Math.min(longs.capacity(), remaining.remaining());
+                LongBuffer part = remaining.duplicate();
+                part.limit(part.position() + count);
+                longs.put(part);
+                remaining.position(remaining.position() + count);
+                chunk.limit(count * Long.BYTES);
+                writeFully(chunk);
+            }
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        /**
+         * Finish the file once every frame is written
+         * @throws IOException if the file cannot be written or frames are missing
+         */
+        public void commit() throws IOException {
+            if (numOfFrames != key.totalNumOfFrames) {
+                abort();
+                throw new IOException("Only " + numOfFrames + " of " + key.totalNumOfFrames + " frames written");
+            }
+            output.close();
+            if (!temporaryFile.renameTo(file)) {
+                temporaryFile.delete();
+                throw new IOException("Cannot replace " + file);
+            }
+        }
+
+        /**
+         * Drop the file
+         */
+        public void abort() {
+            try {
+                output.close();
+            } catch (IOException e) {
+                //Deleted anyway
+            }
+            temporaryFile.delete();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.imagemorpher.engine;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Export stage that encodes frames on a thread of its own while the renderer goes on
+ * As a FrameSink it queues every finished frame; the encoder thread takes them in order,
+ * encodes them and gives each buffer back to the BufferPool right after, so no frame is
+ * kept once it is encoded. The queue is bounded: a renderer that gets ahead of the encoder
+ * waits for a free slot instead of piling up frames, and WarpScheduler.runAll starts no new
+ * frame while it waits, so an export holds at most the scheduler's frames in flight, the
+ * queued ones and the one being encoded
+ */
+public class EncoderStage implements WarpScheduler.FrameSink {
+
+    /**
+     * Frames that may wait for the encoder
+     */
+    public static final int QUEUE_CAPACITY = 2;
+
+    /**
+     * Queued after the last frame
+     */
+    private static final int[] END = new int[0];
+
+    private final FrameEncoder encoder;
+
+    private final BufferPool bufferPool;
+
+    private final BlockingQueue<int[]> queue;
+
+    private final Thread thread;
+
+    /**
+     * First failure of the encoder, later frames are only released
+     */
+    private volatile Exception failure;
+
+    /**
+     * Set to drop the frames still queued
+     */
+    private volatile boolean isAborted;
+
+    private boolean isEnded;
+
+    public EncoderStage(FrameEncoder encoder) {
+        this(encoder, QUEUE_CAPACITY, BufferPool.getShared());
+    }
+
+    /**
+     * Start the encoder thread
+     * @param encoder encoder of the frames
+     * @param queueCapacity number of frames that may wait for the encoder as integer
+     * @param bufferPool receives every frame buffer once it is encoded
+     */
+    public EncoderStage(FrameEncoder encoder, int queueCapacity, BufferPool bufferPool) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity " + queueCapacity);
+        }
+        this.encoder = encoder;
+        this.bufferPool = bufferPool;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.thread = new Thread(this::encodeAll, "frame-encoder");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void encodeAll() {
+        while (true) {
+            int[] pixels;
+            try {
+                pixels = queue.take();
+            } catch (InterruptedException e) {
+                //Only the stage itself ends the thread, through END
+                continue;
+            }
+            if (pixels == END) {
+                return;
+            }
+            //After a failure or an abort the queue is still drained, so the renderer never blocks on it
+            if (failure == null && !isAborted) {
+                try {
+                    encoder.addFrame(pixels);
+                } catch (IOException | RuntimeException e) {
+                    failure = e;
+                }
+            }
+            bufferPool.release(pixels);
+        }
+    }
+
+    /**
+     * Queue a frame for the encoder, waiting while the queue is full
+     * @param index frame index as integer, frames must arrive in order
+     * @param pixels frame pixels, the stage releases them once encoded
+     * @throws UncheckedIOException if the encoder has failed on an earlier frame
+     * @throws CancellationException if the thread is interrupted while waiting
+     */
+    @Override
+    public void onFrame(int index, int[] pixels) {
+        Exception failure = this.failure;
+        if (failure != null || isEnded) {
+            bufferPool.release(pixels);
+            if (failure instanceof IOException) {
+                throw new UncheckedIOException((IOException) failure);
+            }
+            throw new IllegalStateException("Encoder stopped before frame " + index, failure);
+        }
+        try {
+            queue.put(pixels);
+        } catch (InterruptedException e) {
+            bufferPool.release(pixels);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted before frame " + index);
+        }
+    }
+
+    /**
+     * Wait for every queued frame to be encoded and finish the file
+     * @throws IOException if the encoder failed or the wait was interrupted
+     */
+    public void finish() throws IOException {
+        end();
+        Exception failure = this.failure;
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure != null) {
+            throw (RuntimeException) failure;
+        }
+        encoder.finish();
+    }
+
+    /**
+     * Drop the frames still queued and stop the encoder thread, the file stays unfinished
+     */
+    public void abort() {
+        isAborted = true;
+        try {
+            end();
+        } catch (InterruptedIOException e) {
+            //Interrupt is restored, the thread still ends once it drained the queue
+        }
+    }
+
+    private void end() throws InterruptedIOException {
+        if (isEnded) {
+            return;
+        }
+        isEnded = true;
+        try {
+            queue.put(END);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the encoder");
+        }
+    }
+}
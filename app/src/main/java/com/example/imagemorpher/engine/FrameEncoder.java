@@ -0,0 +1,33 @@
+package com.example.imagemorpher.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Encodes frames of one size into an animated file, one frame at a time
+ * An encoder keeps nothing of a frame once addFrame returns, so the caller may reuse or
+ * release the buffer right away. Closing releases the output; only a finished file is
+ * complete
+ */
+public interface FrameEncoder extends Closeable {
+
+    /**
+     * Encode the next frame
+     * @param pixels ARGB pixels row-major at the size of the encoder as int[]
+     * @throws IOException if the output cannot be written
+     */
+    void addFrame(int[] pixels) throws IOException;
+
+    /**
+     * Encode the next frame, read a strip of rows at a time so it is never held whole
+     * @param frame frame at the size of the encoder, may be read more than once
+     * @throws IOException if the frame cannot be read or the output cannot be written
+     */
+    void addFrame(TileRenderer.PixelSource frame) throws IOException;
+
+    /**
+     * Write whatever ends the file after the last frame
+     * @throws IOException if the output cannot be written
+     */
+    void finish() throws IOException;
+}
@@ -0,0 +1,496 @@
+package com.example.imagemorpher.engine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Pure Java encoder of looping animated GIFs
+ * Every frame gets a palette of its own, cut from a 5-5-5 histogram of its colors by median
+ * cut, and is written with LZW as soon as it is added. Only the histogram and the palette
+ * tables are kept between frames, never the frame itself; a frame added from a PixelSource is
+ * read twice a strip of rows at a time, once for the histogram and once for the indices
+ */
+public final class GifEncoder implements FrameEncoder {
+
+    /**
+     * Colors of a frame palette
+     */
+    static final int PALETTE_SIZE = 256;
+
+    /**
+     * Bits per palette index, also the LZW minimum code size
+     */
+    private static final int INDEX_BITS = 8;
+
+    /**
+     * Longest LZW code in bits
+     */
+    private static final int MAX_CODE_BITS = 12;
+
+    private static final int CLEAR_CODE = 1 << INDEX_BITS, END_CODE = CLEAR_CODE + 1;
+
+    /**
+     * Open addressing table of the LZW strings, prime and well above the 4096 codes
+     */
+    private static final int HASH_SIZE = 5003;
+
+    /**
+     * Cells of the 5-5-5 color histogram
+     */
+    private static final int NUM_OF_CELLS = 1 << 15;
+
+    /**
+     * Rows read from a PixelSource at once
+     */
+    private static final int STRIP_HEIGHT = 16;
+
+    private final OutputStream out;
+
+    private final int width, height;
+
+    /**
+     * Frame delay in hundredths of a second
+     */
+    private final int delay;
+
+    private boolean isStarted;
+
+    /**
+     * Pixels per histogram cell of the current frame
+     */
+    private final int[] histogram = new int[NUM_OF_CELLS];
+
+    /**
+     * Palette index of every cell that occurs in the current frame
+     */
+    private final byte[] cellIndex = new byte[NUM_OF_CELLS];
+
+    /**
+     * Palette of the current frame as RGB triples
+     */
+    private final byte[] palette = new byte[PALETTE_SIZE * 3];
+
+    /**
+     * Median cut boxes: inclusive cell bounds per channel and the number of pixels inside
+     */
+    private final int[] boxRed0 = new int[PALETTE_SIZE], boxRed1 = new int[PALETTE_SIZE];
+    private final int[] boxGreen0 = new int[PALETTE_SIZE], boxGreen1 = new int[PALETTE_SIZE];
+    private final int[] boxBlue0 = new int[PALETTE_SIZE], boxBlue1 = new int[PALETTE_SIZE];
+    private final int[] boxCount = new int[PALETTE_SIZE];
+
+    /**
+     * Pixels per slice along the side of the box being cut
+     */
+    private final int[] slices = new int[32];
+
+    /**
+     * LZW string table: keys are prefix code and next index, -1 when free
+     */
+    private final int[] hashKeys = new int[HASH_SIZE], hashCodes = new int[HASH_SIZE];
+
+    /**
+     * LZW state
+     */
+    private int nextCode, codeBits, maxCode;
+
+    private boolean isClearing;
+
+    /**
+     * Bits not yet written and their number
+     */
+    private int bitBuffer, numOfBits;
+
+    /**
+     * Current data sub-block, its first byte is the length
+     */
+    private final byte[] block = new byte[256];
+
+    private int blockLength;
+
+    /**
+     * Code of the indices read so far that are not written yet, -1 before the first pixel
+     */
+    private int prefix;
+
+    /**
+     * Rows of a PixelSource frame, created on first use
+     */
+    private int[] strip;
+
+    /**
+     * Create an encoder
+     * @param out receives the file and is closed with the encoder
+     * @param width the width of the frames as integer
+     * @param height the height of the frames as integer
+     * @param frameDelay time every frame is shown in milliseconds as integer
+     */
+    public GifEncoder(OutputStream out, int width, int height, int frameDelay) {
+        if (width <= 0 || height <= 0 || width > 0xFFFF || height > 0xFFFF) {
+            throw new IllegalArgumentException("Frame size " + width + "x" + height);
+        }
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.delay = Math.max(1, Math.min(0xFFFF, (frameDelay + 5) / 10));
+    }
+
+    @Override
+    public void addFrame(int[] pixels) throws IOException {
+        Arrays.fill(histogram, 0);
+        countColors(pixels, width * height);
+        writeFrameHeader();
+        startPixels();
+        writePixels(pixels, width * height);
+        endPixels();
+    }
+
+    @Override
+    public void addFrame(TileRenderer.PixelSource frame) throws IOException {
+        if (strip == null) {
+            strip = new int[width * STRIP_HEIGHT];
+        }
+        Arrays.fill(histogram, 0);
+        for (int y = 0; y < height; y += STRIP_HEIGHT) {
+            int stripHeight = Math.min(STRIP_HEIGHT, height - y);
+            frame.read(0, y, width, stripHeight, strip);
+            countColors(strip, width * stripHeight);
+        }
+        writeFrameHeader();
+        startPixels();
+        for (int y = 0; y < height; y += STRIP_HEIGHT) {
+            int stripHeight = Math.min(STRIP_HEIGHT, height - y);
+            frame.read(0, y, width, stripHeight, strip);
+            writePixels(strip, width * stripHeight);
+        }
+        endPixels();
+    }
+
+    /**
+     * Cut the palette from the histogram and write everything of a frame before its pixels
+     */
+    private void writeFrameHeader() throws IOException {
+        if (!isStarted) {
+            writeHeader();
+            isStarted = true;
+        }
+        buildPalette();
+        //Graphic control: replace the whole frame, no transparency
+        out.write(0x21);
+        out.write(0xF9);
+        out.write(4);
+        out.write(1 << 2);
+        writeShort(delay);
+        out.write(0);
+        out.write(0);
+        //Image descriptor with a local palette of 2^(7+1) colors
+        out.write(0x2C);
+        writeShort(0);
+        writeShort(0);
+        writeShort(width);
+        writeShort(height);
+        out.write(0x80 | (INDEX_BITS - 1));
+        out.write(palette);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (!isStarted) {
+            writeHeader();
+            isStarted = true;
+        }
+        out.write(0x3B);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeHeader() throws IOException {
+        out.write(new byte[]{'G', 'I', 'F', '8', '9', 'a'});
+        writeShort(width);
+        writeShort(height);
+        //No global palette, every frame has its own
+        out.write(0);
+        out.write(0);
+        out.write(0);
+        //Loop forever
+        out.write(0x21);
+        out.write(0xFF);
+        out.write(11);
+        out.write(new byte[]{'N', 'E', 'T', 'S', 'C', 'A', 'P', 'E', '2', '.', '0'});
+        out.write(3);
+        out.write(1);
+        writeShort(0);
+        out.write(0);
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+    }
+
+    private static int cell(int pixel) {
+        return ((pixel >>> 9) & 0x7C00) | ((pixel >>> 6) & 0x03E0) | ((pixel >>> 3) & 0x001F);
+    }
+
+    /**
+     * Widen a 5 bit channel to 8 bits
+     */
+    private static int expand(int channel) {
+        return (channel << 3) | (channel >>> 2);
+    }
+
+    /**
+     * Add pixels of a frame to the histogram
+     * @param pixels pixels as int[]
+     * @param numOfPixels number of pixels to count as integer
+     */
+    private void countColors(int[] pixels, int numOfPixels) {
+        for (int i = 0; i < numOfPixels; i++) {
+            histogram[cell(pixels[i])]++;
+        }
+    }
+
+    /**
+     * Cut the palette of one frame from its histogram and assign every occurring cell its color
+     */
+    private void buildPalette() {
+        boxRed0[0] = boxGreen0[0] = boxBlue0[0] = 0;
+        boxRed1[0] = boxGreen1[0] = boxBlue1[0] = 31;
+        shrink(0);
+        int numOfBoxes = 1;
+        while (numOfBoxes < PALETTE_SIZE) {
+            //Split the box with the most pixels times its longest side
+            int box = -1;
+            long best = 0;
+            for (int i = 0; i < numOfBoxes; i++) {
+                long score = (long) boxCount[i] * longestSide(i);
+                if (score > best) {
+                    best = score;
+                    box = i;
+                }
+            }
+            //Every box is a single cell
+            if (box < 0) {
+                break;
+            }
+            split(box, numOfBoxes++);
+        }
+        Arrays.fill(palette, (byte) 0);
+        for (int i = 0; i < numOfBoxes; i++) {
+            assignColor(i);
+        }
+    }
+
+    private int longestSide(int box) {
+        return Math.max(boxRed1[box] - boxRed0[box], Math.max(boxGreen1[box] - boxGreen0[box], boxBlue1[box] - boxBlue0[box]));
+    }
+
+    /**
+     * Cut a box at the median of its longest side, the upper part becomes a new box
+     */
+    private void split(int box, int newBox) {
+        int redSide = boxRed1[box] - boxRed0[box];
+        int greenSide = boxGreen1[box] - boxGreen0[box];
+        int blueSide = boxBlue1[box] - boxBlue0[box];
+        //Channel 0 red, 1 green, 2 blue
+        int channel = redSide >= greenSide && redSide >= blueSide ? 0 : greenSide >= blueSide ? 1 : 2;
+        int low = channel == 0 ? boxRed0[box] : channel == 1 ? boxGreen0[box] : boxBlue0[box];
+        int high = channel == 0 ? boxRed1[box] : channel == 1 ? boxGreen1[box] : boxBlue1[box];
+        Arrays.fill(slices, 0);
+        for (int r = boxRed0[box]; r <= boxRed1[box]; r++) {
+            for (int g = boxGreen0[box]; g <= boxGreen1[box]; g++) {
+                for (int b = boxBlue0[box]; b <= boxBlue1[box]; b++) {
+                    int count = histogram[(r << 10) | (g << 5) | b];
+                    slices[channel == 0 ? r : channel == 1 ? g : b] += count;
+                }
+            }
+        }
+        //Both ends hold pixels after shrinking, so cutting below the top leaves both parts non-empty
+        int cut = low, sum = slices[low];
+        while (cut < high - 1 && sum * 2 < boxCount[box]) {
+            sum += slices[++cut];
+        }
+        boxRed0[newBox] = boxRed0[box];
+        boxRed1[newBox] = boxRed1[box];
+        boxGreen0[newBox] = boxGreen0[box];
+        boxGreen1[newBox] = boxGreen1[box];
+        boxBlue0[newBox] = boxBlue0[box];
+        boxBlue1[newBox] = boxBlue1[box];
+        if (channel == 0) {
+            boxRed1[box] = cut;
+            boxRed0[newBox] = cut + 1;
+        } else if (channel == 1) {
+            boxGreen1[box] = cut;
+            boxGreen0[newBox] = cut + 1;
+        } else {
+            boxBlue1[box] = cut;
+            boxBlue0[newBox] = cut + 1;
+        }
+        shrink(box);
+        shrink(newBox);
+    }
+
+    /**
+     * Tighten a box around the cells that hold pixels and count them
+     */
+    private void shrink(int box) {
+        int red0 = 31, red1 = 0, green0 = 31, green1 = 0, blue0 = 31, blue1 = 0, total = 0;
+        for (int r = boxRed0[box]; r <= boxRed1[box]; r++) {
+            for (int g = boxGreen0[box]; g <= boxGreen1[box]; g++) {
+                for (int b = boxBlue0[box]; b <= boxBlue1[box]; b++) {
+                    int count = histogram[(r << 10) | (g << 5) | b];
+                    if (count > 0) {
+                        total += count;
+                        red0 = Math.min(red0, r);
+                        red1 = Math.max(red1, r);
+                        green0 = Math.min(green0, g);
+                        green1 = Math.max(green1, g);
+                        blue0 = Math.min(blue0, b);
+                        blue1 = Math.max(blue1, b);
+                    }
+                }
+            }
+        }
+        boxRed0[box] = red0;
+        boxRed1[box] = red1;
+        boxGreen0[box] = green0;
+        boxGreen1[box] = green1;
+        boxBlue0[box] = blue0;
+        boxBlue1[box] = blue1;
+        boxCount[box] = total;
+    }
+
+    /**
+     * Give a box the mean color of its pixels
+     */
+    private void assignColor(int box) {
+        long red = 0, green = 0, blue = 0;
+        for (int r = boxRed0[box]; r <= boxRed1[box]; r++) {
+            for (int g = boxGreen0[box]; g <= boxGreen1[box]; g++) {
+                for (int b = boxBlue0[box]; b <= boxBlue1[box]; b++) {
+                    int cell = (r << 10) | (g << 5) | b;
+                    int count = histogram[cell];
+                    if (count > 0) {
+                        red += (long) expand(r) * count;
+                        green += (long) expand(g) * count;
+                        blue += (long) expand(b) * count;
+                        cellIndex[cell] = (byte) box;
+                    }
+                }
+            }
+        }
+        int count = boxCount[box];
+        palette[box * 3] = (byte) ((red + count / 2) / count);
+        palette[box * 3 + 1] = (byte) ((green + count / 2) / count);
+        palette[box * 3 + 2] = (byte) ((blue + count / 2) / count);
+    }
+
+    /**
+     * Start the LZW data of a frame
+     */
+    private void startPixels() throws IOException {
+        out.write(INDEX_BITS);
+        Arrays.fill(hashKeys, -1);
+        nextCode = END_CODE + 1;
+        codeBits = INDEX_BITS + 1;
+        maxCode = (1 << codeBits) - 1;
+        isClearing = false;
+        bitBuffer = 0;
+        numOfBits = 0;
+        blockLength = 0;
+        writeCode(CLEAR_CODE);
+        prefix = -1;
+    }
+
+    /**
+     * LZW-compress the palette indices of the next pixels of a frame into data sub-blocks
+     * @param pixels pixels as int[]
+     * @param numOfPixels number of pixels to write as integer
+     */
+    private void writePixels(int[] pixels, int numOfPixels) throws IOException {
+        int prefix = this.prefix;
+        int start = 0;
+        if (prefix < 0) {
+            prefix = cellIndex[cell(pixels[0])] & 0xFF;
+            start = 1;
+        }
+        for (int i = start; i < numOfPixels; i++) {
+            int index = cellIndex[cell(pixels[i])] & 0xFF;
+            int key = (index << MAX_CODE_BITS) | prefix;
+            int slot = (index << 4 ^ prefix) % HASH_SIZE;
+            while (hashKeys[slot] >= 0 && hashKeys[slot] != key) {
+                slot = slot == 0 ? HASH_SIZE - 1 : slot - 1;
+            }
+            if (hashKeys[slot] == key) {
+                prefix = hashCodes[slot];
+                continue;
+            }
+            writeCode(prefix);
+            if (nextCode < 1 << MAX_CODE_BITS) {
+                hashKeys[slot] = key;
+                hashCodes[slot] = nextCode++;
+            } else {
+                //Table is full, start over
+                Arrays.fill(hashKeys, -1);
+                nextCode = END_CODE + 1;
+                isClearing = true;
+                writeCode(CLEAR_CODE);
+            }
+            prefix = index;
+        }
+        this.prefix = prefix;
+    }
+
+    /**
+     * Write the last code of a frame and end its data
+     */
+    private void endPixels() throws IOException {
+        writeCode(prefix);
+        writeCode(END_CODE);
+        if (numOfBits > 0) {
+            writeByte(bitBuffer & 0xFF);
+        }
+        flushBlock();
+        out.write(0);
+    }
+
+    /**
+     * Append one code, widening the codes once the decoder's table outgrows them
+     */
+    private void writeCode(int code) throws IOException {
+        bitBuffer |= code << numOfBits;
+        numOfBits += codeBits;
+        while (numOfBits >= 8) {
+            writeByte(bitBuffer & 0xFF);
+            bitBuffer >>>= 8;
+            numOfBits -= 8;
+        }
+        if (isClearing) {
+            codeBits = INDEX_BITS + 1;
+            maxCode = (1 << codeBits) - 1;
+            isClearing = false;
+        } else if (nextCode > maxCode) {
+            codeBits++;
+            maxCode = codeBits == MAX_CODE_BITS ? 1 << MAX_CODE_BITS : (1 << codeBits) - 1;
+        }
+    }
+
+    private void writeByte(int value) throws IOException {
+        block[++blockLength] = (byte) value;
+        if (blockLength == 255) {
+            flushBlock();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (blockLength > 0) {
+            block[0] = (byte) blockLength;
+            out.write(block, 0, blockLength + 1);
+            blockLength = 0;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.example.imagemorpher.engine;
+
+import java.util.Arrays;
+
+/**
+ * Warp of one source image that keeps the weighted displacement sums of every output pixel
+ * between calls
+ * When only a few line pairs changed since the last call, the old contribution of each is
+ * subtracted and the new one added: two line evaluations per pixel and changed pair instead
+ * of one per pixel and line. Every pixel is still resampled, since no line weight ever
+ * reaches zero
+ * The kept sums are double: right next to a line its weight is about 1 / A^2, and
+ * subtracting that from a float sum would leave more rounding behind than the weights of
+ * all the other lines. The rest of the rounding is cleared by a rebuild every
+ * RESYNC_INTERVAL incremental calls and whenever most of the lines changed; a rebuild
+ * samples from float sums in line order, exactly like WarpEngine
+ */
+public class IncrementalWarp {
+
+    /**
+     * Incremental calls between two rebuilds
+     */
+    static final int RESYNC_INTERVAL = 32;
+
+    /**
+     * Width and height of the image
+     */
+    private final int width, height;
+
+    private final int[] sourcePixels;
+
+    private final Sampler sampler;
+
+    /**
+     * Exact engine that evaluates the lines
+     */
+    private final WarpEngine engine;
+
+    private final float p;
+
+    /**
+     * Per pixel sums over every line, row-major like the pixels
+     */
+    private final double[] sumOfWeights, totalWeightedDeltaX, totalWeightedDeltaY;
+
+    /**
+     * Row scratch for the old and the new contribution of a line
+     */
+    private final float[] oldWeights, oldDeltaX, oldDeltaY, newWeights, newDeltaX, newDeltaY;
+
+    /**
+     * Row sums of a rebuild in float
+     */
+    private final float[] rowWeights, rowDeltaX, rowDeltaY;
+
+    /**
+     * Lines the sums were computed for, null while the sums are not valid
+     */
+    private LineTable sourceLines, destinationLines;
+
+    /**
+     * Incremental calls since the last rebuild
+     */
+    private int numOfUpdates;
+
+    /**
+     * Create an incremental warp
+     * @param sourcePixels source image pixels as int[]
+     * @param width the width of the image as integer
+     * @param height the height of the image as integer
+     * @param weightFunction line weight
+     * @param sampler resampling of the reverse mapping
+     */
+    public IncrementalWarp(int[] sourcePixels, int width, int height, WeightFunction weightFunction, Sampler sampler) {
+        this.sourcePixels = sourcePixels;
+        this.width = width;
+        this.height = height;
+        this.sampler = sampler;
+        this.engine = new WarpEngine(width, height, weightFunction, sampler);
+        this.p = weightFunction.p;
+        this.sumOfWeights = new double[width * height];
+        this.totalWeightedDeltaX = new double[width * height];
+        this.totalWeightedDeltaY = new double[width * height];
+        this.oldWeights = new float[width];
+        this.oldDeltaX = new float[width];
+        this.oldDeltaY = new float[width];
+        this.newWeights = new float[width];
+        this.newDeltaX = new float[width];
+        this.newDeltaY = new float[width];
+        this.rowWeights = new float[width];
+        this.rowDeltaX = new float[width];
+        this.rowDeltaY = new float[width];
+    }
+
+    /**
+     * Warp the whole image, reusing the sums of the previous call for unchanged line pairs
+     * The tables are kept for the next call and must not be changed afterwards
+     *
+     * @param sourceLines control lines of the source image
+     * @param destinationLines control lines of the output image
+     * @param destinationPixels output pixels as int[]
+     * @param control cancellation checked before every row, may be null
+     */
+    public void warp(LineTable sourceLines, LineTable destinationLines, int[] destinationPixels, RenderControl control) {
+        LineTable previousSourceLines = this.sourceLines;
+        LineTable previousDestinationLines = this.destinationLines;
+        //Sums of a cancelled call are half updated, so they only count as valid once the call finishes
+        this.sourceLines = null;
+        this.destinationLines = null;
+
+        int[] changed = previousSourceLines != null && previousSourceLines.size() == sourceLines.size()
+                ? changedLines(previousSourceLines, previousDestinationLines, sourceLines, destinationLines) : null;
+        if (changed == null || changed.length * 2 > sourceLines.size() || numOfUpdates >= RESYNC_INTERVAL) {
+            rebuild(sourceLines, destinationLines, destinationPixels, control);
+            numOfUpdates = 0;
+            this.sourceLines = sourceLines;
+            this.destinationLines = destinationLines;
+        } else {
+            if (changed.length > 0) {
+                update(previousSourceLines, previousDestinationLines, sourceLines, destinationLines, changed, control);
+                numOfUpdates++;
+            }
+            this.sourceLines = sourceLines;
+            this.destinationLines = destinationLines;
+            resample(destinationPixels, control);
+        }
+    }
+
+    /**
+     * Compute the sums of every pixel over every line and sample the image
+     */
+    private void rebuild(LineTable sourceLines, LineTable destinationLines, int[] destinationPixels,
+                         RenderControl control) {
+        float[] lengthPow = destinationLines.lengthPow(p);
+        for (int y = 0; y < height; y++) {
+            checkCancelled(control);
+            int rowOffset = y * width;
+            clear(rowWeights, rowDeltaX, rowDeltaY);
+            Arrays.fill(sumOfWeights, rowOffset, rowOffset + width, 0);
+            Arrays.fill(totalWeightedDeltaX, rowOffset, rowOffset + width, 0);
+            Arrays.fill(totalWeightedDeltaY, rowOffset, rowOffset + width, 0);
+            for (int i = 0; i < destinationLines.size(); i++) {
+                //One line at a time, so the float row sums add up in the same order as in WarpEngine
+                clear(newWeights, newDeltaX, newDeltaY);
+                engine.accumulateLine(sourceLines, destinationLines, lengthPow[i], i, 0, 0, width, y,
+                        newWeights, newDeltaX, newDeltaY);
+                for (int x = 0; x < width; x++) {
+                    rowWeights[x] += newWeights[x];
+                    rowDeltaX[x] += newDeltaX[x];
+                    rowDeltaY[x] += newDeltaY[x];
+                    sumOfWeights[rowOffset + x] += newWeights[x];
+                    totalWeightedDeltaX[rowOffset + x] += newDeltaX[x];
+                    totalWeightedDeltaY[rowOffset + x] += newDeltaY[x];
+                }
+            }
+            for (int x = 0; x < width; x++) {
+                destinationPixels[rowOffset + x] = sample(x, y, rowDeltaX[x] / rowWeights[x], rowDeltaY[x] / rowWeights[x]);
+            }
+        }
+    }
+
+    /**
+     * Swap the contribution of the changed lines in the sums
+     */
+    private void update(LineTable oldSourceLines, LineTable oldDestinationLines,
+                        LineTable sourceLines, LineTable destinationLines, int[] changed, RenderControl control) {
+        float[] oldLengthPow = oldDestinationLines.lengthPow(p);
+        float[] lengthPow = destinationLines.lengthPow(p);
+        for (int y = 0; y < height; y++) {
+            checkCancelled(control);
+            clear(oldWeights, oldDeltaX, oldDeltaY);
+            clear(newWeights, newDeltaX, newDeltaY);
+            for (int i : changed) {
+                engine.accumulateLine(oldSourceLines, oldDestinationLines, oldLengthPow[i], i, 0, 0, width, y,
+                        oldWeights, oldDeltaX, oldDeltaY);
+                engine.accumulateLine(sourceLines, destinationLines, lengthPow[i], i, 0, 0, width, y,
+                        newWeights, newDeltaX, newDeltaY);
+            }
+            int rowOffset = y * width;
+            for (int x = 0; x < width; x++) {
+                sumOfWeights[rowOffset + x] += (double) newWeights[x] - oldWeights[x];
+                totalWeightedDeltaX[rowOffset + x] += (double) newDeltaX[x] - oldDeltaX[x];
+                totalWeightedDeltaY[rowOffset + x] += (double) newDeltaY[x] - oldDeltaY[x];
+            }
+        }
+    }
+
+    /**
+     * Sample the source image at the positions the sums give
+     */
+    private void resample(int[] destinationPixels, RenderControl control) {
+        for (int y = 0; y < height; y++) {
+            checkCancelled(control);
+            int rowOffset = y * width;
+            for (int x = 0; x < width; x++) {
+                int index = rowOffset + x;
+                destinationPixels[index] = sample(x, y, (float) (totalWeightedDeltaX[index] / sumOfWeights[index]),
+                        (float) (totalWeightedDeltaY[index] / sumOfWeights[index]));
+            }
+        }
+    }
+
+    /**
+     * Sample the source image at a displaced output pixel
+     * @param x output x as integer
+     * @param y output y as integer
+     * @param deltaX x displacement as float
+     * @param deltaY y displacement as float
+     * @return pixel as integer
+     */
+    private int sample(int x, int y, float deltaX, float deltaY) {
+        long position = WarpEngine.pack(WarpEngine.clamp(x + deltaX, width), WarpEngine.clamp(y + deltaY, height));
+        return sampler.sample(sourcePixels, width, height, (int) (position >> 32), (int) position);
+    }
+
+    /**
+     * Find the line pairs that differ between two sets of lines of the same size
+     * @return indices of the changed pairs as int[]
+     */
+    static int[] changedLines(LineTable oldSourceLines, LineTable oldDestinationLines,
+                              LineTable sourceLines, LineTable destinationLines) {
+        int[] changed = new int[sourceLines.size()];
+        int count = 0;
+        for (int i = 0; i < sourceLines.size(); i++) {
+            if (!isSameLine(oldSourceLines, sourceLines, i) || !isSameLine(oldDestinationLines, destinationLines, i)) {
+                changed[count++] = i;
+            }
+        }
+        return Arrays.copyOf(changed, count);
+    }
+
+    private static boolean isSameLine(LineTable a, LineTable b, int i) {
+        return a.startX[i] == b.startX[i] && a.startY[i] == b.startY[i]
+                && a.endX[i] == b.endX[i] && a.endY[i] == b.endY[i];
+    }
+
+    private static void clear(float[] weights, float[] deltaX, float[] deltaY) {
+        Arrays.fill(weights, 0);
+        Arrays.fill(deltaX, 0);
+        Arrays.fill(deltaY, 0);
+    }
+
+    private static void checkCancelled(RenderControl control) {
+        if (control != null) {
+            control.checkCancelled();
+        }
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+}
@@ -0,0 +1,142 @@
+package com.example.imagemorpher.engine;
+
+import java.util.Arrays;
+
+import static java.lang.Math.sqrt;
+
+/**
+ * Spatial index of the lines that matter in each cell of a frame
+ * The frame is cut into CELL_SIZE squares; a line is left out of a cell when its weight
+ * anywhere in the cell stays below tolerance times the weight the strongest line is
+ * guaranteed to have there. The warp then only evaluates the lines of the cell a pixel
+ * falls in, so its cost follows the local line density instead of the line count
+ *
+ * |d| is the distance from the pixel to the segment, both for the perpendicular and the
+ * endpoint case, and bounds for a whole cell come from the distance to the cell center
+ * plus or minus half the cell diagonal. The bounds hold for B > 0; with other B nothing
+ * is culled
+ */
+final class LineGrid {
+
+    /**
+     * Width and height of a cell in pixels
+     */
+    static final int CELL_SIZE = 16;
+
+    /**
+     * Number of cells across and down
+     */
+    final int columns, rows;
+
+    /**
+     * Lines of cell c are cellLines[cellStart[c]] to cellLines[cellStart[c + 1] - 1]
+     */
+    final int[] cellStart, cellLines;
+
+    /**
+     * Parameters the grid was built for
+     */
+    private final int width, height;
+
+    private final WeightFunction weightFunction;
+
+    private final float tolerance;
+
+    private LineGrid(int width, int height, WeightFunction weightFunction, float tolerance,
+                     int columns, int rows, int[] cellStart, int[] cellLines) {
+        this.width = width;
+        this.height = height;
+        this.weightFunction = weightFunction;
+        this.tolerance = tolerance;
+        this.columns = columns;
+        this.rows = rows;
+        this.cellStart = cellStart;
+        this.cellLines = cellLines;
+    }
+
+    /**
+     * Build the grid of a frame
+     * @param lines control lines of the frame
+     * @param lengthPow length^P of the lines as float[]
+     * @param width the width of the frame as integer
+     * @param height the height of the frame as integer
+     * @param weightFunction line weight
+     * @param tolerance relative weight below which a line is skipped, in [0, 1) as float
+     * @return the grid
+     */
+    static LineGrid build(LineTable lines, float[] lengthPow, int width, int height,
+                          WeightFunction weightFunction, float tolerance) {
+        int numOfLines = lines.size();
+        int columns = (width + CELL_SIZE - 1) / CELL_SIZE;
+        int rows = (height + CELL_SIZE - 1) / CELL_SIZE;
+        int[] cellStart = new int[columns * rows + 1];
+        int[] cellLines = new int[columns * rows * Math.min(numOfLines, 4)];
+        int count = 0;
+        boolean isCullingSafe = weightFunction.b > 0;
+        float halfDiagonal = (float) ((CELL_SIZE - 1) * sqrt(0.5));
+        float[] upperBounds = new float[numOfLines];
+
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                float centerX = column * CELL_SIZE + (CELL_SIZE - 1) / 2f;
+                float centerY = row * CELL_SIZE + (CELL_SIZE - 1) / 2f;
+
+                //Weight bounds over the cell: |A + d| is at least |d| - A and at most |d| + A
+                float strongest = 0;
+                for (int i = 0; i < numOfLines; i++) {
+                    float distance = distanceToSegment(lines, i, centerX, centerY);
+                    float nearest = distance - halfDiagonal - 2 * weightFunction.a;
+                    upperBounds[i] = nearest > -weightFunction.a
+                            ? Math.abs(weightFunction.weight(lengthPow[i], nearest)) : Float.POSITIVE_INFINITY;
+                    strongest = Math.max(strongest, Math.abs(weightFunction.weight(lengthPow[i], distance + halfDiagonal)));
+                }
+
+                float cutoff = isCullingSafe ? tolerance * strongest : 0;
+                int cell = row * columns + column;
+                cellStart[cell] = count;
+                for (int i = 0; i < numOfLines; i++) {
+                    if (!(upperBounds[i] < cutoff)) {
+                        if (count == cellLines.length) {
+                            cellLines = Arrays.copyOf(cellLines, count * 2 + numOfLines);
+                        }
+                        cellLines[count++] = i;
+                    }
+                }
+            }
+        }
+        cellStart[columns * rows] = count;
+        return new LineGrid(width, height, weightFunction, tolerance, columns, rows, cellStart, cellLines);
+    }
+
+    /**
+     * Check if the grid was built for the given parameters
+     * @param width the width of the frame as integer
+     * @param height the height of the frame as integer
+     * @param weightFunction line weight
+     * @param tolerance relative weight below which a line is skipped as float
+     * @return true if it was
+     */
+    boolean matches(int width, int height, WeightFunction weightFunction, float tolerance) {
+        return this.width == width && this.height == height
+                && this.weightFunction == weightFunction && Float.compare(this.tolerance, tolerance) == 0;
+    }
+
+    /**
+     * Distance from a point to a line segment
+     * @param lines control lines
+     * @param index line index as integer
+     * @param x coordinate as float
+     * @param y coordinate as float
+     * @return distance as float
+     */
+    static float distanceToSegment(LineTable lines, int index, float x, float y) {
+        float toStartX = x - lines.startX[index];
+        float toStartY = y - lines.startY[index];
+        float t = (lines.vectorX[index] * toStartX + lines.vectorY[index] * toStartY)
+                * lines.inverseLength[index] * lines.inverseLength[index];
+        t = Math.max(0, Math.min(1, t));
+        float dx = toStartX - t * lines.vectorX[index];
+        float dy = toStartY - t * lines.vectorY[index];
+        return (float) sqrt(dx * dx + dy * dy);
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.imagemorpher.engine;
+
+import static java.lang.Math.sqrt;
+
+/**
+ * Control lines of a single frame stored as primitive columns
+ * Mirrors the math of Line without depending on android.graphics, so the warp
+ * engine can run on a plain JVM
+ * The vector, unit normal and length of every line are computed once in set, so
+ * the per-pixel loop never allocates or takes a square root for them
+ */
+public class LineTable {
+
+    /**
+     * Start and end coordinates of every line
+     */
+    final float[] startX, startY, endX, endY;
+
+    /**
+     * Line vector (end - start)
+     */
+    final float[] vectorX, vectorY;
+
+    /**
+     * Unit normal vector
+     */
+    final float[] normalX, normalY;
+
+    /**
+     * Length and 1 / length
+     */
+    final float[] length, inverseLength;
+
+    /**
+     * Length to the power of lengthPowExponent, filled on first use by lengthPow
+     */
+    private float[] lengthPow;
+
+    private float lengthPowExponent;
+
+    /**
+     * Culling grid of the last warp that asked for one
+     */
+    private LineGrid grid;
+
+    public LineTable(int size) {
+        this.startX = new float[size];
+        this.startY = new float[size];
+        this.endX = new float[size];
+        this.endY = new float[size];
+        this.vectorX = new float[size];
+        this.vectorY = new float[size];
+        this.normalX = new float[size];
+        this.normalY = new float[size];
+        this.length = new float[size];
+        this.inverseLength = new float[size];
+    }
+
+    /**
+     * Set the coordinates of a line
+     * @param index line index as integer
+     * @param startX x coordinate of the start point as float
+     * @param startY y coordinate of the start point as float
+     * @param endX x coordinate of the end point as float
+     * @param endY y coordinate of the end point as float
+     */
+    public void set(int index, float startX, float startY, float endX, float endY) {
+        this.startX[index] = startX;
+        this.startY[index] = startY;
+        this.endX[index] = endX;
+        this.endY[index] = endY;
+
+        //Precompute geometry
+        float vx = endX - startX;
+        float vy = endY - startY;
+        float len = (float)sqrt(vx * vx + vy * vy);
+        this.vectorX[index] = vx;
+        this.vectorY[index] = vy;
+        this.length[index] = len;
+        this.inverseLength[index] = 1 / len;
+        this.normalX[index] = -vy / len;
+        this.normalY[index] = vx / len;
+        this.lengthPow = null;
+        this.grid = null;
+    }
+
+    /**
+     * Interpolate the lines of every frame between a source and a destination table
+     * Frame 0 holds the source lines and frame numOfFrames + 1 the destination lines
+     * @param source source lines
+     * @param destination destination lines, same size as source
+     * @param numOfFrames number of middle frames as integer
+     * @return lines of every frame
+     */
+    public static LineTable[] interpolate(LineTable source, LineTable destination, int numOfFrames) {
+        LineTable[] frames = new LineTable[numOfFrames + 2];
+        for (int i = 0; i < numOfFrames + 2; i++) {
+            frames[i] = new LineTable(source.size());
+        }
+
+        for (int j = 0; j < source.size(); j++) {
+            //Calculate intermediate stepper for x and y
+            float startXStepper = (destination.startX[j] - source.startX[j]) / (numOfFrames + 1);
+            float startYStepper = (destination.startY[j] - source.startY[j]) / (numOfFrames + 1);
+            float endXStepper = (destination.endX[j] - source.endX[j]) / (numOfFrames + 1);
+            float endYStepper = (destination.endY[j] - source.endY[j]) / (numOfFrames + 1);
+
+            for (int i = 0; i < numOfFrames + 2; i++) {
+                frames[i].set(j,
+                        source.startX[j] + startXStepper * i, source.startY[j] + startYStepper * i,
+                        source.endX[j] + endXStepper * i, source.endY[j] + endYStepper * i);
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * Copy the lines with every coordinate scaled
+     * @param scaleX horizontal factor as float
+     * @param scaleY vertical factor as float
+     * @return scaled lines
+     */
+    public LineTable scaled(float scaleX, float scaleY) {
+        LineTable scaled = new LineTable(size());
+        for (int i = 0; i < size(); i++) {
+            scaled.set(i, startX[i] * scaleX, startY[i] * scaleY, endX[i] * scaleX, endY[i] * scaleY);
+        }
+        return scaled;
+    }
+
+    /**
+     * Get length^p of every line, computed once per exponent and shared by every worker
+     * @param p length exponent as float
+     * @return length^p per line as float[]
+     */
+    synchronized float[] lengthPow(float p) {
+        if (lengthPow == null || Float.compare(lengthPowExponent, p) != 0) {
+            float[] values = new float[size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = p == 0 ? 1 : (float) Math.pow(length[i], p);
+            }
+            lengthPow = values;
+            lengthPowExponent = p;
+        }
+        return lengthPow;
+    }
+
+    /**
+     * Get the culling grid of these lines, built once per set of parameters and shared by every worker
+     * @param width the width of the frame as integer
+     * @param height the height of the frame as integer
+     * @param weightFunction line weight
+     * @param tolerance relative weight below which a line is skipped as float
+     * @return the grid
+     */
+    synchronized LineGrid grid(int width, int height, WeightFunction weightFunction, float tolerance) {
+        if (grid == null || !grid.matches(width, height, weightFunction, tolerance)) {
+            grid = LineGrid.build(this, lengthPow(weightFunction.p), width, height, weightFunction, tolerance);
+        }
+        return grid;
+    }
+
+    /**
+     * Get the number of lines
+     * @return number of lines as integer
+     */
+    public int size() {
+        return startX.length;
+    }
+
+    /**
+     * Get the length of a line
+     * @param index line index as integer
+     * @return length as float
+     */
+    public float length(int index) {
+        return length[index];
+    }
+
+    /**
+     * Return the distance from a point to a line, same as Line.distanceTo
+     * @param index line index as integer
+     * @param x coordinate as float
+     * @param y coordinate as float
+     * @return distance as float
+     */
+    public float distanceTo(int index, float x, float y) {
+        return normalX[index] * (startX[index] - x) + normalY[index] * (startY[index] - y);
+    }
+
+    /**
+     * Return the projection length of a point on a line, same as Line.projectionLengthOn
+     * @param index line index as integer
+     * @param x coordinate of point as float
+     * @param y coordinate of point as float
+     * @return projection length as float
+     */
+    public float projectionLengthOn(int index, float x, float y) {
+        return (vectorX[index] * (x - startX[index]) + vectorY[index] * (y - startY[index])) * inverseLength[index];
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.imagemorpher.engine;
+
+/**
+ * How large a morph may get before it runs out of heap
+ * Every frame of a morph is kept as a bitmap, so the frames alone take
+ * 4 * width * height bytes each; past the budget the frames are rendered smaller
+ * instead of failing with an OutOfMemoryError
+ */
+public final class MemoryBudget {
+
+    /**
+     * Share of the free heap the frames of a morph may fill
+     */
+    static final float HEAP_SHARE = 0.75f;
+
+    private MemoryBudget() {}
+
+    /**
+     * Get the bytes the frames of a morph may take right now
+     * @param reusableBytes memory held by pools that the frames will reuse as long
+     * @return budget in bytes as long
+     */
+    public static long frameBudget(long reusableBytes) {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        return (long) ((runtime.maxMemory() - used) * HEAP_SHARE) + reusableBytes;
+    }
+
+    /**
+     * Get the largest frame size that fits a budget, with the aspect ratio kept
+     * @param width the width of a frame as integer
+     * @param height the height of a frame as integer
+     * @param numOfImages number of full frames kept at once as integer
+     * @param budget bytes the frames may take as long
+     * @return width and height as int[], the given size if the frames fit as they are
+     */
+    public static int[] fitSize(int width, int height, int numOfImages, long budget) {
+        long bytes = (long) width * height * numOfImages * Integer.BYTES;
+        if (bytes <= budget) {
+            return new int[]{width, height};
+        }
+        //Both sides shrink by the same factor, rounding down keeps the frames within the budget
+        double scale = Math.sqrt((double) Math.max(budget, 0) / bytes);
+        return new int[]{Math.max(1, (int) (width * scale)), Math.max(1, (int) (height * scale))};
+    }
+}
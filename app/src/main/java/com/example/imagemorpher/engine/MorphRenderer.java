@@ -0,0 +1,234 @@
+package com.example.imagemorpher.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming morph of two pixel buffers
+ * Every frame is warped and dissolved in one fused pass and handed to a sink in order,
+ * as soon as it and all frames before it are done
+ * With a DisplacementCache, the mapped positions of every finished frame are kept, and a
+ * frame whose lines were rendered before is only gathered from its field. Morphs whose
+ * fields would not fit in the cache together bypass it
+ */
+public class MorphRenderer {
+
+    /**
+     * Warp engine of the frame size
+     */
+    private final WarpEngine engine;
+
+    /**
+     * Lines of every frame, source first and destination last
+     */
+    private final LineTable[] frameLines;
+
+    /**
+     * Kept displacement fields, may be null
+     */
+    private final DisplacementCache cache;
+
+    public MorphRenderer(WarpEngine engine, LineTable[] frameLines) {
+        this(engine, frameLines, null);
+    }
+
+    /**
+     * Create a renderer that reuses displacement fields
+     * @param engine warp engine of the frame size
+     * @param frameLines lines of every frame, source first and destination last
+     * @param cache kept displacement fields, may be null
+     */
+    public MorphRenderer(WarpEngine engine, LineTable[] frameLines, DisplacementCache cache) {
+        this.engine = engine;
+        this.frameLines = frameLines;
+        this.cache = cache;
+    }
+
+    /**
+     * Get the number of frames including source and destination
+     * @return number of frames as integer
+     */
+    public int getTotalNumOfFrames() {
+        return frameLines.length;
+    }
+
+    /**
+     * Create the kernel that renders rows of one frame
+     * @param frameIndex frame index as integer
+     * @param sourcePixels source image pixels as int[]
+     * @param destinationPixels destination image pixels as int[]
+     * @return the kernel
+     */
+    public WarpScheduler.BandKernel frameKernel(int frameIndex, int[] sourcePixels, int[] destinationPixels) {
+        int totalNumOfFrames = getTotalNumOfFrames();
+        int forwardWeight = CrossDissolve.forwardWeight(frameIndex, totalNumOfFrames);
+        int reverseWeight = CrossDissolve.reverseWeight(frameIndex, totalNumOfFrames);
+        LineTable sourceLines = frameLines[0];
+        LineTable destinationLines = frameLines[totalNumOfFrames - 1];
+        LineTable lines = frameLines[frameIndex];
+        int width = engine.getWidth();
+        return (output, startY, endY) -> engine.warpAndBlend(sourcePixels, sourceLines, destinationPixels, destinationLines,
+                output, lines, forwardWeight, reverseWeight, 0, startY, width, endY);
+    }
+
+    /**
+     * Create the kernel that renders rows of one frame from its displacement field
+     * A cached field is gathered from; otherwise the kernel maps its rows into field first
+     * @param frameIndex frame index as integer
+     * @param field displacement field of the frame, cached or being filled
+     * @param isCached true if the field is complete
+     * @param sourcePixels source image pixels as int[]
+     * @param destinationPixels destination image pixels as int[]
+     * @return the kernel
+     */
+    private WarpScheduler.BandKernel fieldKernel(int frameIndex, DisplacementField field, boolean isCached,
+                                                 int[] sourcePixels, int[] destinationPixels) {
+        int totalNumOfFrames = getTotalNumOfFrames();
+        int forwardWeight = CrossDissolve.forwardWeight(frameIndex, totalNumOfFrames);
+        int reverseWeight = CrossDissolve.reverseWeight(frameIndex, totalNumOfFrames);
+        LineTable sourceLines = frameLines[0];
+        LineTable destinationLines = frameLines[totalNumOfFrames - 1];
+        LineTable lines = frameLines[frameIndex];
+        int width = engine.getWidth();
+        return (output, startY, endY) -> {
+            if (!isCached) {
+                if (field.forwardPositions != null) {
+                    engine.map(sourceLines, lines, field.forwardPositions.array(), 0, startY, width, endY);
+                }
+                if (field.reversePositions != null) {
+                    engine.map(destinationLines, lines, field.reversePositions.array(), 0, startY, width, endY);
+                }
+            }
+            engine.gatherAndBlend(sourcePixels, field.forwardPositions, destinationPixels, field.reversePositions,
+                    output, forwardWeight, reverseWeight, 0, startY, width, endY);
+        };
+    }
+
+    /**
+     * Render every frame
+     * @param sourcePixels source image pixels as int[]
+     * @param destinationPixels destination image pixels as int[]
+     * @param scheduler worker pool, or null to render on the calling thread
+     * @param control cancellation and progress, may be null
+     * @param sink receives the frames in order on the calling thread
+     * @throws java.util.concurrent.CancellationException if the control is cancelled
+     */
+    public void render(int[] sourcePixels, int[] destinationPixels, WarpScheduler scheduler, RenderControl control,
+                       WarpScheduler.FrameSink sink) {
+        //Fields are held for every frame until the last one is done, large frames are warped directly
+        if (cache != null && cache.canHold(engine.getWidth(), engine.getHeight(), getTotalNumOfFrames())) {
+            renderWithCache(sourcePixels, destinationPixels, scheduler, control, sink);
+            return;
+        }
+        List<WarpScheduler.BandKernel> kernels = new ArrayList<>(getTotalNumOfFrames());
+        for (int i = 0; i < getTotalNumOfFrames(); i++) {
+            kernels.add(frameKernel(i, sourcePixels, destinationPixels));
+        }
+        if (scheduler != null) {
+            scheduler.runAll(engine.getWidth(), engine.getHeight(), kernels, control, sink);
+        } else {
+            WarpScheduler.runSequentially(engine.getWidth(), engine.getHeight(), kernels, control, sink);
+        }
+    }
+
+    /**
+     * Render every frame from cached displacement fields, mapping the missing ones
+     * Missing fields are first looked for in the store file of the morph. When some still
+     * have to be mapped, every field is written to a new store file as its frame reaches the
+     * sink; the file is best effort and a failing write only drops it
+     */
+    private void renderWithCache(int[] sourcePixels, int[] destinationPixels, WarpScheduler scheduler,
+                                 RenderControl control, WarpScheduler.FrameSink sink) {
+        int totalNumOfFrames = getTotalNumOfFrames();
+        DisplacementCache.Key key = DisplacementCache.Key.of(engine, frameLines[0], frameLines[totalNumOfFrames - 1],
+                totalNumOfFrames, 0);
+        DisplacementCache.Key[] keys = new DisplacementCache.Key[totalNumOfFrames];
+        DisplacementField[] fields = new DisplacementField[totalNumOfFrames];
+        boolean isComplete = true;
+        for (int i = 0; i < totalNumOfFrames; i++) {
+            keys[i] = key.frame(i);
+            fields[i] = cache.get(keys[i]);
+            isComplete &= fields[i] != null;
+        }
+
+        File storeFile = cache.storeFile(key);
+        if (!isComplete && storeFile != null) {
+            DisplacementField[] stored = readStore(storeFile, key);
+            if (stored != null) {
+                //Marks the file as recently used for trimStore
+                storeFile.setLastModified(System.currentTimeMillis());
+                //Mapped fields are not cached, they would be charged against the heap budget
+                for (int i = 0; i < totalNumOfFrames; i++) {
+                    if (fields[i] == null) {
+                        fields[i] = stored[i];
+                    }
+                }
+                isComplete = true;
+            }
+        }
+
+        List<WarpScheduler.BandKernel> kernels = new ArrayList<>(totalNumOfFrames);
+        boolean[] isNew = new boolean[totalNumOfFrames];
+        for (int i = 0; i < totalNumOfFrames; i++) {
+            if (fields[i] == null) {
+                //The first frame shows the source and the last the destination unwarped
+                fields[i] = new DisplacementField(engine.getWidth(), engine.getHeight(), i != 0, i != totalNumOfFrames - 1);
+                isNew[i] = true;
+            }
+            kernels.add(fieldKernel(i, fields[i], !isNew[i], sourcePixels, destinationPixels));
+        }
+
+        DisplacementFile.Writer[] writer = {isComplete || storeFile == null ? null : openStore(storeFile, key)};
+        //A field is only complete once its frame is, a cancelled frame never reaches the sink
+        WarpScheduler.FrameSink cachingSink = (index, pixels) -> {
+            if (isNew[index]) {
+                cache.put(keys[index], fields[index]);
+            }
+            if (writer[0] != null) {
+                try {
+                    writer[0].write(fields[index]);
+                    if (index == totalNumOfFrames - 1) {
+                        writer[0].commit();
+                        writer[0] = null;
+                        cache.trimStore();
+                    }
+                } catch (IOException e) {
+                    writer[0].abort();
+                    writer[0] = null;
+                }
+            }
+            sink.onFrame(index, pixels);
+        };
+        try {
+            if (scheduler != null) {
+                scheduler.runAll(engine.getWidth(), engine.getHeight(), kernels, control, cachingSink);
+            } else {
+                WarpScheduler.runSequentially(engine.getWidth(), engine.getHeight(), kernels, control, cachingSink);
+            }
+        } finally {
+            if (writer[0] != null) {
+                writer[0].abort();
+            }
+        }
+    }
+
+    private static DisplacementField[] readStore(File storeFile, DisplacementCache.Key key) {
+        try {
+            return DisplacementFile.read(storeFile, key);
+        } catch (IOException e) {
+            //Mapped again from the lines
+            return null;
+        }
+    }
+
+    private static DisplacementFile.Writer openStore(File storeFile, DisplacementCache.Key key) {
+        try {
+            return new DisplacementFile.Writer(storeFile, key);
+        } catch (IOException e) {
+            //Kept in memory only
+            return null;
+        }
+    }
+}
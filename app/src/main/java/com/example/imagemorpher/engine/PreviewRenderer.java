@@ -0,0 +1,244 @@
+package com.example.imagemorpher.engine;
+
+import java.util.Collections;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Live preview of the midpoint frame while lines are edited
+ * Every request gets a new generation; it cancels the render in flight and replaces a
+ * request that has not started yet, so a burst of edits costs one render of the latest
+ * lines. A render first delivers a half resolution frame from the coarse displacement
+ * grid, then the exact frame at preview resolution
+ * The exact frame comes from two IncrementalWarps, so dragging one line only swaps that
+ * line's contribution instead of warping with every line again
+ */
+public class PreviewRenderer {
+
+    /**
+     * Receives previews on the render thread
+     */
+    public interface PreviewListener {
+        void onPreview(int generation, int[] pixels, int width, int height, boolean isFinal);
+    }
+
+    /**
+     * Coarse grid spacing and refinement threshold of the low resolution pass
+     */
+    static final int LOW_RESOLUTION_STEP = 4;
+
+    static final float LOW_RESOLUTION_THRESHOLD = 1f;
+
+    /**
+     * A pending render request
+     */
+    private static final class Request {
+
+        final int generation;
+
+        final LineTable sourceLines, destinationLines;
+
+        Request(int generation, LineTable sourceLines, LineTable destinationLines) {
+            this.generation = generation;
+            this.sourceLines = sourceLines;
+            this.destinationLines = destinationLines;
+        }
+    }
+
+    /**
+     * Width and height of the preview and of its low resolution pass
+     */
+    private final int width, height, lowWidth, lowHeight;
+
+    /**
+     * Source and destination pixels at both resolutions
+     */
+    private final int[] sourcePixels, destinationPixels, lowSourcePixels, lowDestinationPixels;
+
+    private final WarpEngine lowEngine;
+
+    /**
+     * Exact forward and reverse warps of the midpoint frame, kept between renders
+     */
+    private final IncrementalWarp forwardWarp, reverseWarp;
+
+    private final int[] forwardPixels, reversePixels;
+
+    /**
+     * Worker pool for the bands of a frame, or null to render on the render thread
+     */
+    private final WarpScheduler scheduler;
+
+    private final PreviewListener listener;
+
+    /**
+     * Orders renders, one at a time
+     */
+    private final ExecutorService renderThread = Executors.newSingleThreadExecutor();
+
+    /**
+     * Latest request that has not started yet
+     */
+    private final AtomicReference<Request> pending = new AtomicReference<>();
+
+    private final AtomicInteger generation = new AtomicInteger();
+
+    /**
+     * Cancellation of the render in flight
+     */
+    private volatile RenderControl currentControl;
+
+    /**
+     * Create a preview renderer
+     * @param sourcePixels source image pixels at preview resolution as int[]
+     * @param destinationPixels destination image pixels at preview resolution as int[]
+     * @param width the width of the preview as integer
+     * @param height the height of the preview as integer
+     * @param weightFunction line weight
+     * @param scheduler worker pool, or null to render on the render thread
+     * @param listener receives the previews
+     */
+    public PreviewRenderer(int[] sourcePixels, int[] destinationPixels, int width, int height,
+                           WeightFunction weightFunction, WarpScheduler scheduler, PreviewListener listener) {
+        this.sourcePixels = sourcePixels;
+        this.destinationPixels = destinationPixels;
+        this.width = width;
+        this.height = height;
+        this.lowWidth = Math.max(1, width / 2);
+        this.lowHeight = Math.max(1, height / 2);
+        this.lowSourcePixels = downsample(sourcePixels, width, height, lowWidth, lowHeight);
+        this.lowDestinationPixels = downsample(destinationPixels, width, height, lowWidth, lowHeight);
+        this.forwardWarp = new IncrementalWarp(sourcePixels, width, height, weightFunction, Sampler.BILINEAR);
+        this.reverseWarp = new IncrementalWarp(destinationPixels, width, height, weightFunction, Sampler.BILINEAR);
+        this.forwardPixels = new int[width * height];
+        this.reversePixels = new int[width * height];
+        this.lowEngine = new WarpEngine(lowWidth, lowHeight, weightFunction, Sampler.NEAREST, 0,
+                LOW_RESOLUTION_STEP, LOW_RESOLUTION_THRESHOLD);
+        this.scheduler = scheduler;
+        this.listener = listener;
+    }
+
+    /**
+     * Ask for a preview of new lines, supersedes every earlier request
+     * @param sourceLines control lines of the source image in preview coordinates
+     * @param destinationLines control lines of the destination image in preview coordinates
+     * @return generation of the request as integer
+     */
+    public int requestRender(LineTable sourceLines, LineTable destinationLines) {
+        int requestGeneration = generation.incrementAndGet();
+        RenderControl running = currentControl;
+        if (running != null) {
+            running.cancel();
+        }
+        //Only schedule when no request was waiting, a waiting one is simply replaced
+        if (pending.getAndSet(new Request(requestGeneration, sourceLines, destinationLines)) == null) {
+            renderThread.execute(this::renderPending);
+        }
+        return requestGeneration;
+    }
+
+    /**
+     * Stop rendering for good
+     */
+    public void shutdown() {
+        generation.incrementAndGet();
+        RenderControl running = currentControl;
+        if (running != null) {
+            running.cancel();
+        }
+        renderThread.shutdown();
+    }
+
+    private void renderPending() {
+        Request request = pending.getAndSet(null);
+        if (request == null) {
+            return;
+        }
+        RenderControl control = new RenderControl(null);
+        currentControl = control;
+        //A newer request may have come in before the control was published
+        if (request.generation != generation.get()) {
+            return;
+        }
+        try {
+            LineTable lowSourceLines = request.sourceLines.scaled((float) lowWidth / width, (float) lowHeight / height);
+            LineTable lowDestinationLines = request.destinationLines.scaled((float) lowWidth / width, (float) lowHeight / height);
+            int[] low = renderMidpoint(lowEngine, lowSourcePixels, lowSourceLines, lowDestinationPixels, lowDestinationLines, control);
+            deliver(request.generation, low, lowWidth, lowHeight, false);
+            int[] full = renderMidpoint(request.sourceLines, request.destinationLines, control);
+            deliver(request.generation, full, width, height, true);
+        } catch (CancellationException e) {
+            //Superseded by a newer request
+        }
+    }
+
+    private void deliver(int requestGeneration, int[] pixels, int width, int height, boolean isFinal) {
+        if (requestGeneration == generation.get()) {
+            listener.onPreview(requestGeneration, pixels, width, height, isFinal);
+        }
+    }
+
+    /**
+     * Warp and dissolve the frame halfway between the source and the destination
+     */
+    private int[] renderMidpoint(WarpEngine engine, int[] sourcePixels, LineTable sourceLines,
+                                 int[] destinationPixels, LineTable destinationLines, RenderControl control) {
+        LineTable midpointLines = LineTable.interpolate(sourceLines, destinationLines, 1)[1];
+        int half = CrossDissolve.WEIGHT_ONE / 2;
+        int width = engine.getWidth();
+        WarpScheduler.BandKernel kernel = (output, startY, endY) -> engine.warpAndBlend(sourcePixels, sourceLines,
+                destinationPixels, destinationLines, output, midpointLines, half, half, 0, startY, width, endY);
+        int[][] frame = new int[1][];
+        WarpScheduler.FrameSink sink = (index, pixels) -> frame[0] = pixels;
+        if (scheduler != null) {
+            scheduler.runAll(width, engine.getHeight(), Collections.singletonList(kernel), control, sink);
+        } else {
+            WarpScheduler.runSequentially(width, engine.getHeight(), Collections.singletonList(kernel), control, sink);
+        }
+        return frame[0];
+    }
+
+    /**
+     * Exact midpoint frame from the incremental warps, on the render thread
+     */
+    private int[] renderMidpoint(LineTable sourceLines, LineTable destinationLines, RenderControl control) {
+        LineTable midpointLines = LineTable.interpolate(sourceLines, destinationLines, 1)[1];
+        forwardWarp.warp(sourceLines, midpointLines, forwardPixels, control);
+        reverseWarp.warp(destinationLines, midpointLines, reversePixels, control);
+        int half = CrossDissolve.WEIGHT_ONE / 2;
+        int[] frame = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            CrossDissolve.blendRow(forwardPixels, reversePixels, frame, y * width, width, half, half);
+        }
+        return frame;
+    }
+
+    /**
+     * Shrink an image by averaging, two or fewer source pixels per direction
+     * @param pixels image pixels as int[]
+     * @param width the width of the image as integer
+     * @param height the height of the image as integer
+     * @param newWidth the width of the result as integer
+     * @param newHeight the height of the result as integer
+     * @return shrunk image pixels as int[]
+     */
+    static int[] downsample(int[] pixels, int width, int height, int newWidth, int newHeight) {
+        int half = CrossDissolve.WEIGHT_ONE / 2;
+        int[] result = new int[newWidth * newHeight];
+        for (int y = 0; y < newHeight; y++) {
+            int row0 = Math.min(2 * y, height - 1) * width;
+            int row1 = Math.min(2 * y + 1, height - 1) * width;
+            for (int x = 0; x < newWidth; x++) {
+                int x0 = Math.min(2 * x, width - 1);
+                int x1 = Math.min(2 * x + 1, width - 1);
+                int top = CrossDissolve.blend(pixels[row0 + x0], pixels[row0 + x1], half, half);
+                int bottom = CrossDissolve.blend(pixels[row1 + x0], pixels[row1 + x1], half, half);
+                result[y * newWidth + x] = CrossDissolve.blend(top, bottom, half, half);
+            }
+        }
+        return result;
+    }
+}
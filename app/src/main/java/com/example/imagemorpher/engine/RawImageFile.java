@@ -0,0 +1,147 @@
+package com.example.imagemorpher.engine;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Uncompressed images of one size in one file, image after image, each row-major as
+ * little-endian ARGB ints
+ * Windows are read and tiles written with positional channel calls, so workers share one
+ * file and only the rows of a window or tile are ever in memory. As a TileSink it takes
+ * the frames of a TileRenderer, frame i going to image i
+ */
+public final class RawImageFile implements Closeable, TileRenderer.TileSink {
+
+    private final RandomAccessFile file;
+
+    private final FileChannel channel;
+
+    /**
+     * Width and height of every image
+     */
+    private final int width, height;
+
+    private final int numOfImages;
+
+    /**
+     * Open a file of images
+     * @param file the file
+     * @param width the width of the images as integer
+     * @param height the height of the images as integer
+     * @param numOfImages number of images as integer
+     * @param isWritable true to create or resize the file for writing, false to read an existing one
+     * @throws IOException if the file cannot be opened or, for reading, has another size
+     */
+    public RawImageFile(File file, int width, int height, int numOfImages, boolean isWritable) throws IOException {
+        this.width = width;
+        this.height = height;
+        this.numOfImages = numOfImages;
+        this.file = new RandomAccessFile(file, isWritable ? "rw" : "r");
+        this.channel = this.file.getChannel();
+        long length = (long) width * height * numOfImages * Integer.BYTES;
+        if (isWritable) {
+            this.file.setLength(length);
+        } else if (this.file.length() != length) {
+            this.file.close();
+            throw new IOException(file + " does not hold " + numOfImages + " images of " + width + "x" + height);
+        }
+    }
+
+    /**
+     * Get one image as a source for TileRenderer
+     * @param index image index as integer
+     * @return the source
+     */
+    public TileRenderer.PixelSource image(int index) {
+        return new TileRenderer.PixelSource() {
+            @Override
+            public int getWidth() { return width; }
+
+            @Override
+            public int getHeight() { return height; }
+
+            @Override
+            public void read(int x, int y, int windowWidth, int windowHeight, int[] pixels) throws IOException {
+                RawImageFile.this.read(index, x, y, windowWidth, windowHeight, pixels);
+            }
+        };
+    }
+
+    /**
+     * Read a window of an image
+     * @param index image index as integer
+     * @param x left of the window as integer
+     * @param y top of the window as integer
+     * @param windowWidth the width of the window as integer
+     * @param windowHeight the height of the window as integer
+     * @param pixels receives the window row-major with a stride of windowWidth as int[]
+     * @throws IOException if the file cannot be read
+     */
+    public void read(int index, int x, int y, int windowWidth, int windowHeight, int[] pixels) throws IOException {
+        ByteBuffer row = ByteBuffer.allocate(windowWidth * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int j = 0; j < windowHeight; j++) {
+            row.clear();
+            long position = offset(index, x, y + j);
+            while (row.hasRemaining()) {
+                if (channel.read(row, position + row.position()) < 0) {
+                    throw new IOException("Unexpected end of image " + index);
+                }
+            }
+            row.flip();
+            row.asIntBuffer().get(pixels, j * windowWidth, windowWidth);
+        }
+    }
+
+    /**
+     * Write a tile of an image
+     * @param index image index as integer
+     * @param x left of the tile as integer
+     * @param y top of the tile as integer
+     * @param tileWidth the width of the tile as integer
+     * @param tileHeight the height of the tile as integer
+     * @param pixels tile pixels row-major with a stride of tileWidth as int[]
+     * @throws IOException if the file cannot be written
+     */
+    public void write(int index, int x, int y, int tileWidth, int tileHeight, int[] pixels) throws IOException {
+        ByteBuffer row = ByteBuffer.allocate(tileWidth * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int j = 0; j < tileHeight; j++) {
+            row.clear();
+            row.asIntBuffer().put(pixels, j * tileWidth, tileWidth);
+            long position = offset(index, x, y + j);
+            while (row.hasRemaining()) {
+                channel.write(row, position + row.position());
+            }
+        }
+    }
+
+    @Override
+    public void onTile(int frameIndex, int x, int y, int tileWidth, int tileHeight, int[] pixels) throws IOException {
+        write(frameIndex, x, y, tileWidth, tileHeight, pixels);
+    }
+
+    @Override
+    public void onFrameDone(int frameIndex) {
+        //Every tile is in the file already
+    }
+
+    private long offset(int index, int x, int y) {
+        if (index < 0 || index >= numOfImages) {
+            throw new IndexOutOfBoundsException("Image " + index + " of " + numOfImages);
+        }
+        return (((long) index * height + y) * width + x) * Integer.BYTES;
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
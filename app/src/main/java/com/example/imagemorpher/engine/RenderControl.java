@@ -0,0 +1,82 @@
+package com.example.imagemorpher.engine;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cancellation and progress of one render
+ * Workers check it before every tile of rows, so a cancelled render stops within one
+ * tile's worth of work, and report every finished tile to the progress listener
+ */
+public class RenderControl {
+
+    /**
+     * Receives progress from worker threads
+     */
+    public interface ProgressListener {
+        void onProgress(int completedRows, int totalRows);
+    }
+
+    /**
+     * Progress listener, may be null
+     */
+    private final ProgressListener listener;
+
+    /**
+     * Cancel flag
+     */
+    private volatile boolean isCancelled;
+
+    /**
+     * Rows finished so far, over every frame of the render
+     */
+    private final AtomicInteger completedRows = new AtomicInteger();
+
+    /**
+     * Rows to render, over every frame of the render
+     */
+    private volatile int totalRows;
+
+    public RenderControl(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Ask the render to stop, workers give up at their next tile
+     */
+    public void cancel() {
+        isCancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return isCancelled;
+    }
+
+    /**
+     * Throw if the render has been cancelled
+     */
+    void checkCancelled() {
+        if (isCancelled) {
+            throw new CancellationException("Render cancelled");
+        }
+    }
+
+    /**
+     * Add rows to the total, called once per batch of frames
+     * @param rows number of rows as integer
+     */
+    void addTotalRows(int rows) {
+        totalRows += rows;
+    }
+
+    /**
+     * Report a finished tile
+     * @param rows number of rows in the tile as integer
+     */
+    void tileDone(int rows) {
+        int completed = completedRows.addAndGet(rows);
+        if (listener != null) {
+            listener.onProgress(completed, totalRows);
+        }
+    }
+}
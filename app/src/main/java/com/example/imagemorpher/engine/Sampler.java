@@ -0,0 +1,118 @@
+package com.example.imagemorpher.engine;
+
+/**
+ * Resampling of packed ARGB pixels at a fixed-point source position
+ * Positions carry FRACTION_BITS fractional bits and are already clamped to the image
+ */
+public enum Sampler {
+
+    /**
+     * Truncate to the pixel the position falls in
+     */
+    NEAREST {
+        @Override
+        public int sample(int[] pixels, int width, int height, int fixedX, int fixedY) {
+            return pixels[(fixedY >> FRACTION_BITS) * width + (fixedX >> FRACTION_BITS)];
+        }
+    },
+
+    /**
+     * Blend the 2x2 neighbourhood, two channels at a time in 8-bit fixed point
+     */
+    BILINEAR {
+        @Override
+        public int sample(int[] pixels, int width, int height, int fixedX, int fixedY) {
+            int x0 = fixedX >> FRACTION_BITS;
+            int y0 = fixedY >> FRACTION_BITS;
+            int weightX = fixedX & FRACTION_MASK;
+            int weightY = fixedY & FRACTION_MASK;
+            int row0 = y0 * width;
+            int row1 = y0 + 1 < height ? row0 + width : row0;
+            int x1 = x0 + 1 < width ? x0 + 1 : x0;
+            int top = lerp(pixels[row0 + x0], pixels[row0 + x1], weightX);
+            int bottom = lerp(pixels[row1 + x0], pixels[row1 + x1], weightX);
+            return lerp(top, bottom, weightY);
+        }
+    },
+
+    /**
+     * Catmull-Rom over the 4x4 neighbourhood
+     */
+    BICUBIC {
+        @Override
+        public int sample(int[] pixels, int width, int height, int fixedX, int fixedY) {
+            int x0 = fixedX >> FRACTION_BITS;
+            int y0 = fixedY >> FRACTION_BITS;
+            int weightsX = (fixedX & FRACTION_MASK) * 4;
+            int weightsY = (fixedY & FRACTION_MASK) * 4;
+            float a = 0, r = 0, g = 0, b = 0;
+            for (int j = 0; j < 4; j++) {
+                int row = WarpEngine.clamp(y0 + j - 1, height) * width;
+                float weightY = CUBIC_WEIGHTS[weightsY + j];
+                for (int i = 0; i < 4; i++) {
+                    int pixel = pixels[row + WarpEngine.clamp(x0 + i - 1, width)];
+                    float weight = weightY * CUBIC_WEIGHTS[weightsX + i];
+                    a += weight * (pixel >>> 24);
+                    r += weight * ((pixel >> 16) & 0xFF);
+                    g += weight * ((pixel >> 8) & 0xFF);
+                    b += weight * (pixel & 0xFF);
+                }
+            }
+            return (toChannel(a) << 24) | (toChannel(r) << 16) | (toChannel(g) << 8) | toChannel(b);
+        }
+    };
+
+    /**
+     * Fractional bits of a fixed-point position
+     */
+    public static final int FRACTION_BITS = 8;
+
+    static final int FRACTION_MASK = (1 << FRACTION_BITS) - 1;
+
+    /**
+     * Catmull-Rom tap weights for every fraction, 4 per fraction
+     */
+    private static final float[] CUBIC_WEIGHTS = new float[(1 << FRACTION_BITS) * 4];
+
+    static {
+        for (int f = 0; f < 1 << FRACTION_BITS; f++) {
+            float t = f / (float) (1 << FRACTION_BITS);
+            float t2 = t * t;
+            float t3 = t2 * t;
+            CUBIC_WEIGHTS[f * 4] = 0.5f * (-t3 + 2 * t2 - t);
+            CUBIC_WEIGHTS[f * 4 + 1] = 0.5f * (3 * t3 - 5 * t2 + 2);
+            CUBIC_WEIGHTS[f * 4 + 2] = 0.5f * (-3 * t3 + 4 * t2 + t);
+            CUBIC_WEIGHTS[f * 4 + 3] = 0.5f * (t3 - t2);
+        }
+    }
+
+    /**
+     * Sample the image
+     * @param pixels image pixels as int[]
+     * @param width the width of the image as integer
+     * @param height the height of the image as integer
+     * @param fixedX x position with FRACTION_BITS fractional bits, inside the image
+     * @param fixedY y position with FRACTION_BITS fractional bits, inside the image
+     * @return pixel as integer
+     */
+    public abstract int sample(int[] pixels, int width, int height, int fixedX, int fixedY);
+
+    /**
+     * Interpolate two packed pixels, red/blue and alpha/green are each blended as one word
+     * @param from first pixel as integer
+     * @param to second pixel as integer
+     * @param weight weight of the second pixel in [0, 256) as integer
+     * @return interpolated pixel as integer
+     */
+    static int lerp(int from, int to, int weight) {
+        int inverse = (1 << FRACTION_BITS) - weight;
+        int redBlue = ((from & 0x00FF00FF) * inverse + (to & 0x00FF00FF) * weight) >>> FRACTION_BITS;
+        int alphaGreen = (((from >>> 8) & 0x00FF00FF) * inverse + ((to >>> 8) & 0x00FF00FF) * weight) >>> FRACTION_BITS;
+        return (redBlue & 0x00FF00FF) | ((alphaGreen & 0x00FF00FF) << 8);
+    }
+
+    private static int toChannel(float value) {
+        int channel = (int) (value + 0.5f);
+        return channel < 0 ? 0 : Math.min(channel, 255);
+    }
+}
@@ -0,0 +1,380 @@
+package com.example.imagemorpher.engine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Out-of-core morph for images too large to hold whole
+ * Every frame is rendered in TILE_SIZE squares. A tile first maps its pixels into both
+ * images, then reads only the window of each image its positions fall in, plus the
+ * neighbours the sampler needs, and hands the finished tile to a sink. Neither image nor
+ * any frame is ever held whole, so peak memory is one tile and two windows per worker,
+ * whatever the image size or the number of frames
+ * A tile whose window would exceed the window budget, where the lines pull it far apart,
+ * is split until its windows fit; a single pixel always does. Frames come out pixel for
+ * pixel like MorphRenderer renders them
+ */
+public class TileRenderer {
+
+    /**
+     * Image that is read a window at a time, from a file or a region decoder
+     */
+    public interface PixelSource {
+        int getWidth();
+
+        int getHeight();
+
+        /**
+         * Read a window of the image
+         * @param x left of the window as integer
+         * @param y top of the window as integer
+         * @param width the width of the window as integer
+         * @param height the height of the window as integer
+         * @param pixels receives the window row-major with a stride of width as int[]
+         * @throws IOException if the image cannot be read
+         */
+        void read(int x, int y, int width, int height, int[] pixels) throws IOException;
+    }
+
+    /**
+     * Receives finished tiles
+     */
+    public interface TileSink {
+        /**
+         * Take a tile, called on the workers and concurrently for tiles of the same frame
+         * @param frameIndex frame index as integer
+         * @param x left of the tile as integer
+         * @param y top of the tile as integer
+         * @param width the width of the tile as integer
+         * @param height the height of the tile as integer
+         * @param pixels tile pixels row-major with a stride of width, only valid during the call
+         * @throws IOException if the tile cannot be written
+         */
+        void onTile(int frameIndex, int x, int y, int width, int height, int[] pixels) throws IOException;
+
+        /**
+         * Finish a frame, called in order on the calling thread once all its tiles were taken
+         * @param frameIndex frame index as integer
+         * @throws IOException if the frame cannot be written
+         */
+        void onFrameDone(int frameIndex) throws IOException;
+    }
+
+    /**
+     * Width and height of a tile in pixels
+     */
+    static final int TILE_SIZE = 64;
+
+    /**
+     * Largest window of one image per tile in pixels
+     */
+    static final int MAX_WINDOW_AREA = 4 * TILE_SIZE * TILE_SIZE;
+
+    /**
+     * Neighbours a sampler may read before and after the pixel a position falls in
+     */
+    private static final int MARGIN_BEFORE = 1, MARGIN_AFTER = 2;
+
+    /**
+     * Warp engine of the frame size
+     */
+    private final WarpEngine engine;
+
+    /**
+     * Lines of every frame, source first and destination last
+     */
+    private final LineTable[] frameLines;
+
+    private final int tileSize, maxWindowArea;
+
+    public TileRenderer(WarpEngine engine, LineTable[] frameLines) {
+        this(engine, frameLines, TILE_SIZE, MAX_WINDOW_AREA);
+    }
+
+    /**
+     * Create a renderer
+     * @param engine warp engine of the frame size
+     * @param frameLines lines of every frame, source first and destination last
+     * @param tileSize width and height of a tile as integer
+     * @param maxWindowArea largest window of one image per tile in pixels as integer
+     */
+    TileRenderer(WarpEngine engine, LineTable[] frameLines, int tileSize, int maxWindowArea) {
+        int pixelWindow = MARGIN_BEFORE + 1 + MARGIN_AFTER;
+        if (tileSize < 1 || maxWindowArea < pixelWindow * pixelWindow) {
+            throw new IllegalArgumentException("Invalid tiles: size " + tileSize + ", window " + maxWindowArea);
+        }
+        this.engine = engine;
+        this.frameLines = frameLines;
+        this.tileSize = tileSize;
+        this.maxWindowArea = maxWindowArea;
+    }
+
+    /**
+     * Read windows of an image that is in memory anyway
+     * @param pixels image pixels as int[]
+     * @param width the width of the image as integer
+     * @param height the height of the image as integer
+     * @return the source
+     */
+    public static PixelSource pixelSource(int[] pixels, int width, int height) {
+        return new PixelSource() {
+            @Override
+            public int getWidth() { return width; }
+
+            @Override
+            public int getHeight() { return height; }
+
+            @Override
+            public void read(int x, int y, int windowWidth, int windowHeight, int[] window) {
+                for (int j = 0; j < windowHeight; j++) {
+                    System.arraycopy(pixels, (y + j) * width + x, window, j * windowWidth, windowWidth);
+                }
+            }
+        };
+    }
+
+    /**
+     * Encode the frames straight from their tiles, never putting a frame together in memory
+     * The tiles of a frame go into the one image of frameFile, which the encoder then reads
+     * back a strip of rows at a time before the next frame is rendered over it
+     * @param frameFile holds one image of the frame size
+     * @param encoder receives the frames in order
+     * @return the tile sink
+     */
+    public static TileSink encoderSink(RawImageFile frameFile, FrameEncoder encoder) {
+        PixelSource frame = frameFile.image(0);
+        return new TileSink() {
+            @Override
+            public void onTile(int frameIndex, int x, int y, int width, int height, int[] pixels) throws IOException {
+                frameFile.write(0, x, y, width, height, pixels);
+            }
+
+            @Override
+            public void onFrameDone(int frameIndex) throws IOException {
+                encoder.addFrame(frame);
+            }
+        };
+    }
+
+    /**
+     * Get the number of frames including source and destination
+     * @return number of frames as integer
+     */
+    public int getTotalNumOfFrames() {
+        return frameLines.length;
+    }
+
+    /**
+     * Render every frame, one after another; the tiles of a frame are spread over the workers
+     * @param source source image of the frame size
+     * @param destination destination image of the frame size
+     * @param scheduler worker pool, or null to render on the calling thread
+     * @param control cancellation and progress, may be null
+     * @param sink receives the tiles
+     * @throws UncheckedIOException if an image cannot be read or the sink fails
+     * @throws java.util.concurrent.CancellationException if the control is cancelled
+     */
+    public void render(PixelSource source, PixelSource destination, WarpScheduler scheduler,
+                       RenderControl control, TileSink sink) {
+        int width = engine.getWidth();
+        int height = engine.getHeight();
+        if (source.getWidth() != width || source.getHeight() != height
+                || destination.getWidth() != width || destination.getHeight() != height) {
+            throw new IllegalArgumentException("Images must be " + width + "x" + height);
+        }
+        if (control != null) {
+            control.addTotalRows(getTotalNumOfFrames() * height);
+        }
+        for (int i = 0; i < getTotalNumOfFrames(); i++) {
+            List<Runnable> tileRows = new ArrayList<>();
+            for (int y = 0; y < height; y += tileSize) {
+                tileRows.add(tileRow(i, y, Math.min(y + tileSize, height), source, destination, control, sink));
+            }
+            if (scheduler != null) {
+                scheduler.runTasks(tileRows);
+            } else {
+                for (Runnable tileRow : tileRows) {
+                    tileRow.run();
+                }
+            }
+            try {
+                sink.onFrameDone(i);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Create the task that renders one row of tiles of a frame, with its own scratch buffers
+     */
+    private Runnable tileRow(int frameIndex, int startY, int endY, PixelSource source, PixelSource destination,
+                             RenderControl control, TileSink sink) {
+        return () -> {
+            Tile tile = new Tile(frameIndex, source, destination);
+            for (int x = 0; x < engine.getWidth(); x += tileSize) {
+                if (control != null) {
+                    control.checkCancelled();
+                }
+                int endX = Math.min(x + tileSize, engine.getWidth());
+                try {
+                    tile.render(x, startY, endX, endY);
+                    sink.onTile(frameIndex, x, startY, endX - x, endY - startY, tile.output);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            if (control != null) {
+                control.tileDone(endY - startY);
+            }
+        };
+    }
+
+    /**
+     * Scratch of one worker: positions and output of a tile and a window of each image
+     */
+    private final class Tile {
+
+        private final PixelSource source, destination;
+
+        private final LineTable sourceLines, destinationLines, lines;
+
+        private final boolean isForwardIdentity, isReverseIdentity;
+
+        private final int forwardWeight, reverseWeight;
+
+        private final long[] forwardPositions = new long[tileSize * tileSize];
+
+        private final long[] reversePositions = new long[tileSize * tileSize];
+
+        private final int[] forwardWindow = new int[maxWindowArea];
+
+        private final int[] reverseWindow = new int[maxWindowArea];
+
+        final int[] output = new int[tileSize * tileSize];
+
+        /**
+         * Window bounds of the region being sampled, left, top, right and bottom (exclusive)
+         */
+        private final int[] forwardBounds = new int[4], reverseBounds = new int[4];
+
+        /**
+         * Width of the tile being rendered, the stride of its buffers
+         */
+        private int tileWidth;
+
+        Tile(int frameIndex, PixelSource source, PixelSource destination) {
+            int totalNumOfFrames = getTotalNumOfFrames();
+            this.source = source;
+            this.destination = destination;
+            this.sourceLines = frameLines[0];
+            this.destinationLines = frameLines[totalNumOfFrames - 1];
+            this.lines = frameLines[frameIndex];
+            //The first frame shows the source and the last the destination unwarped
+            this.isForwardIdentity = sourceLines == lines;
+            this.isReverseIdentity = destinationLines == lines;
+            this.forwardWeight = CrossDissolve.forwardWeight(frameIndex, totalNumOfFrames);
+            this.reverseWeight = CrossDissolve.reverseWeight(frameIndex, totalNumOfFrames);
+        }
+
+        /**
+         * Render the tile [startX, endX) x [startY, endY) into output
+         */
+        void render(int startX, int startY, int endX, int endY) throws IOException {
+            tileWidth = endX - startX;
+            map(sourceLines, isForwardIdentity, forwardPositions, startX, startY, endX, endY);
+            map(destinationLines, isReverseIdentity, reversePositions, startX, startY, endX, endY);
+            renderRegion(0, 0, tileWidth, endY - startY);
+        }
+
+        private void map(LineTable imageLines, boolean isIdentity, long[] positions,
+                         int startX, int startY, int endX, int endY) {
+            if (!isIdentity) {
+                engine.mapRegion(imageLines, lines, positions, startX, startY, endX, endY);
+                return;
+            }
+            int index = 0;
+            for (int y = startY; y < endY; y++) {
+                for (int x = startX; x < endX; x++) {
+                    positions[index++] = WarpEngine.pack(x, y);
+                }
+            }
+        }
+
+        /**
+         * Sample and blend a region of the tile, splitting it while a window does not fit
+         * @param x left of the region within the tile as integer
+         * @param y top of the region within the tile as integer
+         * @param width the width of the region as integer
+         * @param height the height of the region as integer
+         */
+        private void renderRegion(int x, int y, int width, int height) throws IOException {
+            long forwardArea = window(forwardPositions, x, y, width, height, forwardBounds);
+            long reverseArea = window(reversePositions, x, y, width, height, reverseBounds);
+            if (forwardArea > maxWindowArea || reverseArea > maxWindowArea) {
+                //Never reached by a single pixel, its window is at most 4x4
+                if (width >= height) {
+                    renderRegion(x, y, width / 2, height);
+                    renderRegion(x + width / 2, y, width - width / 2, height);
+                } else {
+                    renderRegion(x, y, width, height / 2);
+                    renderRegion(x, y + height / 2, width, height - height / 2);
+                }
+                return;
+            }
+            read(source, forwardBounds, forwardWindow);
+            read(destination, reverseBounds, reverseWindow);
+            Sampler sampler = engine.getSampler();
+            int forwardWidth = forwardBounds[2] - forwardBounds[0];
+            int forwardHeight = forwardBounds[3] - forwardBounds[1];
+            int reverseWidth = reverseBounds[2] - reverseBounds[0];
+            int reverseHeight = reverseBounds[3] - reverseBounds[1];
+            //Shift positions into the windows, in fixed point
+            long forwardShift = ((long) forwardBounds[0] << (32 + Sampler.FRACTION_BITS)) | ((long) forwardBounds[1] << Sampler.FRACTION_BITS);
+            long reverseShift = ((long) reverseBounds[0] << (32 + Sampler.FRACTION_BITS)) | ((long) reverseBounds[1] << Sampler.FRACTION_BITS);
+            for (int j = y; j < y + height; j++) {
+                int rowOffset = j * tileWidth;
+                for (int i = x; i < x + width; i++) {
+                    long forward = forwardPositions[rowOffset + i] - forwardShift;
+                    long reverse = reversePositions[rowOffset + i] - reverseShift;
+                    int forwardPixel = sampler.sample(forwardWindow, forwardWidth, forwardHeight, (int) (forward >> 32), (int) forward);
+                    int reversePixel = sampler.sample(reverseWindow, reverseWidth, reverseHeight, (int) (reverse >> 32), (int) reverse);
+                    output[rowOffset + i] = CrossDissolve.blend(forwardPixel, reversePixel, forwardWeight, reverseWeight);
+                }
+            }
+        }
+
+        /**
+         * Find the window of an image the positions of a region sample from
+         * @param bounds receives left, top, right and bottom (exclusive) as int[]
+         * @return area of the window in pixels as long
+         */
+        private long window(long[] positions, int x, int y, int width, int height, int[] bounds) {
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+            for (int j = y; j < y + height; j++) {
+                int rowOffset = j * tileWidth;
+                for (int i = x; i < x + width; i++) {
+                    long position = positions[rowOffset + i];
+                    int pixelX = (int) (position >> 32) >> Sampler.FRACTION_BITS;
+                    int pixelY = (int) position >> Sampler.FRACTION_BITS;
+                    minX = Math.min(minX, pixelX);
+                    maxX = Math.max(maxX, pixelX);
+                    minY = Math.min(minY, pixelY);
+                    maxY = Math.max(maxY, pixelY);
+                }
+            }
+            //Clipped windows clamp exactly like the whole image at its borders
+            bounds[0] = Math.max(0, minX - MARGIN_BEFORE);
+            bounds[1] = Math.max(0, minY - MARGIN_BEFORE);
+            bounds[2] = Math.min(engine.getWidth(), maxX + MARGIN_AFTER + 1);
+            bounds[3] = Math.min(engine.getHeight(), maxY + MARGIN_AFTER + 1);
+            return (long) (bounds[2] - bounds[0]) * (bounds[3] - bounds[1]);
+        }
+
+        private void read(PixelSource image, int[] bounds, int[] window) throws IOException {
+            image.read(bounds[0], bounds[1], bounds[2] - bounds[0], bounds[3] - bounds[1], window);
+        }
+    }
+}
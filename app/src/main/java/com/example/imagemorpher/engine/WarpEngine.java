@@ -0,0 +1,761 @@
+package com.example.imagemorpher.engine;
+
+import java.nio.LongBuffer;
+
+import static java.lang.Math.sqrt;
+
+/**
+ * Beier-Neely warp over packed ARGB int[] buffers
+ * The buffers are row-major with a stride of width, the same layout as Bitmap.getPixels
+ * Regions are walked scanline by scanline: every line is applied to a whole row of
+ * accumulators before the row is sampled, so each inner loop runs over contiguous memory
+ */
+public class WarpEngine {
+
+    /**
+     * Width and height of the image
+     */
+    private final int width, height;
+
+    /**
+     * Line weight, specialized for the weight calculation parameters
+     */
+    private final WeightFunction weightFunction;
+
+    /**
+     * Resampling of the reverse mapped positions
+     */
+    private final Sampler sampler;
+
+    /**
+     * Relative weight below which a line is skipped in a cell of the frame, 0 evaluates every line
+     */
+    private final float cullingTolerance;
+
+    /**
+     * Spacing of the coarse displacement grid in pixels, 0 maps every pixel
+     */
+    private final int coarseStep;
+
+    /**
+     * Cells whose interpolated center displacement is off by more than this many pixels are mapped per pixel
+     */
+    private final float refineThreshold;
+
+    public WarpEngine(int width, int height, float p, float a, float b) {
+        this(width, height, WeightFunction.create(p, a, b), Sampler.NEAREST);
+    }
+
+    public WarpEngine(int width, int height, float p, float a, float b, Sampler sampler) {
+        this(width, height, WeightFunction.create(p, a, b), sampler);
+    }
+
+    public WarpEngine(int width, int height, WeightFunction weightFunction, Sampler sampler) {
+        this(width, height, weightFunction, sampler, 0);
+    }
+
+    /**
+     * Create a warp engine that may skip far lines
+     * @param width the width of the image as integer
+     * @param height the height of the image as integer
+     * @param weightFunction line weight
+     * @param sampler resampling of the reverse mapping
+     * @param cullingTolerance a line is skipped in a LineGrid cell when its weight there stays below this
+     *                         fraction of the strongest line's, in [0, 1) as float, 0 evaluates every line
+     */
+    public WarpEngine(int width, int height, WeightFunction weightFunction, Sampler sampler, float cullingTolerance) {
+        this(width, height, weightFunction, sampler, cullingTolerance, 0, 0);
+    }
+
+    /**
+     * Create a warp engine that may skip far lines and may map a coarse grid only
+     * With a coarse step, the displacement is computed every coarseStep pixels and bilinearly
+     * interpolated in between; a cell is mapped per pixel instead when the displacement at
+     * its center is more than refineThreshold off the interpolated one, which is where the
+     * field bends, mostly close to the lines and around their ends
+     * @param width the width of the image as integer
+     * @param height the height of the image as integer
+     * @param weightFunction line weight
+     * @param sampler resampling of the reverse mapping
+     * @param cullingTolerance a line is skipped in a LineGrid cell when its weight there stays below this
+     *                         fraction of the strongest line's, in [0, 1) as float, 0 evaluates every line
+     * @param coarseStep spacing of the displacement grid in pixels as integer, 0 maps every pixel
+     * @param refineThreshold largest interpolation error at a cell center in pixels that is still accepted as float
+     */
+    public WarpEngine(int width, int height, WeightFunction weightFunction, Sampler sampler, float cullingTolerance,
+                      int coarseStep, float refineThreshold) {
+        if (!(cullingTolerance >= 0 && cullingTolerance < 1)) {
+            throw new IllegalArgumentException("Culling tolerance must be in [0, 1): " + cullingTolerance);
+        }
+        if (coarseStep < 0 || coarseStep == 1 || !(refineThreshold >= 0)) {
+            throw new IllegalArgumentException("Invalid coarse grid: step " + coarseStep + ", threshold " + refineThreshold);
+        }
+        this.width = width;
+        this.height = height;
+        this.weightFunction = weightFunction;
+        this.sampler = sampler;
+        this.cullingTolerance = cullingTolerance;
+        //A coarse grid needs two nodes in each direction
+        this.coarseStep = width > 1 && height > 1 ? coarseStep : 0;
+        this.refineThreshold = refineThreshold;
+    }
+
+    /**
+     * Warp function
+     * Warp a region of the image based on control lines
+     *
+     * @param sourcePixels source image pixels as int[]
+     * @param sourceLines control lines of the source image
+     * @param destinationPixels output pixels as int[]
+     * @param destinationLines control lines of the output image
+     * @param startX the start x as int
+     * @param startY the start y as int
+     * @param endX the end x (exclusive) as int
+     * @param endY the end y (exclusive) as int
+     */
+    public void warp(int[] sourcePixels, LineTable sourceLines, int[] destinationPixels, LineTable destinationLines,
+                     int startX, int startY, int endX, int endY) {
+        float[] lengthPow = destinationLines.lengthPow(weightFunction.p);
+        LineGrid grid = grid(destinationLines);
+        RowBuffer row = new RowBuffer(endX - startX);
+        for (int y = startY; y < endY; y++) {
+            //Reverse mapping
+            //Get pixels from the source image then set them to the destination image
+            mapRow(sourceLines, destinationLines, lengthPow, grid, startX, endX, y, row);
+            long[] positions = row.positions;
+            int rowOffset = y * width;
+            for (int x = startX; x < endX; x++) {
+                destinationPixels[rowOffset + x] = sample(sourcePixels, positions[x - startX]);
+            }
+        }
+    }
+
+    /**
+     * Fused warp and cross-dissolve
+     * Map every output pixel into both the forward and the reverse source and blend the two
+     * samples right away, so no forward or reverse frame is ever materialized
+     * When the lines of a source are the output lines themselves, that source is sampled unwarped
+     *
+     * @param forwardPixels source image pixels as int[]
+     * @param forwardLines control lines of the source image
+     * @param reversePixels destination image pixels as int[]
+     * @param reverseLines control lines of the destination image
+     * @param outputPixels output pixels as int[]
+     * @param outputLines control lines of the output frame
+     * @param forwardWeight weight of the forward sample in 8.8 fixed point as integer
+     * @param reverseWeight weight of the reverse sample in 8.8 fixed point as integer
+     * @param startX the start x as int
+     * @param startY the start y as int
+     * @param endX the end x (exclusive) as int
+     * @param endY the end y (exclusive) as int
+     */
+    public void warpAndBlend(int[] forwardPixels, LineTable forwardLines, int[] reversePixels, LineTable reverseLines,
+                             int[] outputPixels, LineTable outputLines, int forwardWeight, int reverseWeight,
+                             int startX, int startY, int endX, int endY) {
+        boolean isForwardIdentity = forwardLines == outputLines;
+        boolean isReverseIdentity = reverseLines == outputLines;
+        float[] lengthPow = outputLines.lengthPow(weightFunction.p);
+        LineGrid grid = grid(outputLines);
+        RowBuffer forwardRow = new RowBuffer(endX - startX);
+        RowBuffer reverseRow = new RowBuffer(endX - startX);
+        for (int y = startY; y < endY; y++) {
+            if (!isForwardIdentity) {
+                mapRow(forwardLines, outputLines, lengthPow, grid, startX, endX, y, forwardRow);
+            }
+            if (!isReverseIdentity) {
+                mapRow(reverseLines, outputLines, lengthPow, grid, startX, endX, y, reverseRow);
+            }
+            long[] forwardPositions = forwardRow.positions;
+            long[] reversePositions = reverseRow.positions;
+            int rowOffset = y * width;
+            for (int x = startX; x < endX; x++) {
+                int index = rowOffset + x;
+                int forwardPixel = isForwardIdentity ? forwardPixels[index]
+                        : sample(forwardPixels, forwardPositions[x - startX]);
+                int reversePixel = isReverseIdentity ? reversePixels[index]
+                        : sample(reversePixels, reversePositions[x - startX]);
+                outputPixels[index] = CrossDissolve.blend(forwardPixel, reversePixel, forwardWeight, reverseWeight);
+            }
+        }
+    }
+
+    /**
+     * Map a region of the output into the source without sampling
+     * The positions only depend on the lines and the engine parameters, so they can be kept
+     * and gathered from any image of the same size, see DisplacementCache
+     *
+     * @param sourceLines control lines of the source image
+     * @param destinationLines control lines of the output image
+     * @param positions receives the clamped source positions packed like Sampler expects, row-major as long[]
+     * @param startX the start x as int
+     * @param startY the start y as int
+     * @param endX the end x (exclusive) as int
+     * @param endY the end y (exclusive) as int
+     */
+    public void map(LineTable sourceLines, LineTable destinationLines, long[] positions,
+                    int startX, int startY, int endX, int endY) {
+        float[] lengthPow = destinationLines.lengthPow(weightFunction.p);
+        LineGrid grid = grid(destinationLines);
+        RowBuffer row = new RowBuffer(endX - startX);
+        for (int y = startY; y < endY; y++) {
+            mapRow(sourceLines, destinationLines, lengthPow, grid, startX, endX, y, row);
+            System.arraycopy(row.positions, 0, positions, y * width + startX, endX - startX);
+        }
+    }
+
+    /**
+     * Map a region of the output into the source, for positions buffers that only cover the region
+     *
+     * @param sourceLines control lines of the source image
+     * @param destinationLines control lines of the output image
+     * @param positions receives the positions like map, row-major with a stride of endX - startX as long[]
+     * @param startX the start x as int
+     * @param startY the start y as int
+     * @param endX the end x (exclusive) as int
+     * @param endY the end y (exclusive) as int
+     */
+    void mapRegion(LineTable sourceLines, LineTable destinationLines, long[] positions,
+                   int startX, int startY, int endX, int endY) {
+        float[] lengthPow = destinationLines.lengthPow(weightFunction.p);
+        LineGrid grid = grid(destinationLines);
+        RowBuffer row = new RowBuffer(endX - startX);
+        for (int y = startY; y < endY; y++) {
+            mapRow(sourceLines, destinationLines, lengthPow, grid, startX, endX, y, row);
+            System.arraycopy(row.positions, 0, positions, (y - startY) * (endX - startX), endX - startX);
+        }
+    }
+
+    /**
+     * Sample both sources at mapped positions and blend, the gather half of warpAndBlend
+     * Positions may be on the heap or in a mapped file; the latter are copied in a row at a time
+     *
+     * @param forwardPixels source image pixels as int[]
+     * @param forwardPositions row-major positions from map into the source, or null to sample it unwarped
+     * @param reversePixels destination image pixels as int[]
+     * @param reversePositions row-major positions from map into the destination, or null to sample it unwarped
+     * @param outputPixels output pixels as int[]
+     * @param forwardWeight weight of the forward sample in 8.8 fixed point as integer
+     * @param reverseWeight weight of the reverse sample in 8.8 fixed point as integer
+     * @param startX the start x as int
+     * @param startY the start y as int
+     * @param endX the end x (exclusive) as int
+     * @param endY the end y (exclusive) as int
+     */
+    public void gatherAndBlend(int[] forwardPixels, LongBuffer forwardPositions, int[] reversePixels, LongBuffer reversePositions,
+                               int[] outputPixels, int forwardWeight, int reverseWeight,
+                               int startX, int startY, int endX, int endY) {
+        PositionRows forwardRows = forwardPositions != null ? new PositionRows(forwardPositions, endX - startX) : null;
+        PositionRows reverseRows = reversePositions != null ? new PositionRows(reversePositions, endX - startX) : null;
+        for (int y = startY; y < endY; y++) {
+            int rowOffset = y * width;
+            //Index of x in the position rows is x + shift
+            long[] forwardRow = null, reverseRow = null;
+            int forwardShift = 0, reverseShift = 0;
+            if (forwardRows != null) {
+                forwardRow = forwardRows.row(rowOffset + startX);
+                forwardShift = forwardRows.offset - startX;
+            }
+            if (reverseRows != null) {
+                reverseRow = reverseRows.row(rowOffset + startX);
+                reverseShift = reverseRows.offset - startX;
+            }
+            for (int x = startX; x < endX; x++) {
+                int index = rowOffset + x;
+                int forwardPixel = forwardRow == null ? forwardPixels[index]
+                        : sample(forwardPixels, forwardRow[x + forwardShift]);
+                int reversePixel = reverseRow == null ? reversePixels[index]
+                        : sample(reversePixels, reverseRow[x + reverseShift]);
+                outputPixels[index] = CrossDissolve.blend(forwardPixel, reversePixel, forwardWeight, reverseWeight);
+            }
+        }
+    }
+
+    /**
+     * Parameters the mapped positions depend on besides the lines
+     * @return width, height, P, A, B, culling tolerance, coarse step and refine threshold as float[]
+     */
+    float[] mappingParameters() {
+        return new float[]{width, height, weightFunction.p, weightFunction.a, weightFunction.b,
+                cullingTolerance, coarseStep, refineThreshold};
+    }
+
+    WeightFunction getWeightFunction() { return weightFunction; }
+
+    Sampler getSampler() { return sampler; }
+
+    /**
+     * Get the culling grid of the output lines
+     * @param lines control lines of the output image
+     * @return the grid, or null when every line is evaluated
+     */
+    private LineGrid grid(LineTable lines) {
+        return cullingTolerance > 0 ? lines.grid(width, height, weightFunction, cullingTolerance) : null;
+    }
+
+    /**
+     * Sample the source image at a mapped position
+     * @param pixels source image pixels as int[]
+     * @param position fixed-point position packed by map
+     * @return pixel as integer
+     */
+    private int sample(int[] pixels, long position) {
+        return sampler.sample(pixels, width, height, (int) (position >> 32), (int) position);
+    }
+
+    /**
+     * Find the source positions of a run of output pixels on one row
+     *
+     * @param sourceLines control lines of the source image
+     * @param destinationLines control lines of the output image
+     * @param lengthPow length^P of the output lines as float[]
+     * @param grid culling grid of the output lines, or null to evaluate every line
+     * @param startX the start x as int
+     * @param endX the end x (exclusive) as int
+     * @param y output y as integer
+     * @param row receives the clamped source positions with Sampler.FRACTION_BITS fractional bits,
+     *            x in the high and y in the low 32 bits
+     */
+    private void mapRow(LineTable sourceLines, LineTable destinationLines, float[] lengthPow, LineGrid grid,
+                        int startX, int endX, int y, RowBuffer row) {
+        if (coarseStep > 0) {
+            mapRowCoarse(sourceLines, destinationLines, lengthPow, grid, startX, endX, y, row);
+        } else {
+            mapSpan(sourceLines, destinationLines, lengthPow, grid, startX, startX, endX, y, row);
+        }
+    }
+
+    /**
+     * Map a span of a row pixel by pixel
+     * Lines are the outer loop and pixels the inner one, per pixel the lines are still
+     * accumulated in order, so the result matches mapping the pixels one by one
+     * With a culling tolerance the span is split at LineGrid cells and each part only
+     * accumulates the lines of its cell
+     *
+     * @param sourceLines control lines of the source image
+     * @param destinationLines control lines of the output image
+     * @param lengthPow length^P of the output lines as float[]
+     * @param grid culling grid of the output lines, or null to evaluate every line
+     * @param startX x of the first entry in the row buffer as int
+     * @param fromX the start x of the span as int
+     * @param toX the end x (exclusive) of the span as int
+     * @param y output y as integer
+     * @param row row buffer, positions of the span are filled in
+     */
+    private void mapSpan(LineTable sourceLines, LineTable destinationLines, float[] lengthPow, LineGrid grid,
+                         int startX, int fromX, int toX, int y, RowBuffer row) {
+        float[] sumOfWeights = row.sumOfWeights;
+        float[] totalWeightedDeltaX = row.totalWeightedDeltaX;
+        float[] totalWeightedDeltaY = row.totalWeightedDeltaY;
+
+        for (int k = fromX - startX; k < toX - startX; k++) {
+            sumOfWeights[k] = 0;
+            totalWeightedDeltaX[k] = 0;
+            totalWeightedDeltaY[k] = 0;
+        }
+
+        if (grid == null) {
+            for (int i = 0; i < destinationLines.size(); i++) {
+                accumulateLine(sourceLines, destinationLines, lengthPow[i], i, startX, fromX, toX, y,
+                        sumOfWeights, totalWeightedDeltaX, totalWeightedDeltaY);
+            }
+        } else {
+            int cellRow = (y / LineGrid.CELL_SIZE) * grid.columns;
+            int[] cellStart = grid.cellStart, cellLines = grid.cellLines;
+            for (int spanStart = fromX; spanStart < toX; ) {
+                int cell = cellRow + spanStart / LineGrid.CELL_SIZE;
+                int spanEnd = Math.min(toX, (spanStart / LineGrid.CELL_SIZE + 1) * LineGrid.CELL_SIZE);
+                for (int j = cellStart[cell]; j < cellStart[cell + 1]; j++) {
+                    int i = cellLines[j];
+                    accumulateLine(sourceLines, destinationLines, lengthPow[i], i, startX, spanStart, spanEnd, y,
+                            sumOfWeights, totalWeightedDeltaX, totalWeightedDeltaY);
+                }
+                spanStart = spanEnd;
+            }
+        }
+
+        //Calculate corresponding x and y in source image
+        long[] positions = row.positions;
+        for (int x = fromX; x < toX; x++) {
+            int k = x - startX;
+            float newX = clamp(x + (totalWeightedDeltaX[k] / sumOfWeights[k]), width);
+            float newY = clamp(y + (totalWeightedDeltaY[k] / sumOfWeights[k]), height);
+            positions[k] = pack(newX, newY);
+        }
+    }
+
+    /**
+     * Map a row from the coarse displacement grid
+     * Grid nodes sit at multiples of coarseStep plus the last column and row, so every region
+     * of a frame interpolates from the same nodes
+     *
+     * @param sourceLines control lines of the source image
+     * @param destinationLines control lines of the output image
+     * @param lengthPow length^P of the output lines as float[]
+     * @param grid culling grid of the output lines, or null to evaluate every line
+     * @param startX the start x as int
+     * @param endX the end x (exclusive) as int
+     * @param y output y as integer
+     * @param row row buffer, its coarse rows are reused while y stays in the same cell row
+     */
+    private void mapRowCoarse(LineTable sourceLines, LineTable destinationLines, float[] lengthPow, LineGrid grid,
+                              int startX, int endX, int y, RowBuffer row) {
+        int step = coarseStep;
+        int lastColumn = (width - 1 + step - 1) / step;
+        int lastRow = (height - 1 + step - 1) / step;
+        int firstCell = Math.min(startX / step, lastColumn - 1);
+        int numOfCells = Math.min((endX - 1) / step, lastColumn - 1) - firstCell + 1;
+        CoarseRows coarse = row.coarse(numOfCells + 1);
+
+        //Evaluate the nodes above and below this row once per cell row
+        int cellY = Math.min(y / step, lastRow - 1);
+        if (coarse.cellY != cellY || coarse.firstCell != firstCell || coarse.numOfCells != numOfCells) {
+            boolean isNextRow = coarse.cellY == cellY - 1 && coarse.firstCell == firstCell && coarse.numOfCells == numOfCells;
+            coarse.swapIfNextRow(isNextRow);
+            int topY = cellY * step;
+            int bottomY = Math.min(topY + step, height - 1);
+            for (int c = 0; c <= numOfCells; c++) {
+                int nodeX = Math.min((firstCell + c) * step, width - 1);
+                if (!isNextRow) {
+                    mapNode(sourceLines, destinationLines, lengthPow, grid, nodeX, topY, coarse);
+                    coarse.topX[c] = coarse.nodeDeltaX;
+                    coarse.topY[c] = coarse.nodeDeltaY;
+                }
+                mapNode(sourceLines, destinationLines, lengthPow, grid, nodeX, bottomY, coarse);
+                coarse.bottomX[c] = coarse.nodeDeltaX;
+                coarse.bottomY[c] = coarse.nodeDeltaY;
+            }
+            //A cell is interpolated when the displacement at its center matches the interpolated one
+            int centerY = (topY + bottomY) / 2;
+            float v = (float) (centerY - topY) / (bottomY - topY);
+            for (int c = 0; c < numOfCells; c++) {
+                int leftX = Math.min((firstCell + c) * step, width - 1);
+                int rightX = Math.min(leftX + step, width - 1);
+                int centerX = (leftX + rightX) / 2;
+                float u = (float) (centerX - leftX) / (rightX - leftX);
+                mapNode(sourceLines, destinationLines, lengthPow, grid, centerX, centerY, coarse);
+                float errorX = coarse.nodeDeltaX - interpolate(coarse.topX, coarse.bottomX, c, u, v);
+                float errorY = coarse.nodeDeltaY - interpolate(coarse.topY, coarse.bottomY, c, u, v);
+                //NaN also refines
+                coarse.refine[c] = !(Math.abs(errorX) <= refineThreshold && Math.abs(errorY) <= refineThreshold);
+            }
+            coarse.cellY = cellY;
+            coarse.firstCell = firstCell;
+            coarse.numOfCells = numOfCells;
+        }
+
+        int topY = cellY * step;
+        int bottomY = Math.min(topY + step, height - 1);
+        float v = (float) (y - topY) / (bottomY - topY);
+        long[] positions = row.positions;
+        for (int c = 0; c < numOfCells; c++) {
+            int leftX = Math.min((firstCell + c) * step, width - 1);
+            int rightX = Math.min(leftX + step, width - 1);
+            int fromX = Math.max(startX, leftX);
+            //The last cell also covers its right node
+            int toX = Math.min(endX, c == numOfCells - 1 ? rightX + 1 : rightX);
+            if (coarse.refine[c]) {
+                mapSpan(sourceLines, destinationLines, lengthPow, grid, startX, fromX, toX, y, row);
+                continue;
+            }
+            //Interpolate the displacement down both edges of the cell, then across
+            float leftDeltaX = coarse.topX[c] + (coarse.bottomX[c] - coarse.topX[c]) * v;
+            float leftDeltaY = coarse.topY[c] + (coarse.bottomY[c] - coarse.topY[c]) * v;
+            float rightDeltaX = coarse.topX[c + 1] + (coarse.bottomX[c + 1] - coarse.topX[c + 1]) * v;
+            float rightDeltaY = coarse.topY[c + 1] + (coarse.bottomY[c + 1] - coarse.topY[c + 1]) * v;
+            float inverseCellWidth = 1f / (rightX - leftX);
+            for (int x = fromX; x < toX; x++) {
+                float u = (x - leftX) * inverseCellWidth;
+                float deltaX = leftDeltaX + (rightDeltaX - leftDeltaX) * u;
+                float deltaY = leftDeltaY + (rightDeltaY - leftDeltaY) * u;
+                positions[x - startX] = pack(clamp(x + deltaX, width), clamp(y + deltaY, height));
+            }
+        }
+    }
+
+    /**
+     * Evaluate the displacement at a grid node
+     *
+     * @param sourceLines control lines of the source image
+     * @param destinationLines control lines of the output image
+     * @param lengthPow length^P of the output lines as float[]
+     * @param grid culling grid of the output lines, or null to evaluate every line
+     * @param x node x as integer
+     * @param y node y as integer
+     * @param coarse receives the displacement in nodeDeltaX and nodeDeltaY
+     */
+    private void mapNode(LineTable sourceLines, LineTable destinationLines, float[] lengthPow, LineGrid grid,
+                         int x, int y, CoarseRows coarse) {
+        RowBuffer node = coarse.node;
+        node.sumOfWeights[0] = 0;
+        node.totalWeightedDeltaX[0] = 0;
+        node.totalWeightedDeltaY[0] = 0;
+        if (grid == null) {
+            for (int i = 0; i < destinationLines.size(); i++) {
+                accumulateLine(sourceLines, destinationLines, lengthPow[i], i, x, x, x + 1, y,
+                        node.sumOfWeights, node.totalWeightedDeltaX, node.totalWeightedDeltaY);
+            }
+        } else {
+            int cell = (y / LineGrid.CELL_SIZE) * grid.columns + x / LineGrid.CELL_SIZE;
+            for (int j = grid.cellStart[cell]; j < grid.cellStart[cell + 1]; j++) {
+                int i = grid.cellLines[j];
+                accumulateLine(sourceLines, destinationLines, lengthPow[i], i, x, x, x + 1, y,
+                        node.sumOfWeights, node.totalWeightedDeltaX, node.totalWeightedDeltaY);
+            }
+        }
+        coarse.nodeDeltaX = node.totalWeightedDeltaX[0] / node.sumOfWeights[0];
+        coarse.nodeDeltaY = node.totalWeightedDeltaY[0] / node.sumOfWeights[0];
+    }
+
+    /**
+     * Bilinearly interpolate a displacement inside a cell
+     * @param top displacements of the top nodes as float[]
+     * @param bottom displacements of the bottom nodes as float[]
+     * @param column left node column of the cell as integer
+     * @param u position across the cell in [0, 1] as float
+     * @param v position down the cell in [0, 1] as float
+     * @return displacement as float
+     */
+    private static float interpolate(float[] top, float[] bottom, int column, float u, float v) {
+        float left = top[column] + (bottom[column] - top[column]) * v;
+        float right = top[column + 1] + (bottom[column + 1] - top[column + 1]) * v;
+        return left + (right - left) * u;
+    }
+
+    /**
+     * Add the weighted displacement of one line to a span of a row
+     *
+     * @param sourceLines control lines of the source image
+     * @param destinationLines control lines of the output image
+     * @param weightOfLength length^P of the output line as float
+     * @param i line index as integer
+     * @param startX x of the first accumulator in the row buffer as int
+     * @param fromX the start x of the span as int
+     * @param toX the end x (exclusive) of the span as int
+     * @param y output y as integer
+     * @param sumOfWeights accumulated weights, entry 0 belongs to startX, as float[]
+     * @param totalWeightedDeltaX accumulated weighted x displacements as float[]
+     * @param totalWeightedDeltaY accumulated weighted y displacements as float[]
+     */
+    void accumulateLine(LineTable sourceLines, LineTable destinationLines, float weightOfLength, int i,
+                        int startX, int fromX, int toX, int y,
+                        float[] sumOfWeights, float[] totalWeightedDeltaX, float[] totalWeightedDeltaY) {
+        float dstStartX = destinationLines.startX[i], dstStartY = destinationLines.startY[i];
+        float dstEndX = destinationLines.endX[i], dstEndY = destinationLines.endY[i];
+        float dstVectorX = destinationLines.vectorX[i], dstVectorY = destinationLines.vectorY[i];
+        float dstNormalX = destinationLines.normalX[i], dstNormalY = destinationLines.normalY[i];
+        float dstInverseLength = destinationLines.inverseLength[i];
+        float srcStartX = sourceLines.startX[i], srcStartY = sourceLines.startY[i];
+        float srcVectorX = sourceLines.vectorX[i], srcVectorY = sourceLines.vectorY[i];
+        float srcNormalX = sourceLines.normalX[i], srcNormalY = sourceLines.normalY[i];
+        WeightFunction weightFunction = this.weightFunction;
+
+        float toStartY = y - dstStartY;
+        float inverseLengthSquared = dstInverseLength * dstInverseLength;
+
+        //Along the row, distance, fraction and the mapped source position are affine in x
+        //Each is evaluated as base + x * step, anchored at x = 0 rather than stepped from
+        //startX, so a pixel gets the same value whichever region it is warped in
+        float distanceStep = -dstNormalX;
+        float distanceBase = dstNormalX * dstStartX - dstNormalY * toStartY;
+        float fractionStep = dstVectorX * inverseLengthSquared;
+        float fractionBase = (dstVectorY * toStartY - dstVectorX * dstStartX) * inverseLengthSquared;
+        float sourceXStep = fractionStep * srcVectorX - distanceStep * srcNormalX;
+        float sourceXBase = srcStartX + fractionBase * srcVectorX - distanceBase * srcNormalX;
+        float sourceYStep = fractionStep * srcVectorY - distanceStep * srcNormalY;
+        float sourceYBase = srcStartY + fractionBase * srcVectorY - distanceBase * srcNormalY;
+
+        for (int x = fromX; x < toX; x++) {
+            int k = x - startX;
+            float d = distanceBase + x * distanceStep;
+            float f = fractionBase + x * fractionStep;
+
+            //Calculate corresponding x and y in source image
+            int sourceX = clamp((int)(sourceXBase + x * sourceXStep), width);
+            int sourceY = clamp((int)(sourceYBase + x * sourceYStep), height);
+
+            //Past an end of the line, d is the distance to that end
+            if (f < 0) {
+                float toStartX = x - dstStartX;
+                d = (float)sqrt(toStartX * toStartX + toStartY * toStartY);
+            } else if (f > 1) {
+                float toEndX = x - dstEndX;
+                float toEndY = y - dstEndY;
+                d = (float)sqrt(toEndX * toEndX + toEndY * toEndY);
+            }
+
+            //Calculate weight and accumulate weighted delta = new - original
+            float weight = weightFunction.weight(weightOfLength, d);
+            sumOfWeights[k] += weight;
+            totalWeightedDeltaX[k] += weight * (sourceX - x);
+            totalWeightedDeltaY[k] += weight * (sourceY - y);
+        }
+    }
+
+    /**
+     * Pack a clamped position into fixed point, truncating like the int cast of nearest sampling
+     * @param x clamped x as float
+     * @param y clamped y as float
+     * @return packed position as long
+     */
+    static long pack(float x, float y) {
+        long fixedX = (int) (x * (1 << Sampler.FRACTION_BITS));
+        long fixedY = (int) (y * (1 << Sampler.FRACTION_BITS));
+        return (fixedX << 32) | (fixedY & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Restrain the output
+     * @param input value as integer
+     * @param max exclusive upper bound as integer
+     * @return clamped value as integer
+     */
+    static int clamp(int input, int max) {
+        if (input < 0) {
+            return 0;
+        } else return Math.min(input, max - 1);
+    }
+
+    /**
+     * Restrain a position to [0, max - 1]
+     * @param input value as float
+     * @param max exclusive upper bound as integer
+     * @return clamped value as float
+     */
+    static float clamp(float input, int max) {
+        if (input < 0) {
+            return 0;
+        } else if (input > max - 1) {
+            return max - 1;
+        }
+        return input;
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    /**
+     * Per-row scratch of one warp call, so rows are mapped without allocation
+     */
+    private static final class RowBuffer {
+
+        final float[] sumOfWeights;
+
+        final float[] totalWeightedDeltaX, totalWeightedDeltaY;
+
+        final long[] positions;
+
+        /**
+         * Coarse grid state, created on first use
+         */
+        private CoarseRows coarse;
+
+        RowBuffer(int length) {
+            this.sumOfWeights = new float[length];
+            this.totalWeightedDeltaX = new float[length];
+            this.totalWeightedDeltaY = new float[length];
+            this.positions = new long[length];
+        }
+
+        CoarseRows coarse(int numOfNodes) {
+            if (coarse == null || coarse.topX.length < numOfNodes) {
+                coarse = new CoarseRows(numOfNodes);
+            }
+            return coarse;
+        }
+    }
+
+    /**
+     * Row access to positions, the backing array of a heap buffer or row copies of a mapped one
+     */
+    private static final class PositionRows {
+
+        private final long[] array;
+
+        private final int arrayOffset;
+
+        /**
+         * Private view, so concurrent bands never move each other's buffer position
+         */
+        private final LongBuffer view;
+
+        /**
+         * Index of the first requested position in the last returned row
+         */
+        int offset;
+
+        PositionRows(LongBuffer positions, int length) {
+            if (positions.hasArray()) {
+                this.array = positions.array();
+                this.arrayOffset = positions.arrayOffset();
+                this.view = null;
+            } else {
+                this.array = new long[length];
+                this.arrayOffset = 0;
+                this.view = positions.duplicate();
+            }
+        }
+
+        /**
+         * Get the row that starts at a buffer index
+         * @param index buffer index of the first position as integer
+         * @return positions, the one at index sits at offset
+         */
+        long[] row(int index) {
+            if (view == null) {
+                offset = arrayOffset + index;
+            } else {
+                view.position(index);
+                view.get(array, 0, Math.min(array.length, view.remaining()));
+                offset = 0;
+            }
+            return array;
+        }
+    }
+
+    /**
+     * Displacements of the grid nodes above and below the current cell row
+     */
+    private static final class CoarseRows {
+
+        float[] topX, topY, bottomX, bottomY;
+
+        /**
+         * Cells to map per pixel
+         */
+        final boolean[] refine;
+
+        /**
+         * Scratch for a single node and its displacement
+         */
+        final RowBuffer node = new RowBuffer(1);
+
+        float nodeDeltaX, nodeDeltaY;
+
+        /**
+         * Cell row and cell columns the nodes belong to
+         */
+        int cellY = -2, firstCell, numOfCells;
+
+        CoarseRows(int numOfNodes) {
+            this.topX = new float[numOfNodes];
+            this.topY = new float[numOfNodes];
+            this.bottomX = new float[numOfNodes];
+            this.bottomY = new float[numOfNodes];
+            this.refine = new boolean[numOfNodes];
+        }
+
+        /**
+         * Moving down one cell row, the bottom nodes become the top ones
+         */
+        void swapIfNextRow(boolean isNextRow) {
+            if (isNextRow) {
+                float[] x = topX, y = topY;
+                topX = bottomX;
+                topY = bottomY;
+                bottomX = x;
+                bottomY = y;
+            }
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.example.imagemorpher.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Long-lived worker pool for warping
+ * A frame is split into bands of rows that are forked onto a work-stealing pool,
+ * so idle workers pick up bands from busy ones instead of waiting on a fixed split
+ * Independent frames can also be produced concurrently, see runAll
+ */
+public class WarpScheduler {
+
+    /**
+     * Bands are not split below this many rows
+     */
+    static final int BAND_HEIGHT = 8;
+
+    /**
+     * Number of tasks to aim for per worker, so stealing can even out uneven frames
+     */
+    static final int TASKS_PER_WORKER = 4;
+
+    /**
+     * Process-wide scheduler shared by every morph
+     */
+    private static WarpScheduler shared;
+
+    /**
+     * Work-stealing pool
+     */
+    private final ForkJoinPool pool;
+
+    public WarpScheduler(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Get the shared scheduler, sized to the number of available processors
+     * @return shared scheduler
+     */
+    public static synchronized WarpScheduler getShared() {
+        if (shared == null) {
+            shared = new WarpScheduler(Runtime.getRuntime().availableProcessors());
+        }
+        return shared;
+    }
+
+    /**
+     * Stop the workers of a scheduler that is no longer used, never call it on the shared one
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Warp a whole frame on the pool and wait for it to finish
+     *
+     * @param engine warp engine of the frame size
+     * @param sourcePixels source image pixels as int[]
+     * @param sourceLines control lines of the source image
+     * @param destinationPixels output pixels as int[]
+     * @param destinationLines control lines of the output image
+     */
+    public void warp(WarpEngine engine, int[] sourcePixels, LineTable sourceLines,
+                     int[] destinationPixels, LineTable destinationLines) {
+        run(engine.getHeight(), warpKernel(engine, sourcePixels, sourceLines, destinationLines), destinationPixels);
+    }
+
+    /**
+     * Run a kernel over a whole frame on the pool and wait for it to finish
+     *
+     * @param height image height as integer
+     * @param kernel per-band work
+     * @param output output pixels as int[]
+     */
+    public void run(int height, BandKernel kernel, int[] output) {
+        pool.invoke(new BandTask(kernel, output, 0, height, BAND_HEIGHT, null));
+    }
+
+    /**
+     * Run many independent frames and deliver them in order
+     * Frames are submitted in order and picked up first come first served, while the caller
+     * joins them in order, so frame i reaches the sink as soon as frames 0..i are done
+     * At most parallelism + 1 frames are rendering or waiting for the sink: frame i + that
+     * many is only submitted once frame i is handed over, so a sink that blocks, such as a
+     * full EncoderStage, holds the workers back instead of letting frames pile up
+     * Chooses frame-level, band-level or mixed parallelism from the number of frames
+     * and the image height, see bandsPerFrame
+     *
+     * @param width image width as integer
+     * @param height image height as integer
+     * @param kernels one kernel per frame
+     * @param control cancellation and progress, may be null
+     * @param sink receives every finished frame on the calling thread
+     * @throws java.util.concurrent.CancellationException if the control is cancelled
+     * @throws RuntimeException the exception a frame or the sink threw, the buffers of frames
+     *         not handed over go back to the BufferPool
+     */
+    public void runAll(int width, int height, List<BandKernel> kernels, RenderControl control, FrameSink sink) {
+        int bandsPerFrame = bandsPerFrame(kernels.size(), height, getParallelism());
+        int bandHeight = (height + bandsPerFrame - 1) / bandsPerFrame;
+        if (control != null) {
+            control.addTotalRows(kernels.size() * height);
+        }
+        List<FrameTask> tasks = new ArrayList<>(kernels.size());
+        for (BandKernel kernel : kernels) {
+            tasks.add(new FrameTask(kernel, width, height, bandHeight, control));
+        }
+        int maxFramesInFlight = getParallelism() + 1;
+        int numOfSubmitted = 0;
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                while (numOfSubmitted < tasks.size() && numOfSubmitted < i + maxFramesInFlight) {
+                    pool.execute(tasks.get(numOfSubmitted++));
+                }
+                FrameTask task = tasks.get(i);
+                task.join();
+                sink.onFrame(i, task.takeOutput());
+            }
+        } catch (RuntimeException e) {
+            //Drop the frames nobody has started yet, the others give their buffers back once done
+            for (int i = 0; i < numOfSubmitted; i++) {
+                tasks.get(i).cancel(false);
+                tasks.get(i).abandon();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Run independent tasks on the pool and wait for all of them
+     *
+     * @param tasks the tasks
+     * @throws RuntimeException the exception a failing task threw, the others may be cancelled
+     */
+    public void runTasks(List<? extends Runnable> tasks) {
+        List<ForkJoinTask<?>> adapted = new ArrayList<>(tasks.size());
+        for (Runnable task : tasks) {
+            adapted.add(ForkJoinTask.adapt(task));
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(adapted);
+            }
+        });
+    }
+
+    /**
+     * Run frames one after another on the calling thread, for when threading is off
+     *
+     * @param width image width as integer
+     * @param height image height as integer
+     * @param kernels one kernel per frame
+     * @param control cancellation and progress, may be null
+     * @param sink receives every finished frame
+     * @throws java.util.concurrent.CancellationException if the control is cancelled
+     */
+    public static void runSequentially(int width, int height, List<BandKernel> kernels, RenderControl control, FrameSink sink) {
+        if (control != null) {
+            control.addTotalRows(kernels.size() * height);
+        }
+        for (int i = 0; i < kernels.size(); i++) {
+            int[] output = BufferPool.getShared().acquire(width * height);
+            runTiles(kernels.get(i), output, 0, height, control);
+            sink.onFrame(i, output);
+        }
+    }
+
+    /**
+     * Run rows [startY, endY) in tiles of BAND_HEIGHT rows, checking for cancellation
+     * before each tile and reporting each finished tile
+     *
+     * @param kernel per-band work
+     * @param output output pixels as int[]
+     * @param startY the start y as int
+     * @param endY the end y (exclusive) as int
+     * @param control cancellation and progress, may be null
+     */
+    private static void runTiles(BandKernel kernel, int[] output, int startY, int endY, RenderControl control) {
+        if (control == null) {
+            kernel.run(output, startY, endY);
+            return;
+        }
+        for (int y = startY; y < endY; y += BAND_HEIGHT) {
+            control.checkCancelled();
+            int tileEndY = Math.min(y + BAND_HEIGHT, endY);
+            kernel.run(output, y, tileEndY);
+            control.tileDone(tileEndY - y);
+        }
+    }
+
+    /**
+     * Decide how many bands each frame is split into
+     * Many frames: one task per frame (frame-level)
+     * Few frames: split each frame until there are enough tasks for every worker (mixed or band-level)
+     * Bands never get thinner than BAND_HEIGHT rows, so small images stay frame-level
+     *
+     * @param numOfFrames number of frames as integer
+     * @param height image height as integer
+     * @param parallelism number of workers as integer
+     * @return bands per frame as integer
+     */
+    static int bandsPerFrame(int numOfFrames, int height, int parallelism) {
+        int targetTasks = parallelism * TASKS_PER_WORKER;
+        int bands = (targetTasks + numOfFrames - 1) / Math.max(numOfFrames, 1);
+        int maxBands = Math.max(1, height / BAND_HEIGHT);
+        return Math.max(1, Math.min(bands, maxBands));
+    }
+
+    /**
+     * Create a kernel that warps rows of the whole image width
+     *
+     * @param engine warp engine of the frame size
+     * @param sourcePixels source image pixels as int[]
+     * @param sourceLines control lines of the source image
+     * @param destinationLines control lines of the output image
+     * @return the kernel
+     */
+    public static BandKernel warpKernel(WarpEngine engine, int[] sourcePixels, LineTable sourceLines, LineTable destinationLines) {
+        return (output, startY, endY) -> engine.warp(sourcePixels, sourceLines, output, destinationLines,
+                0, startY, engine.getWidth(), endY);
+    }
+
+    public int getParallelism() { return pool.getParallelism(); }
+
+    /**
+     * Produces rows [startY, endY) of a frame
+     * Output buffers may be reused, so a kernel writes every pixel of its rows
+     */
+    public interface BandKernel {
+        void run(int[] output, int startY, int endY);
+    }
+
+    /**
+     * Receives finished frames in order
+     * The pixel buffer belongs to the sink once handed over; frame buffers come from the
+     * shared BufferPool, so a sink that copies them out can release them there
+     */
+    public interface FrameSink {
+        void onFrame(int index, int[] pixels);
+    }
+
+    /**
+     * Fill one frame into its own buffer and hold it until the caller takes it
+     */
+    private static class FrameTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final BandKernel kernel;
+        private final int width, height, bandHeight;
+        private final RenderControl control;
+        private int[] output;
+
+        /**
+         * Set once the caller gave up on the frame, its buffer goes back to the pool
+         */
+        private boolean isAbandoned;
+
+        FrameTask(BandKernel kernel, int width, int height, int bandHeight, RenderControl control) {
+            this.kernel = kernel;
+            this.width = width;
+            this.height = height;
+            this.bandHeight = bandHeight;
+            this.control = control;
+        }
+
+        @Override
+        protected void compute() {
+            if (control != null) {
+                control.checkCancelled();
+            }
+            BufferPool bufferPool = BufferPool.getShared();
+            int[] pixels = bufferPool.acquire(width * height);
+            try {
+                new BandTask(kernel, pixels, 0, height, bandHeight, control).compute();
+            } catch (RuntimeException e) {
+                bufferPool.release(pixels);
+                throw e;
+            }
+            synchronized (this) {
+                if (isAbandoned) {
+                    bufferPool.release(pixels);
+                } else {
+                    output = pixels;
+                }
+            }
+        }
+
+        /**
+         * Hand the finished buffer over, so the task no longer keeps it alive
+         * @return pixels as int[]
+         */
+        synchronized int[] takeOutput() {
+            int[] pixels = output;
+            output = null;
+            return pixels;
+        }
+
+        /**
+         * Give the buffer back to the pool, now or once the frame is done
+         */
+        synchronized void abandon() {
+            isAbandoned = true;
+            if (output != null) {
+                BufferPool.getShared().release(output);
+                output = null;
+            }
+        }
+    }
+
+    /**
+     * Run rows [startY, endY), splitting in halves until a band is small enough
+     */
+    private static class BandTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final BandKernel kernel;
+        private final int[] output;
+        private final int startY, endY, bandHeight;
+        private final RenderControl control;
+
+        BandTask(BandKernel kernel, int[] output, int startY, int endY, int bandHeight, RenderControl control) {
+            this.kernel = kernel;
+            this.output = output;
+            this.startY = startY;
+            this.endY = endY;
+            this.bandHeight = bandHeight;
+            this.control = control;
+        }
+
+        @Override
+        protected void compute() {
+            if (endY - startY <= bandHeight) {
+                runTiles(kernel, output, startY, endY, control);
+                return;
+            }
+            int midY = (startY + endY) >>> 1;
+            invokeAll(new BandTask(kernel, output, startY, midY, bandHeight, control),
+                    new BandTask(kernel, output, midY, endY, bandHeight, control));
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.imagemorpher.engine;
+
+/**
+ * Beier-Neely line weight (length^P / (A + d))^B
+ * length^P is cached per line in LineTable, so a weight function only sees
+ * lengthPow and d; create picks a specialization for B so that the warp loop
+ * runs without Math.pow
+ */
+public abstract class WeightFunction {
+
+    /**
+     * Largest integer exponent evaluated by repeated multiplication
+     */
+    static final int MAX_INTEGER_EXPONENT = 16;
+
+    /**
+     * Weight calculation parameters
+     */
+    final float p, a, b;
+
+    WeightFunction(float p, float a, float b) {
+        this.p = p;
+        this.a = a;
+        this.b = b;
+    }
+
+    /**
+     * Calculate the weight of a line
+     * @param lengthPow length of the line to the power of P as float
+     * @param d distance from the pixel to the line as float
+     * @return weight as float
+     */
+    public abstract float weight(float lengthPow, float d);
+
+    /**
+     * Create a weight function, fractional B is evaluated with Math.pow
+     * @param p length exponent as float
+     * @param a distance offset as float
+     * @param b falloff exponent as float
+     * @return weight function
+     */
+    public static WeightFunction create(float p, float a, float b) {
+        return create(p, a, b, false);
+    }
+
+    /**
+     * Create a weight function
+     * @param p length exponent as float
+     * @param a distance offset as float
+     * @param b falloff exponent as float
+     * @param useLookupTable evaluate fractional B with a lookup table instead of Math.pow
+     * @return weight function
+     */
+    public static WeightFunction create(float p, float a, float b, boolean useLookupTable) {
+        if (b == 2) {
+            return new ReciprocalSquare(p, a);
+        } else if (b == 1) {
+            return new Reciprocal(p, a);
+        } else if (b == (int) b && b >= 0 && b <= MAX_INTEGER_EXPONENT) {
+            return new IntegerPower(p, a, (int) b);
+        } else if (useLookupTable) {
+            return new LookupPower(p, a, b);
+        }
+        return new Power(p, a, b);
+    }
+
+    public float getP() { return p; }
+
+    /**
+     * Base of the fractional powers, shared so Power and LookupPower agree
+     * A negative A can make A + d negative near a line; it is clamped to the smallest
+     * positive float, so the weight stays defined and large instead of turning into NaN
+     * @param lengthPow length of the line to the power of P as float
+     * @param d distance from the pixel to the line as float
+     * @return lengthPow / (A + d), never negative, as float
+     */
+    float base(float lengthPow, float d) {
+        return lengthPow / Math.max(a + d, Float.MIN_NORMAL);
+    }
+
+    /**
+     * B = 2, the default: a reciprocal square
+     */
+    static class ReciprocalSquare extends WeightFunction {
+
+        ReciprocalSquare(float p, float a) {
+            super(p, a, 2);
+        }
+
+        @Override
+        public float weight(float lengthPow, float d) {
+            float r = lengthPow / (a + d);
+            return r * r;
+        }
+    }
+
+    /**
+     * B = 1
+     */
+    static class Reciprocal extends WeightFunction {
+
+        Reciprocal(float p, float a) {
+            super(p, a, 1);
+        }
+
+        @Override
+        public float weight(float lengthPow, float d) {
+            return lengthPow / (a + d);
+        }
+    }
+
+    /**
+     * Integer B, exponentiation by squaring
+     */
+    static class IntegerPower extends WeightFunction {
+
+        private final int exponent;
+
+        IntegerPower(float p, float a, int exponent) {
+            super(p, a, exponent);
+            this.exponent = exponent;
+        }
+
+        @Override
+        public float weight(float lengthPow, float d) {
+            float r = lengthPow / (a + d);
+            float result = 1;
+            for (int e = exponent; e > 0; e >>= 1) {
+                if ((e & 1) != 0) {
+                    result *= r;
+                }
+                r *= r;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Fractional B through Math.pow, exact but slow
+     */
+    static class Power extends WeightFunction {
+
+        Power(float p, float a, float b) {
+            super(p, a, b);
+        }
+
+        @Override
+        public float weight(float lengthPow, float d) {
+            return (float) Math.pow(base(lengthPow, d), b);
+        }
+    }
+
+    /**
+     * Fractional B through lookup tables
+     * r = m * 2^e with m in [1, 2), so r^B = m^B * 2^(e * B): m^B is linearly interpolated
+     * from a table over the mantissa and 2^(e * B) is read from a table over the exponent
+     * Relative error is below 1e-4 for B up to 8
+     */
+    static class LookupPower extends WeightFunction {
+
+        /**
+         * Mantissa table resolution in bits
+         */
+        static final int MANTISSA_BITS = 10;
+
+        private final float[] mantissaPow;
+
+        private final float[] exponentPow;
+
+        LookupPower(float p, float a, float b) {
+            super(p, a, b);
+            int size = 1 << MANTISSA_BITS;
+            this.mantissaPow = new float[size + 1];
+            for (int i = 0; i <= size; i++) {
+                mantissaPow[i] = (float) Math.pow(1 + (double) i / size, b);
+            }
+            //Biased float exponents 0..255
+            this.exponentPow = new float[256];
+            for (int e = 0; e < 256; e++) {
+                exponentPow[e] = (float) Math.pow(2, (e - 127) * (double) b);
+            }
+        }
+
+        @Override
+        public float weight(float lengthPow, float d) {
+            float r = base(lengthPow, d);
+            int bits = Float.floatToRawIntBits(r);
+            int exponent = (bits >>> 23) & 0xFF;
+            if (exponent == 0 || exponent == 0xFF) {
+                //Zero, denormal, infinity or NaN
+                return (float) Math.pow(r, b);
+            }
+            int mantissa = bits & 0x7FFFFF;
+            int index = mantissa >>> (23 - MANTISSA_BITS);
+            float fraction = (mantissa & ((1 << (23 - MANTISSA_BITS)) - 1)) * (1f / (1 << (23 - MANTISSA_BITS)));
+            float m = mantissaPow[index] + (mantissaPow[index + 1] - mantissaPow[index]) * fraction;
+            return m * exponentPow[exponent];
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.imagemorpher.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * JVM unit tests for the pixel buffer pool and the frame memory budget
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void releasedBuffer_isReusedForTheSameLength() {
+        BufferPool pool = new BufferPool(1024);
+        int[] buffer = pool.acquire(16);
+        pool.release(buffer);
+
+        assertNotSame(buffer, pool.acquire(8));
+        assertSame(buffer, pool.acquire(16));
+        assertEquals(0, pool.size());
+    }
+
+    @Test
+    public void fullPool_dropsOtherLengthsFirst() {
+        BufferPool pool = new BufferPool(3 * 16 * Integer.BYTES);
+        int[] small = new int[16];
+        int[] large = new int[32];
+        pool.release(small);
+        pool.release(new int[16]);
+        pool.release(large);
+        //No room left for another large buffer
+        pool.release(new int[32]);
+
+        assertEquals(32 * Integer.BYTES, pool.size());
+        assertSame(large, pool.acquire(32));
+        assertNotSame(small, pool.acquire(16));
+    }
+
+    @Test
+    public void fitSize_shrinksFramesIntoTheBudget() {
+        assertArrayEquals(new int[]{256, 128}, MemoryBudget.fitSize(256, 128, 10, 256L * 128 * 10 * Integer.BYTES));
+
+        long budget = 256L * 128 * 10 * Integer.BYTES / 4;
+        int[] size = MemoryBudget.fitSize(256, 128, 10, budget);
+        assertArrayEquals(new int[]{128, 64}, size);
+        int[] tight = MemoryBudget.fitSize(300, 200, 61, 5_000_000);
+        assertTrue((long) tight[0] * tight[1] * 61 * Integer.BYTES <= 5_000_000);
+        assertEquals(1.5f, (float) tight[0] / tight[1], 0.02f);
+        assertArrayEquals(new int[]{1, 1}, MemoryBudget.fitSize(300, 200, 61, 0));
+    }
+}
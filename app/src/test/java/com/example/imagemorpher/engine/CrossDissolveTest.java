@@ -0,0 +1,50 @@
+package com.example.imagemorpher.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * JVM unit tests for the fixed-point cross-dissolve
+ */
+public class CrossDissolveTest {
+
+    @Test
+    public void weights_alwaysAddUpToOne() {
+        for (int total = 2; total < 40; total++) {
+            for (int i = 0; i < total; i++) {
+                assertEquals(CrossDissolve.WEIGHT_ONE,
+                        CrossDissolve.forwardWeight(i, total) + CrossDissolve.reverseWeight(i, total));
+            }
+        }
+    }
+
+    @Test
+    public void blend_keepsOpaqueAndSamePixels() {
+        for (int weight = 0; weight <= CrossDissolve.WEIGHT_ONE; weight++) {
+            int pixel = 0xFF00FF80;
+            assertEquals(pixel, CrossDissolve.blend(pixel, pixel, weight, CrossDissolve.WEIGHT_ONE - weight));
+            int blended = CrossDissolve.blend(0xFF000000, 0xFFFFFFFF, weight, CrossDissolve.WEIGHT_ONE - weight);
+            assertEquals(0xFF, blended >>> 24);
+        }
+    }
+
+    @Test
+    public void blend_halfwayAveragesEveryChannelIncludingAlpha() {
+        int half = CrossDissolve.WEIGHT_ONE / 2;
+
+        assertEquals(0x7F403020, CrossDissolve.blend(0xFF806040, 0x00000000, half, half));
+        assertEquals(0x7F7F7F7F, CrossDissolve.blend(0xFFFFFFFF, 0x00000000, half, half));
+    }
+
+    @Test
+    public void blendRow_onlyTouchesTheRun() {
+        int[] forward = {1, 2, 3, 4};
+        int[] reverse = {5, 6, 7, 8};
+        int[] output = new int[4];
+
+        CrossDissolve.blendRow(forward, reverse, output, 1, 2, CrossDissolve.WEIGHT_ONE, 0);
+
+        assertArrayEquals(new int[]{0, 2, 3, 0}, output);
+    }
+}
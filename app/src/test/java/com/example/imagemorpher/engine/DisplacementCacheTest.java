@@ -0,0 +1,97 @@
+package com.example.imagemorpher.engine;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.example.imagemorpher.engine.TestData.image;
+import static com.example.imagemorpher.engine.TestData.render;
+import static org.junit.Assert.*;
+
+/**
+ * JVM unit tests for the displacement field cache
+ */
+public class DisplacementCacheTest {
+
+    private static final int WIDTH = 32, HEIGHT = 24, NUM_OF_FRAMES = 3;
+
+    private static LineTable line(float startX, float startY, float endX, float endY) {
+        LineTable lines = new LineTable(1);
+        lines.set(0, startX, startY, endX, endY);
+        return lines;
+    }
+
+    @Test
+    public void knownTemplate_isGatheredFromTheCache() {
+        WarpEngine engine = new WarpEngine(WIDTH, HEIGHT, 0, 0.001f, 2);
+        LineTable[] frameLines = LineTable.interpolate(line(4, 4, 20, 6), line(8, 10, 28, 12), NUM_OF_FRAMES);
+        DisplacementCache cache = new DisplacementCache(1 << 20);
+
+        List<int[]> first = render(new MorphRenderer(engine, frameLines, cache), image(WIDTH, HEIGHT, 3), image(WIDTH, HEIGHT, 5));
+        assertEquals(NUM_OF_FRAMES + 2, cache.count());
+        DisplacementCache.Key key = DisplacementCache.Key.of(engine, frameLines[0], frameLines[NUM_OF_FRAMES + 1], NUM_OF_FRAMES + 2, 1);
+        DisplacementField field = cache.get(key);
+        //Another image pair with the same lines
+        List<int[]> second = render(new MorphRenderer(engine, frameLines, cache), image(WIDTH, HEIGHT, 7), image(WIDTH, HEIGHT, 11));
+
+        assertSame(field, cache.get(key));
+        List<int[]> expectedFirst = render(new MorphRenderer(engine, frameLines), image(WIDTH, HEIGHT, 3), image(WIDTH, HEIGHT, 5));
+        List<int[]> expectedSecond = render(new MorphRenderer(engine, frameLines), image(WIDTH, HEIGHT, 7), image(WIDTH, HEIGHT, 11));
+        for (int i = 0; i < NUM_OF_FRAMES + 2; i++) {
+            assertArrayEquals("frame " + i, expectedFirst.get(i), first.get(i));
+            assertArrayEquals("frame " + i, expectedSecond.get(i), second.get(i));
+        }
+    }
+
+    @Test
+    public void morphLargerThanBudget_bypassesTheCache() {
+        WarpEngine engine = new WarpEngine(WIDTH, HEIGHT, 0, 0.001f, 2);
+        LineTable[] frameLines = LineTable.interpolate(line(4, 4, 20, 6), line(8, 10, 28, 12), NUM_OF_FRAMES);
+        //Room for every field but one
+        long fieldSize = new DisplacementField(WIDTH, HEIGHT, true, true).sizeInBytes();
+        DisplacementCache cache = new DisplacementCache((NUM_OF_FRAMES + 1) * fieldSize - 1);
+
+        List<int[]> frames = render(new MorphRenderer(engine, frameLines, cache), image(WIDTH, HEIGHT, 3), image(WIDTH, HEIGHT, 5));
+
+        assertFalse(cache.canHold(WIDTH, HEIGHT, NUM_OF_FRAMES + 2));
+        assertEquals(0, cache.count());
+        List<int[]> expected = render(new MorphRenderer(engine, frameLines), image(WIDTH, HEIGHT, 3), image(WIDTH, HEIGHT, 5));
+        for (int i = 0; i < NUM_OF_FRAMES + 2; i++) {
+            assertArrayEquals("frame " + i, expected.get(i), frames.get(i));
+        }
+    }
+
+    @Test
+    public void overBudget_evictsLeastRecentlyUsed() {
+        WarpEngine engine = new WarpEngine(WIDTH, HEIGHT, 0, 0.001f, 2);
+        LineTable lines = line(4, 4, 20, 6);
+        long fieldSize = new DisplacementField(WIDTH, HEIGHT, true, true).sizeInBytes();
+        DisplacementCache cache = new DisplacementCache(2 * fieldSize);
+        DisplacementCache.Key[] keys = new DisplacementCache.Key[3];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = DisplacementCache.Key.of(engine, lines, lines, 5, i);
+        }
+
+        cache.put(keys[0], new DisplacementField(WIDTH, HEIGHT, true, true));
+        cache.put(keys[1], new DisplacementField(WIDTH, HEIGHT, true, true));
+        cache.get(keys[0]);
+        cache.put(keys[2], new DisplacementField(WIDTH, HEIGHT, true, true));
+
+        assertNotNull(cache.get(keys[0]));
+        assertNull(cache.get(keys[1]));
+        assertNotNull(cache.get(keys[2]));
+        assertEquals(2 * fieldSize, cache.size());
+    }
+
+    @Test
+    public void key_coversLinesAndResolution() {
+        LineTable lines = line(4, 4, 20, 6);
+        WarpEngine engine = new WarpEngine(WIDTH, HEIGHT, 0, 0.001f, 2);
+        DisplacementCache.Key key = DisplacementCache.Key.of(engine, lines, lines, 5, 1);
+
+        assertEquals(key, DisplacementCache.Key.of(engine, line(4, 4, 20, 6), line(4, 4, 20, 6), 5, 1));
+        assertNotEquals(key, DisplacementCache.Key.of(engine, lines, line(4, 4, 20, 7), 5, 1));
+        assertNotEquals(key, DisplacementCache.Key.of(new WarpEngine(WIDTH, HEIGHT + 1, 0, 0.001f, 2), lines, lines, 5, 1));
+        assertNotEquals(key, DisplacementCache.Key.of(engine, lines, lines, 6, 1));
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.imagemorpher.engine;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static com.example.imagemorpher.engine.TestData.image;
+import static com.example.imagemorpher.engine.TestData.render;
+import static org.junit.Assert.*;
+
+/**
+ * JVM unit tests for displacement fields on disk
+ */
+public class DisplacementFileTest {
+
+    private static final int WIDTH = 32, HEIGHT = 24, NUM_OF_FRAMES = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static LineTable[] frameLines(float endY) {
+        LineTable source = new LineTable(1);
+        source.set(0, 4, 4, 20, 6);
+        LineTable destination = new LineTable(1);
+        destination.set(0, 8, 10, 28, endY);
+        return LineTable.interpolate(source, destination, NUM_OF_FRAMES);
+    }
+
+    private static DisplacementCache.Key key(WarpEngine engine, LineTable[] lines) {
+        return DisplacementCache.Key.of(engine, lines[0], lines[lines.length - 1], lines.length, 0);
+    }
+
+    @Test
+    public void storedTemplate_isMappedByTheNextProcess() throws IOException {
+        WarpEngine engine = new WarpEngine(WIDTH, HEIGHT, 0, 0.001f, 2);
+        LineTable[] lines = frameLines(12);
+        DisplacementCache cache = new DisplacementCache(1 << 20);
+        cache.setStoreDirectory(folder.getRoot());
+        render(new MorphRenderer(engine, lines, cache), image(WIDTH, HEIGHT, 3), image(WIDTH, HEIGHT, 5));
+        assertTrue(cache.storeFile(key(engine, lines)).isFile());
+
+        //A fresh cache stands in for a restart
+        DisplacementCache restarted = new DisplacementCache(1 << 20);
+        restarted.setStoreDirectory(folder.getRoot());
+        List<int[]> frames = render(new MorphRenderer(engine, lines, restarted), image(WIDTH, HEIGHT, 7), image(WIDTH, HEIGHT, 11));
+
+        //Mapped fields are read from the file, not kept against the heap budget
+        assertNull(restarted.get(key(engine, lines).frame(1)));
+        List<int[]> expected = render(new MorphRenderer(engine, lines), image(WIDTH, HEIGHT, 7), image(WIDTH, HEIGHT, 11));
+        for (int i = 0; i < NUM_OF_FRAMES + 2; i++) {
+            assertArrayEquals("frame " + i, expected.get(i), frames.get(i));
+        }
+    }
+
+    @Test
+    public void otherTemplateOrTruncatedFile_isNotRead() throws IOException {
+        WarpEngine engine = new WarpEngine(WIDTH, HEIGHT, 0, 0.001f, 2);
+        LineTable[] lines = frameLines(12);
+        DisplacementCache cache = new DisplacementCache(1 << 20);
+        cache.setStoreDirectory(folder.getRoot());
+        render(new MorphRenderer(engine, lines, cache), image(WIDTH, HEIGHT, 3), image(WIDTH, HEIGHT, 5));
+        File file = cache.storeFile(key(engine, lines));
+
+        assertNotNull(DisplacementFile.read(file, key(engine, lines)));
+        assertNull(DisplacementFile.read(file, key(engine, frameLines(13))));
+        assertNull(DisplacementFile.read(file, key(new WarpEngine(WIDTH, HEIGHT + 1, 0, 0.001f, 2), lines)));
+        assertNull(DisplacementFile.read(new File(folder.getRoot(), "missing.bin"), key(engine, lines)));
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.setLength(output.length() - Long.BYTES);
+        }
+        assertNull(DisplacementFile.read(file, key(engine, lines)));
+    }
+
+    @Test
+    public void fullStore_deletesTheLeastRecentlyUsedTemplates() throws IOException {
+        WarpEngine engine = new WarpEngine(WIDTH, HEIGHT, 0, 0.001f, 2);
+        DisplacementCache cache = new DisplacementCache(1 << 20);
+        cache.setStoreDirectory(folder.getRoot());
+        File[] files = new File[3];
+        for (int i = 0; i < files.length; i++) {
+            LineTable[] lines = frameLines(12 + i);
+            render(new MorphRenderer(engine, lines, cache), image(WIDTH, HEIGHT, 3), image(WIDTH, HEIGHT, 5));
+            files[i] = cache.storeFile(key(engine, lines));
+            files[i].setLastModified(1000L * (i + 1));
+        }
+        //Reading the oldest template makes it the most recently used
+        cache.clear();
+        render(new MorphRenderer(engine, frameLines(12), cache), image(WIDTH, HEIGHT, 3), image(WIDTH, HEIGHT, 5));
+
+        cache.setStoreDirectory(folder.getRoot(), 2 * files[0].length());
+        cache.trimStore();
+
+        assertTrue(files[0].isFile());
+        assertFalse(files[1].isFile());
+        assertTrue(files[2].isFile());
+    }
+
+    @Test
+    public void staleTemporaryFiles_areDeletedWithTheStoreDirectory() throws IOException {
+        File stale = folder.newFile("template-1234abcd.bin.5678.tmp");
+        File other = folder.newFile("notes.tmp");
+
+        new DisplacementCache(1 << 20).setStoreDirectory(folder.getRoot());
+
+        assertFalse(stale.exists());
+        assertTrue(other.exists());
+    }
+
+    @Test
+    public void writersOfOneTemplate_writeTheirOwnTemporaryFiles() throws IOException {
+        WarpEngine engine = new WarpEngine(WIDTH, HEIGHT, 0, 0.001f, 2);
+        DisplacementCache.Key key = key(engine, frameLines(12));
+        File file = new File(folder.getRoot(), DisplacementFile.fileName(key));
+        DisplacementFile.Writer first = new DisplacementFile.Writer(file, key);
+        DisplacementFile.Writer second = new DisplacementFile.Writer(file, key);
+
+        String[] names = folder.getRoot().list();
+        assertEquals(2, names.length);
+        for (String name : names) {
+            assertTrue(name, DisplacementFile.isTemporary(name));
+        }
+        first.abort();
+        second.abort();
+        assertEquals(0, folder.getRoot().list().length);
+    }
+}
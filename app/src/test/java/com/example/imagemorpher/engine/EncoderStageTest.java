@@ -0,0 +1,128 @@
+package com.example.imagemorpher.engine;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * JVM unit tests for the export stage between renderer and encoder
+ */
+public class EncoderStageTest {
+
+    /**
+     * Records the first pixel of every frame and the thread it was encoded on
+     */
+    private static class RecordingEncoder implements FrameEncoder {
+
+        final List<Integer> frames = Collections.synchronizedList(new ArrayList<>());
+
+        volatile Thread encoderThread;
+
+        volatile boolean isFinished;
+
+        int failAt = -1;
+
+        @Override
+        public void addFrame(int[] pixels) throws IOException {
+            encoderThread = Thread.currentThread();
+            if (frames.size() == failAt) {
+                throw new IOException("Disk full");
+            }
+            frames.add(pixels[0]);
+        }
+
+        @Override
+        public void addFrame(TileRenderer.PixelSource frame) throws IOException {
+            int[] pixel = new int[1];
+            frame.read(0, 0, 1, 1, pixel);
+            addFrame(pixel);
+        }
+
+        @Override
+        public void finish() {
+            isFinished = true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void renderedFrames_areEncodedInOrderOffTheRenderThread() throws IOException {
+        int width = 16, height = 12;
+        WarpEngine engine = new WarpEngine(width, height, 0, 0.001f, 2);
+        LineTable source = new LineTable(1);
+        source.set(0, 2, 2, 10, 4);
+        LineTable destination = new LineTable(1);
+        destination.set(0, 4, 8, 14, 6);
+        int[] sourcePixels = new int[width * height];
+        int[] destinationPixels = new int[width * height];
+        for (int i = 0; i < sourcePixels.length; i++) {
+            sourcePixels[i] = 0xFF000000 | i;
+            destinationPixels[i] = 0xFFFFFFFF - i;
+        }
+        LineTable[] frameLines = LineTable.interpolate(source, destination, 6);
+        List<Integer> expected = new ArrayList<>();
+        new MorphRenderer(engine, frameLines).render(sourcePixels, destinationPixels, null, null,
+                (index, pixels) -> expected.add(pixels[0]));
+
+        RecordingEncoder encoder = new RecordingEncoder();
+        BufferPool pool = new BufferPool(Long.MAX_VALUE);
+        EncoderStage stage = new EncoderStage(encoder, 1, pool);
+        new MorphRenderer(engine, frameLines).render(sourcePixels, destinationPixels, null, null, stage);
+        stage.finish();
+
+        assertEquals(expected, encoder.frames);
+        assertTrue(encoder.isFinished);
+        assertNotSame(Thread.currentThread(), encoder.encoderThread);
+        //Every frame went back to the pool once encoded
+        assertEquals((long) frameLines.length * width * height * Integer.BYTES, pool.size());
+    }
+
+    @Test
+    public void failedEncoder_stopsTheRenderAndSkipsTheTrailer() {
+        RecordingEncoder encoder = new RecordingEncoder();
+        encoder.failAt = 1;
+        BufferPool pool = new BufferPool(Long.MAX_VALUE);
+        EncoderStage stage = new EncoderStage(encoder, 1, pool);
+        try {
+            for (int i = 0; i < 100; i++) {
+                stage.onFrame(i, new int[]{i});
+            }
+            fail("Queued frames after the encoder failed");
+        } catch (UncheckedIOException expected) {
+            assertEquals("Disk full", expected.getCause().getMessage());
+        }
+        try {
+            stage.finish();
+            fail("Finished a failed file");
+        } catch (IOException expected) {
+            assertEquals("Disk full", expected.getMessage());
+        }
+        assertFalse(encoder.isFinished);
+        assertEquals(Collections.singletonList(0), encoder.frames);
+    }
+
+    @Test
+    public void abort_dropsQueuedFrames() {
+        RecordingEncoder encoder = new RecordingEncoder();
+        EncoderStage stage = new EncoderStage(encoder, 4, new BufferPool(Long.MAX_VALUE));
+        stage.onFrame(0, new int[]{0});
+        stage.abort();
+
+        assertFalse(encoder.isFinished);
+        try {
+            stage.onFrame(1, new int[]{1});
+            fail("Queued a frame after the abort");
+        } catch (IllegalStateException expected) {
+            //The encoder thread is gone
+        }
+    }
+}
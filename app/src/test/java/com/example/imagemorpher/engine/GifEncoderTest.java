@@ -0,0 +1,121 @@
+package com.example.imagemorpher.engine;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * JVM unit tests for the animated GIF encoder, decoded back with ImageIO
+ */
+public class GifEncoderTest {
+
+    private static final int WIDTH = 45, HEIGHT = 37;
+
+    private static byte[] encode(List<int[]> frames) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GifEncoder encoder = new GifEncoder(out, WIDTH, HEIGHT, 200)) {
+            for (int[] frame : frames) {
+                encoder.addFrame(frame);
+            }
+            encoder.finish();
+        }
+        return out.toByteArray();
+    }
+
+    private static List<int[]> decode(byte[] gif) throws IOException {
+        List<int[]> frames = new ArrayList<>();
+        ImageReader reader = ImageIO.getImageReadersByFormatName("gif").next();
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(gif))) {
+            reader.setInput(in);
+            int numOfFrames = reader.getNumImages(true);
+            for (int i = 0; i < numOfFrames; i++) {
+                BufferedImage image = reader.read(i);
+                assertEquals(WIDTH, image.getWidth());
+                assertEquals(HEIGHT, image.getHeight());
+                frames.add(image.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH));
+            }
+        } finally {
+            reader.dispose();
+        }
+        return frames;
+    }
+
+    @Test
+    public void fewColors_roundTripExactly() throws IOException {
+        //Channels whose 8 bits are their top 5 bits widened survive the 5-5-5 histogram
+        int[] levels = {0x00, 0x42, 0x84, 0xC6, 0xFF};
+        List<int[]> frames = new ArrayList<>();
+        for (int f = 0; f < 3; f++) {
+            int[] frame = new int[WIDTH * HEIGHT];
+            for (int i = 0; i < frame.length; i++) {
+                int color = (i / 7 + f * 11) % 125;
+                frame[i] = 0xFF000000 | levels[color / 25] << 16 | levels[color / 5 % 5] << 8 | levels[color % 5];
+            }
+            frames.add(frame);
+        }
+
+        List<int[]> decoded = decode(encode(frames));
+        assertEquals(frames.size(), decoded.size());
+        for (int f = 0; f < frames.size(); f++) {
+            assertArrayEquals("frame " + f, frames.get(f), decoded.get(f));
+        }
+    }
+
+    @Test
+    public void manyColors_stayCloseToTheFrame() throws IOException {
+        int[] frame = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                frame[y * WIDTH + x] = 0xFF000000 | (x * 255 / WIDTH) << 16 | (y * 255 / HEIGHT) << 8 | ((x + y) * 3 & 0xFF);
+            }
+        }
+        List<int[]> frames = new ArrayList<>();
+        frames.add(frame);
+
+        int[] decoded = decode(encode(frames)).get(0);
+        for (int i = 0; i < frame.length; i++) {
+            for (int shift = 0; shift < 24; shift += 8) {
+                int error = Math.abs((frame[i] >>> shift & 0xFF) - (decoded[i] >>> shift & 0xFF));
+                assertTrue("pixel " + i + " off by " + error, error <= 24);
+            }
+        }
+    }
+
+    @Test
+    public void largeFrame_resetsTheCodeTable() throws IOException {
+        //Noise fills the 4096 LZW codes many times over
+        int width = 300, height = 200;
+        int[] frame = new int[width * height];
+        int seed = 1;
+        for (int i = 0; i < frame.length; i++) {
+            seed = seed * 1103515245 + 12345;
+            frame[i] = 0xFF000000 | new int[]{0x000000, 0xFF0000, 0x00FF00, 0x0000FF, 0xFFFFFF}[(seed >>> 16) % 5];
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GifEncoder encoder = new GifEncoder(out, width, height, 100)) {
+            encoder.addFrame(frame);
+            encoder.finish();
+        }
+
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        assertArrayEquals(frame, image.getRGB(0, 0, width, height, null, 0, width));
+
+        //Read a strip at a time, the frame comes out byte for byte the same
+        ByteArrayOutputStream stripOut = new ByteArrayOutputStream();
+        try (GifEncoder encoder = new GifEncoder(stripOut, width, height, 100)) {
+            encoder.addFrame(TileRenderer.pixelSource(frame, width, height));
+            encoder.finish();
+        }
+        assertArrayEquals(out.toByteArray(), stripOut.toByteArray());
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.imagemorpher.engine;
+
+import org.junit.Test;
+
+import static com.example.imagemorpher.engine.TestData.indexImage;
+import static org.junit.Assert.*;
+
+/**
+ * JVM unit tests for the incremental warp
+ */
+public class IncrementalWarpTest {
+
+    private static final int WIDTH = 64, HEIGHT = 48;
+
+    private static final WeightFunction WEIGHT_FUNCTION = WeightFunction.create(0, 0.001f, 2);
+
+    /**
+     * Every pixel holds its own index, so the output tells where each pixel was sampled from
+     */
+    private static LineTable lines(float offset) {
+        LineTable lines = new LineTable(4);
+        lines.set(0, 10, 10, 40, 12);
+        lines.set(1, 30, 20, 35, 45);
+        lines.set(2, 50, 5, 55 + offset, 30);
+        lines.set(3, 5, 40, 20, 42);
+        return lines;
+    }
+
+    private static int[] fullWarp(LineTable source, LineTable destination) {
+        int[] expected = new int[WIDTH * HEIGHT];
+        new WarpEngine(WIDTH, HEIGHT, WEIGHT_FUNCTION, Sampler.NEAREST)
+                .warp(indexImage(WIDTH, HEIGHT), source, expected, destination, 0, 0, WIDTH, HEIGHT);
+        return expected;
+    }
+
+    @Test
+    public void firstWarp_matchesWarpEngine() {
+        LineTable source = lines(0);
+        LineTable destination = lines(4);
+        int[] output = new int[WIDTH * HEIGHT];
+
+        new IncrementalWarp(indexImage(WIDTH, HEIGHT), WIDTH, HEIGHT, WEIGHT_FUNCTION, Sampler.NEAREST)
+                .warp(source, destination, output, null);
+
+        assertArrayEquals(fullWarp(source, destination), output);
+    }
+
+    @Test
+    public void editedLine_matchesFullWarpUpToRounding() {
+        IncrementalWarp warp = new IncrementalWarp(indexImage(WIDTH, HEIGHT), WIDTH, HEIGHT, WEIGHT_FUNCTION, Sampler.NEAREST);
+        int[] output = new int[WIDTH * HEIGHT];
+        LineTable source = lines(0);
+        warp.warp(source, lines(4), output, null);
+        //Drag one end of line 2 over several edits
+        for (int edit = 1; edit <= 5; edit++) {
+            warp.warp(source, lines(4 + edit * 1.5f), output, null);
+        }
+
+        int[] expected = fullWarp(source, lines(4 + 5 * 1.5f));
+        int mismatches = 0;
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != output[i]) {
+                mismatches++;
+                assertEquals("x at " + i, expected[i] % WIDTH, output[i] % WIDTH, 1);
+                assertEquals("y at " + i, expected[i] / WIDTH, output[i] / WIDTH, 1);
+            }
+        }
+        assertTrue("mismatches " + mismatches, mismatches < expected.length / 100);
+    }
+
+    @Test
+    public void changedLines_findsOnlyTheEditedPair() {
+        LineTable source = lines(0);
+        assertArrayEquals(new int[]{2}, IncrementalWarp.changedLines(source, lines(0), source, lines(3)));
+        assertArrayEquals(new int[0], IncrementalWarp.changedLines(source, lines(3), lines(0), lines(3)));
+    }
+}
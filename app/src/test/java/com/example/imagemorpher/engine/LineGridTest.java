@@ -0,0 +1,75 @@
+package com.example.imagemorpher.engine;
+
+import org.junit.Test;
+
+import static com.example.imagemorpher.engine.TestData.indexImage;
+import static org.junit.Assert.*;
+
+/**
+ * JVM unit tests for spatial line culling
+ */
+public class LineGridTest {
+
+    private static final int WIDTH = 256, HEIGHT = 128;
+
+    private static final float P = 0, A = 0.001f, B = 2;
+
+    /**
+     * One short line in each corner of the left half and a long one across the right half
+     */
+    private static LineTable lines(float offset) {
+        LineTable lines = new LineTable(4);
+        lines.set(0, 10 + offset, 10, 30 + offset, 12);
+        lines.set(1, 12, 110 + offset, 34, 104 + offset);
+        lines.set(2, 100 + offset, 20, 104, 60 + offset);
+        lines.set(3, 150, 64 + offset, 250 - offset, 70);
+        return lines;
+    }
+
+    @Test
+    public void grid_dropsFarLinesButKeepsNearOnes() {
+        LineTable lines = lines(0);
+        WeightFunction weightFunction = WeightFunction.create(P, A, B);
+
+        LineGrid grid = lines.grid(WIDTH, HEIGHT, weightFunction, 0.01f);
+
+        //Cell on top of line 0
+        int cell = 0;
+        boolean hasLine0 = false, hasLine3 = false;
+        for (int j = grid.cellStart[cell]; j < grid.cellStart[cell + 1]; j++) {
+            hasLine0 |= grid.cellLines[j] == 0;
+            hasLine3 |= grid.cellLines[j] == 3;
+        }
+        assertTrue(hasLine0);
+        assertFalse(hasLine3);
+        for (int c = 0; c < grid.columns * grid.rows; c++) {
+            assertTrue("cell " + c, grid.cellStart[c + 1] > grid.cellStart[c]);
+        }
+        assertSame(grid, lines.grid(WIDTH, HEIGHT, weightFunction, 0.01f));
+    }
+
+    @Test
+    public void culledWarp_staysCloseToExactWarp() {
+        LineTable source = lines(0);
+        LineTable destination = lines(6);
+        WeightFunction weightFunction = WeightFunction.create(P, A, B);
+        int[] pixels = indexImage(WIDTH, HEIGHT);
+        int[] exact = new int[WIDTH * HEIGHT];
+        int[] culled = new int[WIDTH * HEIGHT];
+
+        new WarpEngine(WIDTH, HEIGHT, weightFunction, Sampler.NEAREST)
+                .warp(pixels, source, exact, destination, 0, 0, WIDTH, HEIGHT);
+        new WarpEngine(WIDTH, HEIGHT, weightFunction, Sampler.NEAREST, 0.001f)
+                .warp(pixels, source, culled, destination, 0, 0, WIDTH, HEIGHT);
+
+        for (int i = 0; i < exact.length; i++) {
+            assertEquals("x at " + i, exact[i] % WIDTH, culled[i] % WIDTH, 1);
+            assertEquals("y at " + i, exact[i] / WIDTH, culled[i] / WIDTH, 1);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tolerance_mustBeBelowOne() {
+        new WarpEngine(WIDTH, HEIGHT, WeightFunction.create(P, A, B), Sampler.NEAREST, 1);
+    }
+}
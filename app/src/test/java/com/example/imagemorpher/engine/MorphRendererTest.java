@@ -0,0 +1,48 @@
+package com.example.imagemorpher.engine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * JVM unit tests for the streaming morph renderer
+ */
+public class MorphRendererTest {
+
+    @Test
+    public void render_streamsEveryFrameInOrder() {
+        int width = 32, height = 24, numOfFrames = 6;
+        int[] sourcePixels = new int[width * height];
+        int[] destinationPixels = new int[width * height];
+        for (int i = 0; i < sourcePixels.length; i++) {
+            sourcePixels[i] = 0xFF000000 | i;
+            destinationPixels[i] = 0xFFFFFFFF - i;
+        }
+        LineTable source = new LineTable(1);
+        source.set(0, 4, 4, 20, 6);
+        LineTable destination = new LineTable(1);
+        destination.set(0, 8, 10, 28, 12);
+        MorphRenderer renderer = new MorphRenderer(new WarpEngine(width, height, 0, 0.001f, 2),
+                LineTable.interpolate(source, destination, numOfFrames));
+
+        List<int[]> sequential = new ArrayList<>();
+        renderer.render(sourcePixels, destinationPixels, null, null, (index, pixels) -> sequential.add(pixels));
+        List<Integer> order = new ArrayList<>();
+        List<int[]> threaded = new ArrayList<>();
+        renderer.render(sourcePixels, destinationPixels, new WarpScheduler(3), null, (index, pixels) -> {
+            order.add(index);
+            threaded.add(pixels);
+        });
+
+        assertEquals(numOfFrames + 2, sequential.size());
+        for (int i = 0; i < numOfFrames + 2; i++) {
+            assertEquals(Integer.valueOf(i), order.get(i));
+            assertArrayEquals("frame " + i, sequential.get(i), threaded.get(i));
+        }
+        //The first frame has full forward weight, so it is the source itself
+        assertEquals(sourcePixels[0], sequential.get(0)[0]);
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.imagemorpher.engine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.imagemorpher.engine.TestData.image;
+import static org.junit.Assert.*;
+
+/**
+ * JVM unit tests for the live preview
+ */
+public class PreviewRendererTest {
+
+    private static final int WIDTH = 40, HEIGHT = 30;
+
+    private static LineTable line(float offset) {
+        LineTable lines = new LineTable(1);
+        lines.set(0, 5 + offset, 5, 30, 20 + offset);
+        return lines;
+    }
+
+    @Test
+    public void finalPreview_isTheMidpointFrame() throws InterruptedException {
+        int[] sourcePixels = image(WIDTH, HEIGHT, 3);
+        int[] destinationPixels = image(WIDTH, HEIGHT, 7);
+        WeightFunction weightFunction = WeightFunction.create(0, 0.001f, 2);
+        List<int[]> finals = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        PreviewRenderer renderer = new PreviewRenderer(sourcePixels, destinationPixels, WIDTH, HEIGHT, weightFunction, null,
+                (generation, pixels, width, height, isFinal) -> {
+                    if (isFinal) {
+                        finals.add(pixels);
+                        done.countDown();
+                    }
+                });
+
+        renderer.requestRender(line(0), line(6));
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        renderer.shutdown();
+
+        int[] expected = new int[WIDTH * HEIGHT];
+        int half = CrossDissolve.WEIGHT_ONE / 2;
+        new WarpEngine(WIDTH, HEIGHT, weightFunction, Sampler.BILINEAR).warpAndBlend(sourcePixels, line(0),
+                destinationPixels, line(6), expected, LineTable.interpolate(line(0), line(6), 1)[1],
+                half, half, 0, 0, WIDTH, HEIGHT);
+        assertArrayEquals(expected, finals.get(0));
+    }
+
+    @Test
+    public void burstOfRequests_rendersOnlyTheLatest() throws InterruptedException {
+        CountDownLatch firstPreview = new CountDownLatch(1);
+        CountDownLatch burstSent = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        PreviewRenderer renderer = new PreviewRenderer(image(WIDTH, HEIGHT, 3), image(WIDTH, HEIGHT, 7), WIDTH, HEIGHT,
+                WeightFunction.create(0, 0.001f, 2), new WarpScheduler(2),
+                (generation, pixels, width, height, isFinal) -> {
+                    delivered.add(generation + (isFinal ? " final" : " low"));
+                    if (generation == 1) {
+                        //Hold the render thread while the burst comes in
+                        firstPreview.countDown();
+                        try {
+                            burstSent.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                    if (isFinal) {
+                        done.countDown();
+                    }
+                });
+
+        renderer.requestRender(line(0), line(1));
+        assertTrue(firstPreview.await(10, TimeUnit.SECONDS));
+        int last = 0;
+        for (int i = 2; i <= 20; i++) {
+            last = renderer.requestRender(line(0), line(i));
+        }
+        burstSent.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        renderer.shutdown();
+
+        assertEquals(20, last);
+        assertEquals(3, delivered.size());
+        assertEquals("1 low", delivered.get(0));
+        assertEquals("20 low", delivered.get(1));
+        assertEquals("20 final", delivered.get(2));
+    }
+
+    @Test
+    public void downsample_averagesBlocks() {
+        int[] pixels = {0xFF000000, 0xFF0000FF, 0xFF00FF00, 0xFF00FFFF};
+
+        int[] result = PreviewRenderer.downsample(pixels, 2, 2, 1, 1);
+
+        assertEquals(1, result.length);
+        assertEquals(0xFF, result[0] >>> 24);
+        assertEquals(0x7F, (result[0] >> 8) & 0xFF, 1);
+        assertEquals(0x7F, result[0] & 0xFF, 1);
+    }
+}
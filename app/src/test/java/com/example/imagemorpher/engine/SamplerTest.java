@@ -0,0 +1,62 @@
+package com.example.imagemorpher.engine;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * JVM unit tests for fixed-point resampling
+ */
+public class SamplerTest {
+
+    private static final int WIDTH = 4, HEIGHT = 4;
+
+    private static int fixed(float position) {
+        return (int) (position * (1 << Sampler.FRACTION_BITS));
+    }
+
+    @Test
+    public void nearest_truncatesPosition() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = i;
+        }
+
+        assertEquals(2 * WIDTH + 1, Sampler.NEAREST.sample(pixels, WIDTH, HEIGHT, fixed(1.9f), fixed(2.5f)));
+    }
+
+    @Test
+    public void bilinear_halfwayIsAverageOfEveryChannel() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        pixels[0] = 0x00204060;
+        pixels[1] = 0xFF60A0E0;
+
+        int sample = Sampler.BILINEAR.sample(pixels, WIDTH, HEIGHT, fixed(0.5f), 0);
+
+        assertEquals(0x7F4070A0, sample);
+    }
+
+    @Test
+    public void bilinear_lastColumnAndRowStayInsideImage() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        pixels[WIDTH * HEIGHT - 1] = 0xFF123456;
+
+        int sample = Sampler.BILINEAR.sample(pixels, WIDTH, HEIGHT, fixed(WIDTH - 1) + 200, fixed(HEIGHT - 1) + 200);
+
+        assertEquals(0xFF123456, sample);
+    }
+
+    @Test
+    public void bicubic_keepsConstantImage() {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Arrays.fill(pixels, 0xFF336699);
+
+        for (int y = 0; y < fixed(HEIGHT - 1); y += 37) {
+            for (int x = 0; x < fixed(WIDTH - 1); x += 41) {
+                assertEquals(0xFF336699, Sampler.BICUBIC.sample(pixels, WIDTH, HEIGHT, x, y));
+            }
+        }
+    }
+}
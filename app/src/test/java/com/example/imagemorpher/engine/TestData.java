@@ -0,0 +1,55 @@
+package com.example.imagemorpher.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixtures shared by the engine tests
+ */
+final class TestData {
+
+    private TestData() {
+    }
+
+    /**
+     * Create an opaque image whose pixels differ with the seed
+     * @param width the width of the image as integer
+     * @param height the height of the image as integer
+     * @param seed varies the image between calls as integer
+     * @return image pixels as int[]
+     */
+    static int[] image(int width, int height, int seed) {
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | (i * seed);
+        }
+        return pixels;
+    }
+
+    /**
+     * Create an image whose every pixel holds its own index, so a warped pixel tells where it was sampled
+     * @param width the width of the image as integer
+     * @param height the height of the image as integer
+     * @return image pixels as int[]
+     */
+    static int[] indexImage(int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = i;
+        }
+        return pixels;
+    }
+
+    /**
+     * Render every frame on the calling thread and keep them
+     * @param renderer the renderer
+     * @param sourcePixels source image pixels as int[]
+     * @param destinationPixels destination image pixels as int[]
+     * @return frames in order
+     */
+    static List<int[]> render(MorphRenderer renderer, int[] sourcePixels, int[] destinationPixels) {
+        List<int[]> frames = new ArrayList<>();
+        renderer.render(sourcePixels, destinationPixels, null, null, (index, pixels) -> frames.add(pixels));
+        return frames;
+    }
+}
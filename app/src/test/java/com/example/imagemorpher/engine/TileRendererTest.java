@@ -0,0 +1,147 @@
+package com.example.imagemorpher.engine;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static com.example.imagemorpher.engine.TestData.image;
+import static com.example.imagemorpher.engine.TestData.render;
+import static org.junit.Assert.*;
+
+/**
+ * JVM unit tests for the out-of-core tile renderer
+ */
+public class TileRendererTest {
+
+    private static final int WIDTH = 45, HEIGHT = 37, NUM_OF_FRAMES = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static LineTable[] frameLines() {
+        LineTable source = new LineTable(2);
+        source.set(0, 4, 4, 20, 6);
+        source.set(1, 30, 30, 40, 10);
+        LineTable destination = new LineTable(2);
+        destination.set(0, 8, 10, 28, 12);
+        destination.set(1, 20, 34, 42, 20);
+        return LineTable.interpolate(source, destination, NUM_OF_FRAMES);
+    }
+
+    /**
+     * Assemble the tiles of every frame in memory
+     */
+    private static int[][] renderTiles(TileRenderer renderer, int[] sourcePixels, int[] destinationPixels,
+                                       WarpScheduler scheduler) {
+        int[][] frames = new int[renderer.getTotalNumOfFrames()][WIDTH * HEIGHT];
+        renderer.render(TileRenderer.pixelSource(sourcePixels, WIDTH, HEIGHT),
+                TileRenderer.pixelSource(destinationPixels, WIDTH, HEIGHT), scheduler, null,
+                new TileRenderer.TileSink() {
+                    @Override
+                    public void onTile(int frameIndex, int x, int y, int width, int height, int[] pixels) {
+                        for (int j = 0; j < height; j++) {
+                            System.arraycopy(pixels, j * width, frames[frameIndex], (y + j) * WIDTH + x, width);
+                        }
+                    }
+
+                    @Override
+                    public void onFrameDone(int frameIndex) {
+                    }
+                });
+        return frames;
+    }
+
+    @Test
+    public void tiles_matchTheWholeFrameRender() {
+        for (Sampler sampler : Sampler.values()) {
+            WarpEngine engine = new WarpEngine(WIDTH, HEIGHT, WeightFunction.create(0, 0.001f, 2), sampler);
+            LineTable[] lines = frameLines();
+            List<int[]> expected = render(new MorphRenderer(engine, lines), image(WIDTH, HEIGHT, 3), image(WIDTH, HEIGHT, 5));
+            //Small windows force tiles to be split
+            int[][] tiled = renderTiles(new TileRenderer(engine, lines, 8, 16), image(WIDTH, HEIGHT, 3), image(WIDTH, HEIGHT, 5), null);
+            for (int i = 0; i < NUM_OF_FRAMES + 2; i++) {
+                assertArrayEquals(sampler + " frame " + i, expected.get(i), tiled[i]);
+            }
+        }
+    }
+
+    @Test
+    public void parallelTiles_matchTheWholeFrameRender() {
+        WarpEngine engine = new WarpEngine(WIDTH, HEIGHT, WeightFunction.create(0, 0.001f, 2), Sampler.BILINEAR, 0.005f);
+        LineTable[] lines = frameLines();
+        WarpScheduler scheduler = new WarpScheduler(4);
+        try {
+            List<int[]> expected = render(new MorphRenderer(engine, lines), image(WIDTH, HEIGHT, 7), image(WIDTH, HEIGHT, 11));
+            int[][] tiled = renderTiles(new TileRenderer(engine, lines, 16, 512), image(WIDTH, HEIGHT, 7), image(WIDTH, HEIGHT, 11), scheduler);
+            for (int i = 0; i < NUM_OF_FRAMES + 2; i++) {
+                assertArrayEquals("frame " + i, expected.get(i), tiled[i]);
+            }
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void rawFiles_streamFramesFromAndToDisk() throws IOException {
+        WarpEngine engine = new WarpEngine(WIDTH, HEIGHT, 0, 0.001f, 2);
+        LineTable[] lines = frameLines();
+        File imagesFile = folder.newFile("images.raw");
+        File framesFile = folder.newFile("frames.raw");
+        try (RawImageFile images = new RawImageFile(imagesFile, WIDTH, HEIGHT, 2, true)) {
+            images.write(0, 0, 0, WIDTH, HEIGHT, image(WIDTH, HEIGHT, 3));
+            images.write(1, 0, 0, WIDTH, HEIGHT, image(WIDTH, HEIGHT, 5));
+        }
+
+        try (RawImageFile images = new RawImageFile(imagesFile, WIDTH, HEIGHT, 2, false);
+             RawImageFile frames = new RawImageFile(framesFile, WIDTH, HEIGHT, NUM_OF_FRAMES + 2, true)) {
+            new TileRenderer(engine, lines).render(images.image(0), images.image(1), null, null, frames);
+        }
+
+        List<int[]> expected = render(new MorphRenderer(engine, lines), image(WIDTH, HEIGHT, 3), image(WIDTH, HEIGHT, 5));
+        try (RawImageFile frames = new RawImageFile(framesFile, WIDTH, HEIGHT, NUM_OF_FRAMES + 2, false)) {
+            for (int i = 0; i < NUM_OF_FRAMES + 2; i++) {
+                int[] frame = new int[WIDTH * HEIGHT];
+                frames.read(i, 0, 0, WIDTH, HEIGHT, frame);
+                assertArrayEquals("frame " + i, expected.get(i), frame);
+            }
+        }
+        try {
+            new RawImageFile(imagesFile, WIDTH, HEIGHT + 1, 2, false);
+            fail("Opened a file of another size");
+        } catch (IOException expectedException) {
+            //Size is checked on open
+        }
+    }
+
+    @Test
+    public void encoderSink_encodesLikeWholeFrames() throws IOException {
+        WarpEngine engine = new WarpEngine(WIDTH, HEIGHT, 0, 0.001f, 2);
+        LineTable[] lines = frameLines();
+        List<int[]> expected = render(new MorphRenderer(engine, lines), image(WIDTH, HEIGHT, 3), image(WIDTH, HEIGHT, 5));
+        ByteArrayOutputStream expectedOut = new ByteArrayOutputStream();
+        try (GifEncoder encoder = new GifEncoder(expectedOut, WIDTH, HEIGHT, 100)) {
+            for (int[] frame : expected) {
+                encoder.addFrame(frame);
+            }
+            encoder.finish();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WarpScheduler scheduler = new WarpScheduler(4);
+        try (RawImageFile frameFile = new RawImageFile(folder.newFile("frame.raw"), WIDTH, HEIGHT, 1, true);
+             GifEncoder encoder = new GifEncoder(out, WIDTH, HEIGHT, 100)) {
+            new TileRenderer(engine, lines, 16, 512).render(TileRenderer.pixelSource(image(WIDTH, HEIGHT, 3), WIDTH, HEIGHT),
+                    TileRenderer.pixelSource(image(WIDTH, HEIGHT, 5), WIDTH, HEIGHT), scheduler, null,
+                    TileRenderer.encoderSink(frameFile, encoder));
+            encoder.finish();
+        } finally {
+            scheduler.shutdown();
+        }
+        assertArrayEquals(expectedOut.toByteArray(), out.toByteArray());
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.imagemorpher.engine;
+
+import org.junit.Test;
+
+import static com.example.imagemorpher.engine.TestData.indexImage;
+import static org.junit.Assert.*;
+
+/**
+ * JVM unit tests for the pixel buffer warp engine
+ */
+public class WarpEngineTest {
+
+    private static final int WIDTH = 64, HEIGHT = 48;
+
+    private static final float P = 0, A = 0.001f, B = 2;
+
+    /**
+     * Every pixel holds its own index, so the output tells where each pixel was sampled from
+     */
+    private static LineTable singleLine(float startX, float startY, float endX, float endY) {
+        LineTable lines = new LineTable(1);
+        lines.set(0, startX, startY, endX, endY);
+        return lines;
+    }
+
+    @Test
+    public void translatedLine_shiftsImage() {
+        LineTable source = singleLine(20, 10, 20, 30);
+        LineTable destination = singleLine(25, 10, 25, 30);
+        int[] output = new int[WIDTH * HEIGHT];
+
+        new WarpEngine(WIDTH, HEIGHT, P, A, B).warp(indexImage(WIDTH, HEIGHT), source, output, destination, 0, 0, WIDTH, HEIGHT);
+
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 5; x < WIDTH; x++) {
+                int sample = output[y * WIDTH + x];
+                assertEquals("x at " + x + "," + y, x - 5, sample % WIDTH, 1);
+                assertEquals("y at " + x + "," + y, y, sample / WIDTH, 1);
+            }
+        }
+    }
+
+    @Test
+    public void regionWarps_matchFullWarp() {
+        LineTable source = new LineTable(2);
+        source.set(0, 10, 10, 40, 12);
+        source.set(1, 30, 20, 35, 45);
+        LineTable destination = new LineTable(2);
+        destination.set(0, 12, 8, 44, 15);
+        destination.set(1, 28, 22, 30, 40);
+        WarpEngine engine = new WarpEngine(WIDTH, HEIGHT, P, A, B);
+        int[] pixels = indexImage(WIDTH, HEIGHT);
+
+        int[] full = new int[WIDTH * HEIGHT];
+        engine.warp(pixels, source, full, destination, 0, 0, WIDTH, HEIGHT);
+
+        int[] regions = new int[WIDTH * HEIGHT];
+        engine.warp(pixels, source, regions, destination, 0, 0, WIDTH / 2, HEIGHT / 2);
+        engine.warp(pixels, source, regions, destination, WIDTH / 2, 0, WIDTH, HEIGHT / 2);
+        engine.warp(pixels, source, regions, destination, 0, HEIGHT / 2, WIDTH / 2, HEIGHT);
+        engine.warp(pixels, source, regions, destination, WIDTH / 2, HEIGHT / 2, WIDTH, HEIGHT);
+
+        assertArrayEquals(full, regions);
+    }
+
+    @Test
+    public void warpAndBlend_matchesSeparateWarpsAndDissolve() {
+        LineTable source = singleLine(10, 10, 30, 12);
+        LineTable destination = singleLine(20, 30, 50, 25);
+        LineTable frame = singleLine(15, 20, 40, 18);
+        WarpEngine engine = new WarpEngine(WIDTH, HEIGHT, P, A, B);
+        int[] sourcePixels = indexImage(WIDTH, HEIGHT);
+        int[] destinationPixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < destinationPixels.length; i++) {
+            destinationPixels[i] = 0xFF000000 | (i * 31);
+        }
+        int forwardWeight = CrossDissolve.forwardWeight(2, 5);
+        int reverseWeight = CrossDissolve.reverseWeight(2, 5);
+
+        int[] forward = new int[WIDTH * HEIGHT];
+        int[] reverse = new int[WIDTH * HEIGHT];
+        engine.warp(sourcePixels, source, forward, frame, 0, 0, WIDTH, HEIGHT);
+        engine.warp(destinationPixels, destination, reverse, frame, 0, 0, WIDTH, HEIGHT);
+        int[] expected = new int[WIDTH * HEIGHT];
+        CrossDissolve.blendRow(forward, reverse, expected, 0, expected.length, forwardWeight, reverseWeight);
+
+        int[] fused = new int[WIDTH * HEIGHT];
+        engine.warpAndBlend(sourcePixels, source, destinationPixels, destination, fused, frame,
+                forwardWeight, reverseWeight, 0, 0, WIDTH, HEIGHT);
+
+        assertArrayEquals(expected, fused);
+    }
+
+    @Test
+    public void warpAndBlend_firstFrameUsesSourceUnwarped() {
+        LineTable source = singleLine(10, 10, 30, 12);
+        LineTable destination = singleLine(20, 30, 50, 25);
+        int[] sourcePixels = indexImage(WIDTH, HEIGHT);
+        int[] output = new int[WIDTH * HEIGHT];
+
+        new WarpEngine(WIDTH, HEIGHT, P, A, B).warpAndBlend(sourcePixels, source, new int[WIDTH * HEIGHT], destination,
+                output, source, CrossDissolve.WEIGHT_ONE, 0, 0, 0, WIDTH, HEIGHT);
+
+        for (int i = 0; i < output.length; i++) {
+            assertEquals(sourcePixels[i], output[i]);
+        }
+    }
+
+    @Test
+    public void steppedRows_matchPerPixelEvaluation() {
+        LineTable source = new LineTable(3);
+        source.set(0, 10, 10, 40, 12);
+        source.set(1, 30, 20, 35, 45);
+        source.set(2, 5, 40, 60, 30);
+        LineTable destination = new LineTable(3);
+        destination.set(0, 12, 8, 44, 15);
+        destination.set(1, 28, 22, 30, 40);
+        destination.set(2, 8, 44, 58, 26);
+        int[] output = new int[WIDTH * HEIGHT];
+
+        new WarpEngine(WIDTH, HEIGHT, P, A, B).warp(indexImage(WIDTH, HEIGHT), source, output, destination, 0, 0, WIDTH, HEIGHT);
+
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                //Straight evaluation of every line at the pixel
+                float sumOfWeights = 0, deltaX = 0, deltaY = 0;
+                for (int i = 0; i < destination.size(); i++) {
+                    float d = destination.distanceTo(i, x, y);
+                    float f = destination.projectionLengthOn(i, x, y) / destination.length(i);
+                    float sourceX = WarpEngine.clamp((int) (source.startX[i] + f * source.vectorX[i] - d * source.normalX[i]), WIDTH);
+                    float sourceY = WarpEngine.clamp((int) (source.startY[i] + f * source.vectorY[i] - d * source.normalY[i]), HEIGHT);
+                    if (f < 0) {
+                        d = (float) Math.hypot(x - destination.startX[i], y - destination.startY[i]);
+                    } else if (f > 1) {
+                        d = (float) Math.hypot(x - destination.endX[i], y - destination.endY[i]);
+                    }
+                    float weight = 1 / ((A + d) * (A + d));
+                    sumOfWeights += weight;
+                    deltaX += weight * (sourceX - x);
+                    deltaY += weight * (sourceY - y);
+                }
+                int expectedX = (int) WarpEngine.clamp(x + deltaX / sumOfWeights, WIDTH);
+                int expectedY = (int) WarpEngine.clamp(y + deltaY / sumOfWeights, HEIGHT);
+                int sample = output[y * WIDTH + x];
+                assertEquals("x at " + x + "," + y, expectedX, sample % WIDTH, 1);
+                assertEquals("y at " + x + "," + y, expectedY, sample / WIDTH, 1);
+            }
+        }
+    }
+
+    @Test
+    public void coarseGrid_staysCloseToExactWarp() {
+        LineTable source = new LineTable(2);
+        source.set(0, 10, 10, 40, 12);
+        source.set(1, 30, 20, 35, 45);
+        LineTable destination = new LineTable(2);
+        destination.set(0, 12, 8, 44, 15);
+        destination.set(1, 28, 22, 30, 40);
+        WeightFunction weightFunction = WeightFunction.create(P, A, B);
+        int[] pixels = indexImage(WIDTH, HEIGHT);
+        int[] exact = new int[WIDTH * HEIGHT];
+        int[] coarse = new int[WIDTH * HEIGHT];
+
+        new WarpEngine(WIDTH, HEIGHT, weightFunction, Sampler.NEAREST)
+                .warp(pixels, source, exact, destination, 0, 0, WIDTH, HEIGHT);
+        new WarpEngine(WIDTH, HEIGHT, weightFunction, Sampler.NEAREST, 0, 8, 0.5f)
+                .warp(pixels, source, coarse, destination, 0, 0, WIDTH, HEIGHT);
+
+        for (int i = 0; i < exact.length; i++) {
+            assertEquals("x at " + i, exact[i] % WIDTH, coarse[i] % WIDTH, 1);
+            assertEquals("y at " + i, exact[i] / WIDTH, coarse[i] / WIDTH, 1);
+        }
+    }
+
+    @Test
+    public void coarseGrid_regionWarpsMatchFullWarp() {
+        LineTable source = singleLine(10, 10, 40, 30);
+        LineTable destination = singleLine(14, 6, 44, 34);
+        WarpEngine engine = new WarpEngine(WIDTH, HEIGHT, WeightFunction.create(P, A, B), Sampler.NEAREST, 0, 4, 0.25f);
+        int[] pixels = indexImage(WIDTH, HEIGHT);
+
+        int[] full = new int[WIDTH * HEIGHT];
+        engine.warp(pixels, source, full, destination, 0, 0, WIDTH, HEIGHT);
+
+        int[] regions = new int[WIDTH * HEIGHT];
+        engine.warp(pixels, source, regions, destination, 0, 0, 21, 13);
+        engine.warp(pixels, source, regions, destination, 21, 0, WIDTH, 13);
+        engine.warp(pixels, source, regions, destination, 0, 13, 21, HEIGHT);
+        engine.warp(pixels, source, regions, destination, 21, 13, WIDTH, HEIGHT);
+
+        assertArrayEquals(full, regions);
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.imagemorpher.engine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * JVM unit tests for the banded warp scheduler
+ */
+public class WarpSchedulerTest {
+
+    @Test
+    public void bandedWarp_matchesSingleThreadedWarp() {
+        int width = 50, height = 37;
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = i;
+        }
+        LineTable source = new LineTable(2);
+        source.set(0, 5, 5, 40, 8);
+        source.set(1, 20, 10, 25, 30);
+        LineTable destination = new LineTable(2);
+        destination.set(0, 8, 3, 44, 12);
+        destination.set(1, 18, 12, 22, 34);
+        WarpEngine engine = new WarpEngine(width, height, 0, 0.001f, 2);
+
+        int[] expected = new int[width * height];
+        engine.warp(pixels, source, expected, destination, 0, 0, width, height);
+        int[] actual = new int[width * height];
+        new WarpScheduler(3).warp(engine, pixels, source, actual, destination);
+
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    public void runAll_matchesSequentialWarps() {
+        int width = 40, height = 30, numOfFrames = 5;
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = i;
+        }
+        LineTable source = new LineTable(1);
+        source.set(0, 10, 5, 12, 25);
+        LineTable[] frames = new LineTable[numOfFrames];
+        for (int i = 0; i < numOfFrames; i++) {
+            frames[i] = new LineTable(1);
+            frames[i].set(0, 10 + i * 3, 5, 12 + i * 2, 25 - i);
+        }
+        WarpEngine engine = new WarpEngine(width, height, 0, 0.001f, 2);
+
+        List<WarpScheduler.BandKernel> kernels = new ArrayList<>();
+        for (int i = 0; i < numOfFrames; i++) {
+            kernels.add(WarpScheduler.warpKernel(engine, pixels, source, frames[i]));
+        }
+        List<int[]> actual = new ArrayList<>();
+        new WarpScheduler(4).runAll(width, height, kernels, null, (index, output) -> {
+            //Frames arrive in order
+            assertEquals(actual.size(), index);
+            actual.add(output);
+        });
+
+        for (int i = 0; i < numOfFrames; i++) {
+            int[] expected = new int[width * height];
+            engine.warp(pixels, source, expected, frames[i], 0, 0, width, height);
+            assertArrayEquals("frame " + i, expected, actual.get(i));
+        }
+    }
+
+    @Test
+    public void bandsPerFrame_prefersFramesWhenThereAreMany() {
+        //Plenty of frames: one task per frame
+        assertEquals(1, WarpScheduler.bandsPerFrame(120, 256, 8));
+        //A single frame: split it for every worker
+        assertEquals(32, WarpScheduler.bandsPerFrame(1, 1024, 8));
+        //Tiny image: bands never get thinner than BAND_HEIGHT
+        assertEquals(2, WarpScheduler.bandsPerFrame(1, 16, 8));
+    }
+
+    @Test
+    public void runAll_reportsProgressForEveryRow() {
+        int width = 16, height = 40, numOfFrames = 3;
+        AtomicInteger lastCompleted = new AtomicInteger();
+        RenderControl control = new RenderControl((completedRows, totalRows) -> {
+            assertEquals(numOfFrames * height, totalRows);
+            lastCompleted.accumulateAndGet(completedRows, Math::max);
+        });
+        List<WarpScheduler.BandKernel> kernels = new ArrayList<>();
+        for (int i = 0; i < numOfFrames; i++) {
+            kernels.add((output, startY, endY) -> { });
+        }
+
+        new WarpScheduler(2).runAll(width, height, kernels, control, (index, output) -> { });
+
+        assertEquals(numOfFrames * height, lastCompleted.get());
+    }
+
+    @Test
+    public void slowSink_holdsBackTheWorkers() {
+        int width = 16, height = 16, numOfFrames = 20, parallelism = 2;
+        AtomicInteger framesStarted = new AtomicInteger();
+        List<WarpScheduler.BandKernel> kernels = new ArrayList<>();
+        for (int i = 0; i < numOfFrames; i++) {
+            kernels.add((output, startY, endY) -> {
+                if (startY == 0) {
+                    framesStarted.incrementAndGet();
+                }
+            });
+        }
+        List<Integer> framesInFlight = new ArrayList<>();
+        WarpScheduler scheduler = new WarpScheduler(parallelism);
+        try {
+            scheduler.runAll(width, height, kernels, null, (index, output) -> {
+                framesInFlight.add(framesStarted.get() - index);
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        } finally {
+            scheduler.shutdown();
+        }
+
+        assertEquals(numOfFrames, framesInFlight.size());
+        for (int frames : framesInFlight) {
+            assertTrue(frames + " frames in flight", frames <= parallelism + 1);
+        }
+    }
+
+    @Test
+    public void cancelledRender_stopsWithinATile() {
+        int width = 16, height = 64, numOfFrames = 8;
+        RenderControl control = new RenderControl(null);
+        AtomicInteger tilesRun = new AtomicInteger();
+        List<WarpScheduler.BandKernel> kernels = new ArrayList<>();
+        for (int i = 0; i < numOfFrames; i++) {
+            kernels.add((output, startY, endY) -> {
+                tilesRun.incrementAndGet();
+                control.cancel();
+            });
+        }
+        List<Integer> delivered = new ArrayList<>();
+
+        try {
+            WarpScheduler.runSequentially(width, height, kernels, control, (index, output) -> delivered.add(index));
+            fail("Expected the render to be cancelled");
+        } catch (CancellationException expected) {
+            //Cancelled after the first tile
+        }
+
+        assertEquals(1, tilesRun.get());
+        assertTrue(delivered.isEmpty());
+    }
+}
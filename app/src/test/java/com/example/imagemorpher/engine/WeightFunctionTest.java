@@ -0,0 +1,75 @@
+package com.example.imagemorpher.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * JVM unit tests for the specialized line weights
+ */
+public class WeightFunctionTest {
+
+    private static final float A = 0.001f;
+
+    private static double reference(float length, float p, float b, float d) {
+        return Math.pow(Math.pow(length, p) / (A + d), b);
+    }
+
+    private static void assertMatchesPow(WeightFunction function, float length, float p, float b, double tolerance) {
+        float lengthPow = (float) Math.pow(length, p);
+        for (float d = 0.01f; d < 400; d *= 1.37f) {
+            double expected = reference(length, p, b, d);
+            assertEquals("d = " + d, expected, function.weight(lengthPow, d), expected * tolerance);
+        }
+    }
+
+    @Test
+    public void defaultParameters_useReciprocalSquare() {
+        WeightFunction function = WeightFunction.create(0, A, 2);
+        assertTrue(function instanceof WeightFunction.ReciprocalSquare);
+        assertMatchesPow(function, 42, 0, 2, 1e-6);
+    }
+
+    @Test
+    public void integerExponents_matchPow() {
+        assertTrue(WeightFunction.create(0.5f, A, 1) instanceof WeightFunction.Reciprocal);
+        assertMatchesPow(WeightFunction.create(0.5f, A, 1), 42, 0.5f, 1, 1e-6);
+        assertTrue(WeightFunction.create(1, A, 3) instanceof WeightFunction.IntegerPower);
+        assertMatchesPow(WeightFunction.create(1, A, 3), 17, 1, 3, 1e-5);
+    }
+
+    @Test
+    public void fractionalExponent_lookupTableMatchesPow() {
+        WeightFunction exact = WeightFunction.create(0.5f, A, 1.5f);
+        WeightFunction lookup = WeightFunction.create(0.5f, A, 1.5f, true);
+        assertTrue(exact instanceof WeightFunction.Power);
+        assertTrue(lookup instanceof WeightFunction.LookupPower);
+        assertMatchesPow(exact, 30, 0.5f, 1.5f, 1e-6);
+        assertMatchesPow(lookup, 30, 0.5f, 1.5f, 1e-4);
+    }
+
+    @Test
+    public void negativeOffset_lookupTableAgreesWithPow() {
+        //With a negative A the denominator crosses zero near the line
+        WeightFunction exact = WeightFunction.create(0.5f, -1, 1.5f);
+        WeightFunction lookup = WeightFunction.create(0.5f, -1, 1.5f, true);
+        float lengthPow = (float) Math.sqrt(30);
+        for (float d = 0; d < 4; d += 0.125f) {
+            float expected = exact.weight(lengthPow, d);
+            assertFalse("d = " + d, Float.isNaN(expected));
+            assertEquals("d = " + d, expected, lookup.weight(lengthPow, d), expected * 1e-4);
+        }
+    }
+
+    @Test
+    public void lineTable_cachesLengthPow() {
+        LineTable lines = new LineTable(2);
+        lines.set(0, 0, 0, 3, 4);
+        lines.set(1, 0, 0, 0, 9);
+        float[] lengthPow = lines.lengthPow(0.5f);
+        assertEquals((float) Math.sqrt(5), lengthPow[0], 1e-6);
+        assertEquals(3, lengthPow[1], 1e-6);
+        assertSame(lengthPow, lines.lengthPow(0.5f));
+        assertEquals(1, lines.lengthPow(0)[0], 0);
+    }
+}
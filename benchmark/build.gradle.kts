@@ -0,0 +1,32 @@
+plugins {
+    java
+    id("me.champeau.jmh")
+}
+
+//JVM-only benchmarks of the morph engine, the engine sources are shared with :app
+//Run with ./gradlew :benchmark:jmh, results are written to build/results/jmh
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+sourceSets {
+    main {
+        java {
+            srcDir("../app/src/main/java")
+            include("com/example/imagemorpher/engine/**")
+        }
+    }
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(2)
+    resultFormat.set("JSON")
+    //Narrow a run with -PjmhInclude=MorphBenchmark
+    if (project.hasProperty("jmhInclude")) {
+        includes.add(project.property("jmhInclude").toString())
+    }
+}
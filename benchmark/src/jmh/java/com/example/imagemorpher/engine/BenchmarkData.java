@@ -0,0 +1,89 @@
+package com.example.imagemorpher.engine;
+
+import java.util.Random;
+
+/**
+ * Deterministic images and lines for the benchmarks, the same seed gives the same input on every run
+ */
+final class BenchmarkData {
+
+    private static final long SEED = 0x5EED;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Create an opaque noise image
+     * @param width the width of the image as integer
+     * @param height the height of the image as integer
+     * @param salt varies the image between calls as integer
+     * @return image pixels as int[]
+     */
+    static int[] image(int width, int height, int salt) {
+        Random random = new Random(SEED + salt);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+
+    /**
+     * Create lines with both ends inside the image
+     * @param numOfLines number of lines as integer
+     * @param width the width of the image as integer
+     * @param height the height of the image as integer
+     * @param salt varies the lines between calls as integer
+     * @return lines
+     */
+    static LineTable lines(int numOfLines, int width, int height, int salt) {
+        Random random = new Random(SEED + salt);
+        LineTable lines = new LineTable(numOfLines);
+        for (int i = 0; i < numOfLines; i++) {
+            lines.set(i, random.nextFloat() * width, random.nextFloat() * height,
+                    random.nextFloat() * width, random.nextFloat() * height);
+        }
+        return lines;
+    }
+
+    /**
+     * Create short lines scattered over the image, like a dense feature template
+     * @param numOfLines number of lines as integer
+     * @param width the width of the image as integer
+     * @param height the height of the image as integer
+     * @param maxLength longest line as float
+     * @param salt varies the lines between calls as integer
+     * @return lines
+     */
+    static LineTable shortLines(int numOfLines, int width, int height, float maxLength, int salt) {
+        Random random = new Random(SEED + salt);
+        LineTable lines = new LineTable(numOfLines);
+        for (int i = 0; i < numOfLines; i++) {
+            float startX = random.nextFloat() * width;
+            float startY = random.nextFloat() * height;
+            double angle = random.nextDouble() * 2 * Math.PI;
+            float length = (0.25f + 0.75f * random.nextFloat()) * maxLength;
+            lines.set(i, startX, startY, startX + length * (float) Math.cos(angle), startY + length * (float) Math.sin(angle));
+        }
+        return lines;
+    }
+
+    /**
+     * Move every end of the lines by a random offset, like a template fitted to a second face
+     * @param lines lines to move
+     * @param maxOffset largest offset per coordinate as float
+     * @param salt varies the offsets between calls as integer
+     * @return moved lines
+     */
+    static LineTable moved(LineTable lines, float maxOffset, int salt) {
+        Random random = new Random(SEED + salt);
+        LineTable moved = new LineTable(lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            moved.set(i, lines.startX[i] + (random.nextFloat() * 2 - 1) * maxOffset,
+                    lines.startY[i] + (random.nextFloat() * 2 - 1) * maxOffset,
+                    lines.endX[i] + (random.nextFloat() * 2 - 1) * maxOffset,
+                    lines.endY[i] + (random.nextFloat() * 2 - 1) * maxOffset);
+        }
+        return moved;
+    }
+}
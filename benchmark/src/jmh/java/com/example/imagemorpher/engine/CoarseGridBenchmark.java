@@ -0,0 +1,70 @@
+package com.example.imagemorpher.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warp with the displacement computed per pixel against a coarse grid with adaptive refinement
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CoarseGridBenchmark {
+
+    @Param({"256", "512"})
+    public int size;
+
+    @Param({"4", "16"})
+    public int linePairs;
+
+    /**
+     * 0 maps every pixel
+     */
+    @Param({"0", "4", "8"})
+    public int coarseStep;
+
+    @Param({"0.5"})
+    public float refineThreshold;
+
+    private int[] sourcePixels, output;
+
+    private LineTable sourceLines, destinationLines;
+
+    private WarpEngine engine;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sourcePixels = BenchmarkData.image(size, size, 1);
+        output = new int[size * size];
+        sourceLines = BenchmarkData.shortLines(linePairs, size, size, size / 4f, 1);
+        destinationLines = BenchmarkData.moved(sourceLines, size / 32f, 2);
+        engine = new WarpEngine(size, size, WeightFunction.create(0, 0.001f, 2), Sampler.NEAREST, 0,
+                coarseStep, refineThreshold);
+    }
+
+    @Benchmark
+    public int[] warpFrame() {
+        engine.warp(sourcePixels, sourceLines, output, destinationLines, 0, 0, size, size);
+        return output;
+    }
+
+    /**
+     * In bands of 8 rows, as the scheduler hands them out
+     */
+    @Benchmark
+    public int[] warpFrameInBands() {
+        for (int y = 0; y < size; y += 8) {
+            engine.warp(sourcePixels, sourceLines, output, destinationLines, 0, y, size, Math.min(y + 8, size));
+        }
+        return output;
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.imagemorpher.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cross-dissolve of two warped frames into every output frame
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CrossDissolveBenchmark {
+
+    @Param({"256", "512", "1024"})
+    public int size;
+
+    @Param({"3", "10"})
+    public int frames;
+
+    private int[] forwardPixels, reversePixels, output;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        forwardPixels = BenchmarkData.image(size, size, 1);
+        reversePixels = BenchmarkData.image(size, size, 2);
+        output = new int[size * size];
+    }
+
+    /**
+     * Packed 8.8 fixed-point blend over whole rows
+     */
+    @Benchmark
+    public int[] crossDissolve() {
+        int totalNumOfFrames = frames + 2;
+        for (int i = 0; i < totalNumOfFrames; i++) {
+            int forwardWeight = CrossDissolve.forwardWeight(i, totalNumOfFrames);
+            int reverseWeight = CrossDissolve.reverseWeight(i, totalNumOfFrames);
+            for (int y = 0; y < size; y++) {
+                CrossDissolve.blendRow(forwardPixels, reversePixels, output, y * size, size, forwardWeight, reverseWeight);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Baseline: the former per-channel float blend
+     */
+    @Benchmark
+    public int[] crossDissolvePerChannel() {
+        int totalNumOfFrames = frames + 2;
+        for (int i = 0; i < totalNumOfFrames; i++) {
+            float forwardRatio = CrossDissolve.forwardRatio(i, totalNumOfFrames);
+            float reverseRatio = CrossDissolve.reverseRatio(i, totalNumOfFrames);
+            for (int j = 0; j < output.length; j++) {
+                int forwardPixel = forwardPixels[j];
+                int reversePixel = reversePixels[j];
+                int newRed = (int) (((forwardPixel >> 16) & 0xFF) * forwardRatio + ((reversePixel >> 16) & 0xFF) * reverseRatio);
+                int newGreen = (int) (((forwardPixel >> 8) & 0xFF) * forwardRatio + ((reversePixel >> 8) & 0xFF) * reverseRatio);
+                int newBlue = (int) ((forwardPixel & 0xFF) * forwardRatio + (reversePixel & 0xFF) * reverseRatio);
+                output[j] = 0xFF000000 | (newRed << 16) | (newGreen << 8) | newBlue;
+            }
+        }
+        return output;
+    }
+}
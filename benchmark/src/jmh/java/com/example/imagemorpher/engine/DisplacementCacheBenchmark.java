@@ -0,0 +1,67 @@
+package com.example.imagemorpher.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Morph of a new image pair with a line template that is already in the cache
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DisplacementCacheBenchmark {
+
+    @Param({"256", "512"})
+    public int size;
+
+    @Param({"4", "16"})
+    public int linePairs;
+
+    @Param({"3"})
+    public int frames;
+
+    private int[] sourcePixels, destinationPixels;
+
+    private MorphRenderer renderer, cachedRenderer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sourcePixels = BenchmarkData.image(size, size, 1);
+        destinationPixels = BenchmarkData.image(size, size, 2);
+        LineTable sourceLines = BenchmarkData.lines(linePairs, size, size, 1);
+        LineTable[] frameLines = LineTable.interpolate(sourceLines, BenchmarkData.moved(sourceLines, size / 32f, 2), frames);
+        WarpEngine engine = new WarpEngine(size, size, 0, 0.001f, 2);
+        renderer = new MorphRenderer(engine, frameLines);
+        DisplacementCache cache = new DisplacementCache(Long.MAX_VALUE);
+        cachedRenderer = new MorphRenderer(engine, frameLines, cache);
+        //Fill the cache with a different image pair
+        cachedRenderer.render(BenchmarkData.image(size, size, 3), BenchmarkData.image(size, size, 4), null, null,
+                (index, pixels) -> { });
+    }
+
+    /**
+     * Gather only, every field is cached
+     */
+    @Benchmark
+    public void knownTemplate(Blackhole blackhole) {
+        cachedRenderer.render(sourcePixels, destinationPixels, null, null, (index, pixels) -> blackhole.consume(pixels));
+    }
+
+    /**
+     * Baseline: map and gather every frame
+     */
+    @Benchmark
+    public void uncached(Blackhole blackhole) {
+        renderer.render(sourcePixels, destinationPixels, null, null, (index, pixels) -> blackhole.consume(pixels));
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.imagemorpher.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reload of a stored line template, 60 frames by default
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DisplacementFileBenchmark {
+
+    @Param({"512"})
+    public int size;
+
+    /**
+     * Intermediate frames, source and destination come on top
+     */
+    @Param({"58"})
+    public int frames;
+
+    private File directory, file;
+
+    private DisplacementCache.Key key;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("displacement").toFile();
+        LineTable sourceLines = BenchmarkData.lines(4, size, size, 1);
+        LineTable[] frameLines = LineTable.interpolate(sourceLines, BenchmarkData.moved(sourceLines, size / 32f, 2), frames);
+        WarpEngine engine = new WarpEngine(size, size, 0, 0.001f, 2);
+        //Large enough to hold the morph, smaller caches bypass the store as well
+        DisplacementCache cache = new DisplacementCache(Long.MAX_VALUE);
+        cache.setStoreDirectory(directory);
+        new MorphRenderer(engine, frameLines, cache).render(BenchmarkData.image(size, size, 1),
+                BenchmarkData.image(size, size, 2), WarpScheduler.getShared(), null, (index, pixels) -> { });
+        key = DisplacementCache.Key.of(engine, frameLines[0], frameLines[frames + 1], frames + 2, 0);
+        file = cache.storeFile(key);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+        directory.delete();
+    }
+
+    /**
+     * Map the file and check its header, no field is paged in
+     */
+    @Benchmark
+    public DisplacementField[] read() throws IOException {
+        return DisplacementFile.read(file, key);
+    }
+}
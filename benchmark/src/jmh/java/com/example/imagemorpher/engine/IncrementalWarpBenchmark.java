@@ -0,0 +1,74 @@
+package com.example.imagemorpher.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Re-warp after one line pair is nudged, incrementally against from scratch
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class IncrementalWarpBenchmark {
+
+    @Param({"256", "512"})
+    public int size;
+
+    @Param({"16", "64"})
+    public int linePairs;
+
+    private int[] sourcePixels, output;
+
+    private LineTable sourceLines;
+
+    /**
+     * Destination lines with line 0 at two positions, alternated so every call sees one edit
+     */
+    private LineTable[] editedLines;
+
+    private int edit;
+
+    private WarpEngine engine;
+
+    private IncrementalWarp incrementalWarp;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sourcePixels = BenchmarkData.image(size, size, 1);
+        output = new int[size * size];
+        sourceLines = BenchmarkData.shortLines(linePairs, size, size, size / 4f, 1);
+        LineTable destinationLines = BenchmarkData.moved(sourceLines, size / 32f, 2);
+        editedLines = new LineTable[]{destinationLines, destinationLines.scaled(1, 1)};
+        editedLines[1].set(0, destinationLines.startX[0] + 3, destinationLines.startY[0],
+                destinationLines.endX[0], destinationLines.endY[0] - 2);
+        engine = new WarpEngine(size, size, WeightFunction.create(0, 0.001f, 2), Sampler.NEAREST);
+        incrementalWarp = new IncrementalWarp(sourcePixels, size, size, WeightFunction.create(0, 0.001f, 2), Sampler.NEAREST);
+        incrementalWarp.warp(sourceLines, editedLines[0], output, null);
+    }
+
+    @Benchmark
+    public int[] incremental() {
+        edit ^= 1;
+        incrementalWarp.warp(sourceLines, editedLines[edit], output, null);
+        return output;
+    }
+
+    /**
+     * Baseline: warp with every line again
+     */
+    @Benchmark
+    public int[] fullRewarp() {
+        edit ^= 1;
+        engine.warp(sourcePixels, sourceLines, output, editedLines[edit], 0, 0, size, size);
+        return output;
+    }
+}
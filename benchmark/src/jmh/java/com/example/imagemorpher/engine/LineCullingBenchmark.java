@@ -0,0 +1,59 @@
+package com.example.imagemorpher.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warp with many short lines, exact and with far lines culled per grid cell
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LineCullingBenchmark {
+
+    @Param({"512"})
+    public int size;
+
+    @Param({"16", "48"})
+    public int linePairs;
+
+    /**
+     * 0 evaluates every line
+     */
+    @Param({"0", "0.001", "0.01"})
+    public float cullingTolerance;
+
+    private int[] sourcePixels, output;
+
+    private LineTable sourceLines, destinationLines;
+
+    private WarpEngine engine;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sourcePixels = BenchmarkData.image(size, size, 1);
+        output = new int[size * size];
+        sourceLines = BenchmarkData.shortLines(linePairs, size, size, size / 8f, 1);
+        destinationLines = BenchmarkData.shortLines(linePairs, size, size, size / 8f, 2);
+        engine = new WarpEngine(size, size, WeightFunction.create(0, 0.001f, 2), Sampler.NEAREST, cullingTolerance);
+    }
+
+    /**
+     * Frames with new lines, the grid is built inside every iteration
+     */
+    @Benchmark
+    public int[] warpNewLines() {
+        LineTable lines = LineTable.interpolate(sourceLines, destinationLines, 1)[1];
+        engine.warp(sourcePixels, sourceLines, output, lines, 0, 0, size, size);
+        return output;
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.imagemorpher.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Line geometry used by the warp, evaluated for every line over every pixel of an image
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LineTableBenchmark {
+
+    @Param({"256", "512"})
+    public int size;
+
+    @Param({"1", "4", "16"})
+    public int linePairs;
+
+    private LineTable lines;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        lines = BenchmarkData.lines(linePairs, size, size, 1);
+    }
+
+    @Benchmark
+    public float distanceTo() {
+        float sum = 0;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                for (int i = 0; i < linePairs; i++) {
+                    sum += lines.distanceTo(i, x, y);
+                }
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public float projectionLengthOn() {
+        float sum = 0;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                for (int i = 0; i < linePairs; i++) {
+                    sum += lines.projectionLengthOn(i, x, y);
+                }
+            }
+        }
+        return sum;
+    }
+}
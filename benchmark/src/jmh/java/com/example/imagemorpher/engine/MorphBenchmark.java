@@ -0,0 +1,92 @@
+package com.example.imagemorpher.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warp kernel and whole morph over pixel buffers, without bitmap decoding or copies
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MorphBenchmark {
+
+    /**
+     * Width and height of the square image
+     */
+    @Param({"256", "512", "1024"})
+    public int size;
+
+    @Param({"1", "4", "16"})
+    public int linePairs;
+
+    /**
+     * Intermediate frames, source and destination come on top
+     */
+    @Param({"3", "10"})
+    public int frames;
+
+    /**
+     * Worker threads, 1 renders on the benchmark thread
+     */
+    @Param({"1", "4"})
+    public int threads;
+
+    private int[] sourcePixels, destinationPixels, output;
+
+    private LineTable sourceLines, frameLines;
+
+    private WarpEngine engine;
+
+    private MorphRenderer renderer;
+
+    private WarpScheduler scheduler;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sourcePixels = BenchmarkData.image(size, size, 1);
+        destinationPixels = BenchmarkData.image(size, size, 2);
+        output = new int[size * size];
+        sourceLines = BenchmarkData.lines(linePairs, size, size, 1);
+        LineTable[] allFrameLines = LineTable.interpolate(sourceLines, BenchmarkData.lines(linePairs, size, size, 2), frames);
+        frameLines = allFrameLines[allFrameLines.length / 2];
+        engine = new WarpEngine(size, size, 0, 0.001f, 2);
+        renderer = new MorphRenderer(engine, allFrameLines);
+        scheduler = threads > 1 ? new WarpScheduler(threads) : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * One forward warp of a middle frame on the benchmark thread
+     */
+    @Benchmark
+    public int[] warpFrame() {
+        engine.warp(sourcePixels, sourceLines, output, frameLines, 0, 0, size, size);
+        return output;
+    }
+
+    /**
+     * Every frame of the morph, warped and dissolved in the fused pass
+     */
+    @Benchmark
+    public void renderMorph(Blackhole blackhole) {
+        renderer.render(sourcePixels, destinationPixels, scheduler, null, (index, pixels) -> blackhole.consume(pixels));
+    }
+}
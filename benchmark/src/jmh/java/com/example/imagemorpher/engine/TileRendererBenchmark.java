@@ -0,0 +1,85 @@
+package com.example.imagemorpher.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole frames in memory against tiles streamed from and to raw files
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TileRendererBenchmark {
+
+    @Param({"1024", "2048"})
+    public int size;
+
+    @Param({"4"})
+    public int frames;
+
+    private int[] sourcePixels, destinationPixels;
+
+    private LineTable[] frameLines;
+
+    private WarpEngine engine;
+
+    private File directory;
+
+    private RawImageFile images, output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        sourcePixels = BenchmarkData.image(size, size, 1);
+        destinationPixels = BenchmarkData.image(size, size, 2);
+        LineTable sourceLines = BenchmarkData.lines(4, size, size, 1);
+        frameLines = LineTable.interpolate(sourceLines, BenchmarkData.moved(sourceLines, size / 32f, 2), frames);
+        engine = new WarpEngine(size, size, 0, 0.001f, 2);
+        directory = Files.createTempDirectory("tiles").toFile();
+        images = new RawImageFile(new File(directory, "images.raw"), size, size, 2, true);
+        images.write(0, 0, 0, size, size, sourcePixels);
+        images.write(1, 0, 0, size, size, destinationPixels);
+        output = new RawImageFile(new File(directory, "frames.raw"), size, size, frames + 2, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        images.close();
+        output.close();
+        new File(directory, "images.raw").delete();
+        new File(directory, "frames.raw").delete();
+        directory.delete();
+    }
+
+    /**
+     * Baseline: every frame is a whole buffer
+     */
+    @Benchmark
+    public int wholeFrames() {
+        int[] checksum = new int[1];
+        new MorphRenderer(engine, frameLines).render(sourcePixels, destinationPixels, WarpScheduler.getShared(), null,
+                (index, pixels) -> {
+                    checksum[0] += pixels[index];
+                    BufferPool.getShared().release(pixels);
+                });
+        return checksum[0];
+    }
+
+    @Benchmark
+    public RawImageFile tilesOnDisk() {
+        new TileRenderer(engine, frameLines).render(images.image(0), images.image(1), WarpScheduler.getShared(), null, output);
+        return output;
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.imagemorpher.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Row-major scanlines against a column by column walk of the same buffers
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TraversalBenchmark {
+
+    @Param({"256", "512", "1024"})
+    public int size;
+
+    @Param({"4"})
+    public int linePairs;
+
+    /**
+     * Rows per block in the blocked variant
+     */
+    @Param({"8"})
+    public int blockHeight;
+
+    private int[] sourcePixels, reversePixels, output;
+
+    private LineTable sourceLines, destinationLines;
+
+    private WarpEngine engine;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sourcePixels = BenchmarkData.image(size, size, 1);
+        reversePixels = BenchmarkData.image(size, size, 2);
+        output = new int[size * size];
+        sourceLines = BenchmarkData.lines(linePairs, size, size, 1);
+        destinationLines = BenchmarkData.lines(linePairs, size, size, 2);
+        engine = new WarpEngine(size, size, 0, 0.001f, 2);
+    }
+
+    @Benchmark
+    public int[] warpRowMajor() {
+        engine.warp(sourcePixels, sourceLines, output, destinationLines, 0, 0, size, size);
+        return output;
+    }
+
+    @Benchmark
+    public int[] warpRowBlocks() {
+        for (int y = 0; y < size; y += blockHeight) {
+            engine.warp(sourcePixels, sourceLines, output, destinationLines, 0, y, size, Math.min(y + blockHeight, size));
+        }
+        return output;
+    }
+
+    /**
+     * Baseline: one column at a time, as the warp loop used to walk the image
+     */
+    @Benchmark
+    public int[] warpColumnMajor() {
+        for (int x = 0; x < size; x++) {
+            engine.warp(sourcePixels, sourceLines, output, destinationLines, x, 0, x + 1, size);
+        }
+        return output;
+    }
+
+    @Benchmark
+    public int[] dissolveRowMajor() {
+        int half = CrossDissolve.WEIGHT_ONE / 2;
+        for (int y = 0; y < size; y++) {
+            CrossDissolve.blendRow(sourcePixels, reversePixels, output, y * size, size, half, half);
+        }
+        return output;
+    }
+
+    /**
+     * Baseline: the same blend walked column by column
+     */
+    @Benchmark
+    public int[] dissolveColumnMajor() {
+        int half = CrossDissolve.WEIGHT_ONE / 2;
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                int index = y * size + x;
+                output[index] = CrossDissolve.blend(sourcePixels[index], reversePixels[index], half, half);
+            }
+        }
+        return output;
+    }
+}